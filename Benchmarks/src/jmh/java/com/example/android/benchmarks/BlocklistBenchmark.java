@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.benchmarks;
+
+import com.example.android.smsmessaging.NumberBlocklist;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups in a NumberBlocklist of random North American numbers. Numbers
+ * that are not blocked should mostly stop at the Bloom filter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BlocklistBenchmark {
+
+    private static final int LOOKUPS = 1024;
+
+    @Param({"10000", "2000000"})
+    public int mNumbers;
+
+    private NumberBlocklist mBlocklist;
+    private String[] mBlocked = new String[LOOKUPS];
+    private String[] mAllowed = new String[LOOKUPS];
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        NumberBlocklist.Builder builder = new NumberBlocklist.Builder();
+        for (int i = 0; i < mNumbers; i++) {
+            String number = randomNumber(random);
+            builder.add(number);
+            if (i < LOOKUPS) {
+                mBlocked[i] = number;
+            }
+        }
+        builder.addPrefix("+1900").addPrefix("+1976");
+        mBlocklist = builder.build();
+        for (int i = 0; i < LOOKUPS; i++) {
+            mAllowed[i] = randomNumber(random);
+        }
+    }
+
+    private static String randomNumber(Random random) {
+        return "+1" + (2000000000L + (random.nextLong() >>> 1) % 8000000000L);
+    }
+
+    @Benchmark
+    public boolean blocked() {
+        mNext = (mNext + 1) & (LOOKUPS - 1);
+        return mBlocklist.isBlocked(mBlocked[mNext]);
+    }
+
+    @Benchmark
+    public boolean allowed() {
+        mNext = (mNext + 1) & (LOOKUPS - 1);
+        return mBlocklist.isBlocked(mAllowed[mNext]);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.benchmarks;
+
+import com.example.android.smsmessaging.BulkSmsSender;
+import com.example.android.smsmessaging.DeliveryTracker;
+import com.example.android.smsmessaging.TokenBucket;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The full send path of smsSendMessage(): a batch goes through the
+ * outbox, the rate limit and the transport, and every part of every
+ * message gets a successful sent report.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BulkSendBenchmark {
+
+    private static final String BODY = SegmentationBenchmark.LONG_BODY;
+
+    @Param({"10", "100"})
+    public int mRecipients;
+
+    private List<String> mDestinations;
+    private File mOutboxDir;
+    private BulkSmsSender mSender;
+    private volatile CountDownLatch mDone;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        mDestinations = new ArrayList<>();
+        for (int i = 0; i < mRecipients; i++) {
+            mDestinations.add("+1555" + (1000000 + i));
+        }
+        mOutboxDir = File.createTempFile("outbox", "");
+        mOutboxDir.delete();
+        mSender = new BulkSmsSender(new FakeSmsTransport() {
+            @Override
+            void onSubmitted(long messageId, int attempt, int parts) {
+                // The outbox settles a message once every part has reported.
+                for (int i = 0; i < parts; i++) {
+                    mSender.onSentReport(messageId, attempt, true, false);
+                }
+                mDone.countDown();
+            }
+        }, new TokenBucket(1e9, Integer.MAX_VALUE), Executors.newSingleThreadScheduledExecutor(),
+                new DeliveryTracker(), mOutboxDir);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        mSender.shutdown();
+        File[] files = mOutboxDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mOutboxDir.delete();
+    }
+
+    /**
+     * Sends one multipart body to every recipient and waits until the
+     * transport has seen them all.
+     */
+    @Benchmark
+    public void sendBatch() throws InterruptedException {
+        mDone = new CountDownLatch(mRecipients);
+        mSender.send(mDestinations, BODY);
+        mDone.await();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.benchmarks;
+
+import com.example.android.phonecallingsamplechallenge.CallHistoryStore;
+import com.example.android.phonecallingsamplechallenge.CallerIdIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opening a month of call history (400 calls a day) and running the
+ * aggregate queries over it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CallHistoryBenchmark {
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+    private static final int DAYS = 30;
+    private static final int CALLS_PER_DAY = 400;
+    private static final long START_MILLIS = 1500000000000L;
+
+    private File mDir;
+    private CallHistoryStore mStore;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("history", "");
+        mDir.delete();
+        CallHistoryStore store = new CallHistoryStore(mDir);
+        Random random = new Random(1);
+        int calls = DAYS * CALLS_PER_DAY;
+        for (int i = 0; i < calls; i++) {
+            long start = START_MILLIS + i * (DAY_MILLIS / CALLS_PER_DAY);
+            int outcome = 1 + random.nextInt(3);
+            int duration = outcome == 2 ? 0 : random.nextInt(10 * 60 * 1000);
+            long key = CallerIdIndex.key("+1555" + (1000000 + random.nextInt(500)));
+            store.append(start, duration, key, outcome);
+        }
+        store.close();
+        mStore = new CallHistoryStore(mDir);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mStore.close();
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    /**
+     * Opens the store and runs every query once, reading all the columns.
+     */
+    @Benchmark
+    public int openAndAggregate() throws IOException {
+        CallHistoryStore store = new CallHistoryStore(mDir);
+        try {
+            return aggregate(store);
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Runs every query on a store whose columns are already loaded.
+     */
+    @Benchmark
+    public int aggregate() throws IOException {
+        return aggregate(mStore);
+    }
+
+    private static int aggregate(CallHistoryStore store) throws IOException {
+        long to = START_MILLIS + DAYS * DAY_MILLIS;
+        int[] perHour = store.countPerHour(START_MILLIS, to);
+        long averageTalk = store.averageTalkMillis(START_MILLIS, to);
+        int top = store.topNumbers(START_MILLIS, to, 10).get(0).count;
+        return perHour.length + (int) averageTalk + top;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.benchmarks;
+
+import com.example.android.phonecallingsamplechallenge.CallMetrics;
+import com.example.android.phonecallingsamplechallenge.CallStateProcessor;
+import com.example.android.phonecallingsamplechallenge.CallUiState;
+import com.example.android.phonecallingsamplechallenge.CallerIdIndex;
+import com.example.android.phonecallingsamplechallenge.PhoneNumberNormalizer;
+import com.example.android.phonecallingsamplechallenge.ReplayCallStateSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A call-waiting burst pushed through CallStateProcessor: two calls end
+ * and the next one rings, all within one frame. The main thread is a
+ * queue run after each burst, so the result is the cost of processing
+ * the changes plus the coalesced UI updates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CallStateBenchmark {
+
+    private static final int IDLE = CallMetrics.STATE_IDLE;
+    private static final int RINGING = CallMetrics.STATE_RINGING;
+    private static final int OFFHOOK = CallMetrics.STATE_OFFHOOK;
+    private static final String FIRST = "+12025550100";
+    private static final String SECOND = "(202) 555-0199";
+
+    private final ArrayList<Runnable> mMainQueue = new ArrayList<>();
+    private final ReplayCallStateSource mBurst = new ReplayCallStateSource()
+            .add(0, RINGING, FIRST)
+            .add(1, OFFHOOK, "")
+            .add(1, IDLE, "")
+            .add(1, RINGING, SECOND)
+            .add(1, OFFHOOK, "")
+            .add(1, IDLE, "")
+            .add(1, RINGING, FIRST)
+            .add(1, IDLE, "");
+    private CallStateProcessor mProcessor;
+    private int mUpdates;
+    private int mCallsEnded;
+
+    @Setup
+    public void setUp() {
+        CallerIdIndex callerIds = new CallerIdIndex();
+        callerIds.put(CallerIdIndex.key(FIRST), "First caller");
+        mProcessor = new CallStateProcessor(new CallMetrics(1024),
+                new PhoneNumberNormalizer("1", 64), callerIds,
+                new CallStateProcessor.CallNumberListener() {
+                    @Override
+                    public void setCurrentNumber(long numberKey) {
+                    }
+                },
+                new CallStateProcessor.UiScheduler() {
+                    @Override
+                    public long uptimeMillis() {
+                        // Frozen, so the whole burst falls in one frame.
+                        return 0;
+                    }
+
+                    @Override
+                    public void postAtTime(Runnable task, long uptimeMillis) {
+                        mMainQueue.add(task);
+                    }
+                });
+        mProcessor.setUiListener(new CallStateProcessor.UiListener() {
+            @Override
+            public void onCallUiState(CallUiState state) {
+                mUpdates++;
+                if (state.isCallEnded()) {
+                    mCallsEnded++;
+                }
+            }
+        });
+    }
+
+    /**
+     * @return The UI updates and ended calls seen, so far.
+     */
+    @Benchmark
+    public int callWaitingBurst() {
+        mBurst.replay(mProcessor);
+        for (int i = 0; i < mMainQueue.size(); i++) {
+            mMainQueue.get(i).run();
+        }
+        mMainQueue.clear();
+        return mUpdates + mCallsEnded;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.benchmarks;
+
+import com.example.android.phonecallingsamplechallenge.CallerIdIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caller-ID lookups in an index of one million numbers, against a
+ * HashMap<String, String> holding the same entries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CallerIdBenchmark {
+
+    private static final int ENTRIES = 1000000;
+    private static final long FIRST_NUMBER = 12025550000L;
+
+    private final CallerIdIndex mIndex = new CallerIdIndex();
+    private final HashMap<String, String> mMap = new HashMap<>();
+    private String[] mNumbers;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < ENTRIES; i++) {
+            String number = number(i);
+            String label = "Contact " + i;
+            mIndex.put(CallerIdIndex.key(number), label);
+            mMap.put(number, label);
+        }
+        // Numbers spread over the whole index, so lookups miss the CPU cache.
+        mNumbers = new String[1024];
+        for (int i = 0; i < mNumbers.length; i++) {
+            mNumbers[i] = number(i * (ENTRIES / mNumbers.length));
+        }
+    }
+
+    @Benchmark
+    public String indexHit() {
+        return mIndex.get(CallerIdIndex.key(nextNumber()));
+    }
+
+    @Benchmark
+    public String indexMiss() {
+        return mIndex.get(CallerIdIndex.key("+442079460958"));
+    }
+
+    @Benchmark
+    public String hashMapHit() {
+        return mMap.get(nextNumber());
+    }
+
+    private static String number(int i) {
+        return "+" + (FIRST_NUMBER + i * 7L);
+    }
+
+    private String nextNumber() {
+        return mNumbers[mNext++ & (mNumbers.length - 1)];
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.benchmarks;
+
+import com.example.android.smsmessaging.SmsReassembler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Joining the parts of a multipart message: the String += loop that
+ * MySmsReceiver used to run per broadcast, against SmsReassembler.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ConcatBenchmark {
+
+    private static final char[] ADDRESS = "+15551234567".toCharArray();
+
+    @Param({"2", "4", "8"})
+    public int mParts;
+
+    private String[] mBodies;
+    private char[][] mChars;
+    private SmsReassembler mReassembler;
+
+    @Setup
+    public void setUp() {
+        mBodies = new String[mParts];
+        mChars = new char[mParts][];
+        for (int i = 0; i < mParts; i++) {
+            StringBuilder sb = new StringBuilder();
+            while (sb.length() < 153) {
+                sb.append((char) ('a' + (sb.length() + i) % 26));
+            }
+            mBodies[i] = sb.toString();
+            mChars[i] = mBodies[i].toCharArray();
+        }
+        mReassembler = new SmsReassembler(16 * 1024, Long.MAX_VALUE);
+    }
+
+    @Benchmark
+    public String stringConcat() {
+        String body = "";
+        for (int i = 0; i < mParts; i++) {
+            body += mBodies[i];
+        }
+        return body;
+    }
+
+    @Benchmark
+    public String reassembler() {
+        String body = null;
+        for (int i = 0; i < mParts; i++) {
+            body = mReassembler.add(ADDRESS, ADDRESS.length, 1, i + 1, mParts, mChars[i], mChars[i].length, 0);
+        }
+        return body;
+    }
+}
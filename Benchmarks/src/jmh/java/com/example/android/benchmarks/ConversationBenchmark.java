@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.benchmarks;
+
+import com.example.android.smsmessaging.Conversations;
+import com.example.android.smsmessaging.InboxStore;
+import com.example.android.smsmessaging.PhoneNumberNormalizer;
+import com.example.android.smsmessaging.ReceivedSms;
+import com.example.android.smsmessaging.SentSms;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opening a long conversation thread: reading its newest page, and a page
+ * further back by following the cursors. The cost should depend on the
+ * page size, not the length of the thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConversationBenchmark {
+
+    private static final String ADDRESS = "+15551002000";
+    private static final int PAGE = 30;
+
+    @Param({"1000", "50000"})
+    public int mMessages;
+
+    private File mDir;
+    private Conversations mConversations;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("conversations", "");
+        mDir.delete();
+        PhoneNumberNormalizer normalizer = new PhoneNumberNormalizer("1", 1024);
+        InboxStore store = new InboxStore(mDir, InboxStore.DEFAULT_SEGMENT_SIZE, normalizer);
+        for (int i = 0; i < mMessages; i++) {
+            // Another thread's message between each of this one's.
+            if (i % 3 == 0) {
+                store.append(new SentSms(ADDRESS, "Message " + i, i));
+            } else {
+                store.append(new ReceivedSms(ADDRESS, "Message " + i, i));
+            }
+            store.append(new ReceivedSms("+1555" + (3000000 + i % 100), "Other " + i, i));
+        }
+        mConversations = new Conversations(store, normalizer, new File(mDir, "conversations"));
+        mConversations.addReceived(
+                Collections.singletonList(new ReceivedSms(ADDRESS, "Newest", mMessages)));
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Benchmark
+    public InboxStore.ThreadPage newestPage() throws IOException {
+        return mConversations.getPage(ADDRESS, InboxStore.THREAD_START, PAGE);
+    }
+
+    @Benchmark
+    public InboxStore.ThreadPage thirdPage() throws IOException {
+        InboxStore.ThreadPage page =
+                mConversations.getPage(ADDRESS, InboxStore.THREAD_START, PAGE);
+        page = mConversations.getPage(ADDRESS, page.getNextCursor(), PAGE);
+        return mConversations.getPage(ADDRESS, page.getNextCursor(), PAGE);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.benchmarks;
+
+import com.example.android.smsmessaging.PhoneNumberNormalizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Number normalization and tel: URI construction as done by callNumber()
+ * in the phone calling samples, before and after PhoneNumberNormalizer.
+ * PhoneNumberUtils is not available on the JVM, so normalizeNumber() below
+ * reproduces what it does: keep the digits and a leading '+', and map
+ * keypad letters to digits.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DialNumberBenchmark {
+
+    @Param({"(555) 123-4567", "+1 650-555-1234", "1-800-FLOWERS"})
+    public String mNumber;
+
+    private PhoneNumberNormalizer mNormalizer;
+    private char[] mChars;
+
+    @Setup
+    public void setUp() {
+        mNormalizer = new PhoneNumberNormalizer("1", 64);
+        mChars = mNumber.toCharArray();
+    }
+
+    /**
+     * The callNumber() path: normalize, then String.format().
+     */
+    @Benchmark
+    public String formatTelUri() {
+        return String.format("tel: %s", normalizeNumber(mNumber));
+    }
+
+    /**
+     * The same URI built by concatenation.
+     */
+    @Benchmark
+    public String concatTelUri() {
+        return "tel:" + normalizeNumber(mNumber);
+    }
+
+    @Benchmark
+    public String normalize() {
+        return normalizeNumber(mNumber);
+    }
+
+    /**
+     * The current callNumber() path: a cache hit, then concatenation.
+     */
+    @Benchmark
+    public String normalizerTelUri() {
+        return "tel:" + mNormalizer.normalize(mNumber);
+    }
+
+    /**
+     * E.164 normalization without the cache.
+     */
+    @Benchmark
+    public String normalizerUncached() {
+        return mNormalizer.normalize(mChars, 0, mChars.length);
+    }
+
+    /**
+     * Equivalent of PhoneNumberUtils.normalizeNumber().
+     */
+    static String normalizeNumber(String phoneNumber) {
+        StringBuilder sb = new StringBuilder();
+        int len = phoneNumber.length();
+        for (int i = 0; i < len; i++) {
+            char c = phoneNumber.charAt(i);
+            int digit = Character.digit(c, 10);
+            if (digit != -1) {
+                sb.append(digit);
+            } else if (sb.length() == 0 && c == '+') {
+                sb.append(c);
+            } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                return normalizeNumber(convertKeypadLettersToDigits(phoneNumber));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String convertKeypadLettersToDigits(String input) {
+        char[] out = input.toCharArray();
+        for (int i = 0; i < out.length; i++) {
+            char c = Character.toUpperCase(out[i]);
+            if (c >= 'A' && c <= 'Z') {
+                out[i] = "22233344455566677778889999".charAt(c - 'A');
+            }
+        }
+        return new String(out);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.benchmarks;
+
+import com.example.android.smsmessaging.SegmentCounter;
+import com.example.android.smsmessaging.SmsTransport;
+
+import java.util.ArrayList;
+
+/**
+ * An SmsTransport that sends nothing. divideMessage() splits with
+ * SegmentCounter, as SmsManagerTransport does.
+ */
+class FakeSmsTransport implements SmsTransport {
+
+    @Override
+    public ArrayList<String> divideMessage(String text) {
+        return SegmentCounter.divideMessage(text);
+    }
+
+    @Override
+    public void sendTextMessage(String destination, String text, long messageId, int attempt) {
+        onSubmitted(messageId, attempt, 1);
+    }
+
+    @Override
+    public void sendMultipartTextMessage(String destination, ArrayList<String> parts,
+                                         long messageId, int attempt) {
+        onSubmitted(messageId, attempt, parts.size());
+    }
+
+    /**
+     * Called for every message handed to the transport. The framework
+     * sends a report for each part, so a fake report should too.
+     *
+     * @param parts The number of parts the message was sent in.
+     */
+    void onSubmitted(long messageId, int attempt, int parts) {
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.benchmarks;
+
+import com.example.android.smsmessaging.InboxStore;
+import com.example.android.smsmessaging.PhoneNumberNormalizer;
+import com.example.android.smsmessaging.ReceivedSms;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Substring search over an InboxStore of random messages: a rare phrase,
+ * a common phrase, and part of a sender's number. Also times reopening the
+ * store, which maps the sealed segments' trigram indexes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InboxSearchBenchmark {
+
+    private static final String[] WORDS = ("your code is order shipped delivery tomorrow "
+            + "meeting dinner tonight call me back reply STOP appointment pharmacy ready "
+            + "pickup invoice payment due balance café Zürich").split(" ");
+    private static final int LIMIT = 50;
+
+    @Param({"100000", "1000000"})
+    public int mMessages;
+
+    private File mDir;
+    private PhoneNumberNormalizer mNormalizer;
+    private InboxStore mStore;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("inbox", "");
+        mDir.delete();
+        mNormalizer = new PhoneNumberNormalizer("1", 1024);
+        mStore = new InboxStore(mDir, InboxStore.DEFAULT_SEGMENT_SIZE, mNormalizer);
+        Random random = new Random(42);
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < mMessages; i++) {
+            body.setLength(0);
+            int words = 8 + random.nextInt(16);
+            for (int j = 0; j < words; j++) {
+                body.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+                if (random.nextInt(6) == 0) {
+                    body.append(random.nextInt(100000)).append(' ');
+                }
+            }
+            mStore.append(new ReceivedSms("+1555" + (1000000 + random.nextInt(5000)),
+                    body.toString(), i));
+        }
+        mStore.flush();
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Benchmark
+    public List<ReceivedSms> searchRare() throws IOException {
+        return mStore.search("Zürich dinner 4", LIMIT);
+    }
+
+    @Benchmark
+    public List<ReceivedSms> searchCommon() throws IOException {
+        return mStore.search("pharmacy ready pickup", LIMIT);
+    }
+
+    @Benchmark
+    public List<ReceivedSms> searchAddress() throws IOException {
+        return mStore.search("5551001", LIMIT);
+    }
+
+    @Benchmark
+    public InboxStore open() throws IOException {
+        return new InboxStore(mDir, InboxStore.DEFAULT_SEGMENT_SIZE, mNormalizer);
+    }
+}
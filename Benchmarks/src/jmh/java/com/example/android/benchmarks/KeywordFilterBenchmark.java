@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.benchmarks;
+
+import com.example.android.smsmessaging.KeywordFilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tagging a message body with KeywordFilter. The time per body should not
+ * grow with the number of rules, and nothing should be allocated.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class KeywordFilterBenchmark {
+
+    private static final String BODY = "Hi, this is a reminder that your appointment is "
+            + "tomorrow at 10:30. Reply STOP to opt out of reminders. Call us on 555 0100.";
+
+    @Param({"100", "5000"})
+    public int mRules;
+
+    private KeywordFilter mFilter;
+
+    @Setup
+    public void setUp() throws IOException {
+        // Random lowercase words, a third of them with word boundaries,
+        // plus a few patterns that match the body.
+        Random random = new Random(42);
+        StringBuilder rules = new StringBuilder();
+        String[] tags = {"spam", "opt-out", "priority"};
+        for (int i = 0; i < mRules; i++) {
+            rules.append(tags[i % 3]).append(' ');
+            if (i % 3 == 0) {
+                rules.append("\\b");
+            }
+            int length = 4 + random.nextInt(8);
+            for (int j = 0; j < length; j++) {
+                rules.append((char) ('a' + random.nextInt(26)));
+            }
+            rules.append(i % 3 == 0 ? "\\b\n" : "\n");
+        }
+        rules.append("opt-out \\bstop\\b\n");
+        rules.append("priority \\b(appointment|reminder)s?\\b\n");
+        mFilter = KeywordFilter.parse(new StringReader(rules.toString()));
+    }
+
+    @Benchmark
+    public int match() {
+        return mFilter.match(BODY);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.benchmarks;
+
+import com.example.android.mmschallenge.MmsPduEncoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of an m-send.req PDU by MmsPduEncoder with a large attachment.
+ * The bytes allocated per operation (gc.alloc.rate.norm) should not grow
+ * with the attachment size. Setup reads a PDU back with MmsPdus first, so
+ * a broken encoding fails instead of being timed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MmsEncodeBenchmark {
+
+    @Param({"300000", "5000000"})
+    public int mAttachmentBytes;
+
+    private File mFile;
+    private RandomAccessFile mAttachment;
+    private byte[] mStreamData;
+
+    /**
+     * Counts the bytes written and drops them.
+     */
+    private static final class NullChannel implements WritableByteChannel {
+        long mCount;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            mCount += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("attachment", ".jpg");
+        mAttachment = new RandomAccessFile(mFile, "rw");
+        mAttachment.setLength(mAttachmentBytes);
+        mStreamData = new byte[mAttachmentBytes];
+        checkRoundTrip();
+    }
+
+    /**
+     * Encodes a PDU in memory and checks its headers and parts against
+     * what was added, and its size against getLength().
+     */
+    private void checkRoundTrip() throws IOException {
+        // A non-ASCII subject, so it is written as an encoded string.
+        MmsPduEncoder encoder = newEncoder()
+                .setSubject("Fotos de la obra, d\u00eda 1")
+                .setDeliveryReport(true)
+                .addPart(MmsPduEncoder.Part.bytes("image/jpeg", "image_0.jpg",
+                        new byte[mAttachmentBytes]));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.writeTo(out);
+        byte[] pdu = out.toByteArray();
+        MmsPdus.check(encoder.getLength() == pdu.length, "getLength() " + encoder.getLength()
+                + " but wrote " + pdu.length);
+        MmsPdus.SendRequest request = MmsPdus.readSendRequest(pdu);
+        MmsPdus.check("T0001".equals(request.transactionId), request.transactionId);
+        MmsPdus.check(request.recipients.equals(Arrays.asList("+15551234567/TYPE=PLMN")),
+                request.recipients.toString());
+        MmsPdus.check("Fotos de la obra, d\u00eda 1".equals(request.subject), request.subject);
+        MmsPdus.check(request.deliveryReport, "No delivery report");
+        MmsPdus.check(request.partLocations.equals(
+                Arrays.asList("smil.xml", "text_0.txt", "image_0.jpg")),
+                request.partLocations.toString());
+        MmsPdus.check(request.partLengths.get(2) == mAttachmentBytes,
+                request.partLengths.toString());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mAttachment.close();
+        mFile.delete();
+    }
+
+    @Benchmark
+    public long encodeFromFile() throws IOException {
+        FileChannel channel = mAttachment.getChannel();
+        channel.position(0);
+        NullChannel out = new NullChannel();
+        newEncoder().addPart(MmsPduEncoder.Part.file("image/jpeg", "image_0.jpg", channel))
+                .writeTo(out);
+        return out.mCount;
+    }
+
+    @Benchmark
+    public long encodeFromStream() throws IOException {
+        InputStream in = new ByteArrayInputStream(mStreamData);
+        NullChannel out = new NullChannel();
+        newEncoder().addPart(MmsPduEncoder.Part.stream("image/jpeg", "image_0.jpg", in,
+                mAttachmentBytes)).writeTo(out);
+        return out.mCount;
+    }
+
+    private static MmsPduEncoder newEncoder() {
+        return new MmsPduEncoder("T0001")
+                .addRecipient("+15551234567")
+                .setSubject("Site photos")
+                .addPart(MmsPduEncoder.Part.text("text_0.txt", "North wall, before repair."));
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.benchmarks;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads back the m-send.req PDUs written by MmsPduEncoder, so the
+ * benchmarks can check the encoding before timing it. Only reads the
+ * fields the encoder writes.
+ */
+final class MmsPdus {
+
+    private static final int HEADER_CONTENT_TYPE = 0x84;
+    private static final int HEADER_DELIVERY_REPORT = 0x86;
+    private static final int HEADER_FROM = 0x89;
+    private static final int HEADER_MESSAGE_CLASS = 0x8A;
+    private static final int HEADER_MESSAGE_TYPE = 0x8C;
+    private static final int HEADER_MMS_VERSION = 0x8D;
+    private static final int HEADER_SUBJECT = 0x96;
+    private static final int HEADER_TO = 0x97;
+    private static final int HEADER_TRANSACTION_ID = 0x98;
+    private static final int PART_CONTENT_LOCATION = 0x8E;
+    private static final int PART_CONTENT_ID = 0xC0;
+    private static final int MESSAGE_TYPE_SEND_REQ = 0x80;
+    private static final int TYPE_MULTIPART_RELATED = 0xB3;
+    private static final int QUOTE = 0x7F;
+    private static final int QUOTED_STRING = 0x22;
+    private static final int LENGTH_QUOTE = 31;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The fields of an m-send.req.
+     */
+    static final class SendRequest {
+        String transactionId;
+        final List<String> recipients = new ArrayList<>();
+        String subject;
+        boolean deliveryReport;
+        final List<String> partLocations = new ArrayList<>();
+        final List<Integer> partLengths = new ArrayList<>();
+    }
+
+    private final byte[] mPdu;
+    private int mPos;
+
+    private MmsPdus(byte[] pdu) {
+        mPdu = pdu;
+    }
+
+    /**
+     * @param pdu A whole PDU.
+     * @return Its fields.
+     * @throws IllegalStateException if the PDU is not a well-formed m-send.req.
+     */
+    static SendRequest readSendRequest(byte[] pdu) {
+        return new MmsPdus(pdu).readSendRequest();
+    }
+
+    private SendRequest readSendRequest() {
+        SendRequest request = new SendRequest();
+        check(next() == HEADER_MESSAGE_TYPE && next() == MESSAGE_TYPE_SEND_REQ,
+                "Not an m-send.req");
+        while (true) {
+            int field = next();
+            if (field == HEADER_CONTENT_TYPE) {
+                int end = readValueLength();
+                check(next() == TYPE_MULTIPART_RELATED, "Body is not multipart/related");
+                mPos = end;
+                break;
+            }
+            switch (field) {
+                case HEADER_TRANSACTION_ID:
+                    request.transactionId = readText();
+                    break;
+                case HEADER_TO:
+                    request.recipients.add(readEncodedString());
+                    break;
+                case HEADER_SUBJECT:
+                    request.subject = readEncodedString();
+                    break;
+                case HEADER_DELIVERY_REPORT:
+                    request.deliveryReport = next() == 0x80;
+                    break;
+                case HEADER_MMS_VERSION:
+                case HEADER_MESSAGE_CLASS:
+                    next();
+                    break;
+                case HEADER_FROM:
+                    mPos = readValueLength();
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected header 0x"
+                            + Integer.toHexString(field));
+            }
+        }
+        long parts = readUintvar();
+        for (int i = 0; i < parts; i++) {
+            int headersEnd = (int) readUintvar();
+            int dataLength = (int) readUintvar();
+            headersEnd += mPos;
+            // The content type, then the part headers.
+            mPos = readValueLength();
+            String location = null;
+            while (mPos < headersEnd) {
+                int field = next();
+                if (field == PART_CONTENT_ID) {
+                    check(next() == QUOTED_STRING, "Content-ID not quoted");
+                    readText();
+                } else if (field == PART_CONTENT_LOCATION) {
+                    location = readText();
+                } else {
+                    throw new IllegalStateException("Unexpected part header 0x"
+                            + Integer.toHexString(field));
+                }
+            }
+            check(mPos == headersEnd, "Part headers overrun");
+            request.partLocations.add(location);
+            request.partLengths.add(dataLength);
+            mPos += dataLength;
+        }
+        check(mPos == mPdu.length, "PDU length " + mPdu.length + ", parts end at " + mPos);
+        return request;
+    }
+
+    /**
+     * Reads a Value-length.
+     *
+     * @return The position just past the value.
+     */
+    private int readValueLength() {
+        int length = next();
+        if (length == LENGTH_QUOTE) {
+            length = (int) readUintvar();
+        }
+        return mPos + length;
+    }
+
+    private String readEncodedString() {
+        if ((mPdu[mPos] & 0xFF) <= LENGTH_QUOTE) {
+            // Value-length, charset, text.
+            int end = readValueLength();
+            next();
+            String text = readText();
+            check(mPos == end, "Encoded string overrun");
+            return text;
+        }
+        return readText();
+    }
+
+    private String readText() {
+        if ((mPdu[mPos] & 0xFF) == QUOTE) {
+            mPos++;
+        }
+        int start = mPos;
+        while (mPdu[mPos] != 0) {
+            mPos++;
+        }
+        String text = new String(mPdu, start, mPos - start, UTF_8);
+        mPos++;
+        return text;
+    }
+
+    private long readUintvar() {
+        long value = 0;
+        int b;
+        do {
+            b = next();
+            value = (value << 7) | (b & 0x7F);
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private int next() {
+        return mPdu[mPos++] & 0xFF;
+    }
+
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
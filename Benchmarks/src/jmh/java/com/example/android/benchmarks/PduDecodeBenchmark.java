@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.benchmarks;
+
+import com.example.android.smsmessaging.SmsPduDecoder;
+import com.example.android.smsmessaging.SmsReassembler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of inbound PDUs as done by MySmsReceiver and SmsReceivePipeline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PduDecodeBenchmark {
+
+    private static final String SENDER = "15551234567";
+    private static final String TEXT =
+            "Your appointment is confirmed for Tuesday at 10:30. Reply STOP to opt out.";
+
+    private final SmsPduDecoder mDecoder = new SmsPduDecoder();
+    private final SmsReassembler mReassembler =
+            new SmsReassembler(16 * 1024, Long.MAX_VALUE);
+    private byte[] mGsm7;
+    private byte[] mUcs2;
+    private byte[][] mParts;
+
+    @Setup
+    public void setUp() {
+        mGsm7 = Pdus.gsm7(SENDER, TEXT, 0, 1, 1);
+        mUcs2 = Pdus.ucs2(SENDER, "Ваша запись подтверждена на вторник, 10:30.");
+        mParts = new byte[3][];
+        for (int i = 0; i < mParts.length; i++) {
+            mParts[i] = Pdus.gsm7(SENDER, TEXT + TEXT, 42, i + 1, mParts.length);
+        }
+    }
+
+    @Benchmark
+    public int decodeGsm7() {
+        mDecoder.decode(mGsm7);
+        return mDecoder.getBodyLength();
+    }
+
+    @Benchmark
+    public int decodeUcs2() {
+        mDecoder.decode(mUcs2);
+        return mDecoder.getBodyLength();
+    }
+
+    /**
+     * Decodes and joins a three-part message, including the String for
+     * the joined body. Parts that do not complete the message allocate
+     * only the copy of their text.
+     */
+    @Benchmark
+    public String decodeAndReassemble() {
+        String body = null;
+        for (byte[] part : mParts) {
+            mDecoder.decode(part);
+            body = mReassembler.add(mDecoder.getAddressChars(), mDecoder.getAddressLength(),
+                    mDecoder.getConcatRef(), mDecoder.getConcatSeq(),
+                    mDecoder.getConcatCount(), mDecoder.getBodyChars(),
+                    mDecoder.getBodyLength(), 0);
+        }
+        return body;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.benchmarks;
+
+/**
+ * Builds SMS-DELIVER PDUs for the benchmarks.
+ */
+final class Pdus {
+
+    private Pdus() {
+    }
+
+    /**
+     * Builds a GSM 7-bit PDU. The text must only use characters whose
+     * GSM 7-bit code equals their ASCII code (letters, digits, space and
+     * most punctuation).
+     *
+     * @param sender International number, digits only.
+     * @param text   Message text.
+     * @param ref    Concatenation reference; ignored if count is 1.
+     * @param seq    1-based part number.
+     * @param count  Number of parts; 1 for a single-part message.
+     * @return The PDU.
+     */
+    static byte[] gsm7(String sender, String text, int ref, int seq, int count) {
+        byte[] header = count > 1
+                ? new byte[] {5, 0, 3, (byte) ref, (byte) count, (byte) seq}
+                : new byte[0];
+        int headerSeptets = (header.length * 8 + 6) / 7;
+        int septets = headerSeptets + text.length();
+        byte[] userData = new byte[(septets * 7 + 7) / 8];
+        System.arraycopy(header, 0, userData, 0, header.length);
+        for (int i = 0; i < text.length(); i++) {
+            int bit = (headerSeptets + i) * 7;
+            int value = text.charAt(i);
+            userData[bit >> 3] |= (byte) (value << (bit & 7));
+            if ((bit & 7) > 1) {
+                userData[(bit >> 3) + 1] |= (byte) (value >> (8 - (bit & 7)));
+            }
+        }
+        return pdu(sender, count > 1, 0x00, septets, userData);
+    }
+
+    /**
+     * Builds a single-part UCS-2 PDU.
+     *
+     * @param sender International number, digits only.
+     * @param text   Message text.
+     * @return The PDU.
+     */
+    static byte[] ucs2(String sender, String text) {
+        byte[] userData = new byte[text.length() * 2];
+        for (int i = 0; i < text.length(); i++) {
+            userData[i * 2] = (byte) (text.charAt(i) >> 8);
+            userData[i * 2 + 1] = (byte) text.charAt(i);
+        }
+        return pdu(sender, false, 0x08, userData.length, userData);
+    }
+
+    private static byte[] pdu(String sender, boolean hasHeader, int dcs, int userDataLength,
+                              byte[] userData) {
+        int addressOctets = (sender.length() + 1) / 2;
+        // No SMSC, first octet, address, PID, DCS, time stamp, UDL.
+        byte[] pdu = new byte[1 + 1 + 2 + addressOctets + 1 + 1 + 7 + 1 + userData.length];
+        int pos = 0;
+        pdu[pos++] = 0;
+        pdu[pos++] = (byte) (hasHeader ? 0x44 : 0x04);
+        pdu[pos++] = (byte) sender.length();
+        pdu[pos++] = (byte) 0x91;
+        for (int i = 0; i < addressOctets; i++) {
+            int low = sender.charAt(i * 2) - '0';
+            int high = i * 2 + 1 < sender.length() ? sender.charAt(i * 2 + 1) - '0' : 0x0F;
+            pdu[pos++] = (byte) ((high << 4) | low);
+        }
+        pdu[pos++] = 0;
+        pdu[pos++] = (byte) dcs;
+        pos += 7;
+        pdu[pos++] = (byte) userDataLength;
+        System.arraycopy(userData, 0, pdu, pos, userData.length);
+        return pdu;
+    }
+}
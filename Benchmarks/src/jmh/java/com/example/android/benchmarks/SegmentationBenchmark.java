@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.benchmarks;
+
+import com.example.android.smsmessaging.SegmentCounter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splitting a message body into SMS parts before it is sent, and counting
+ * segments in the compose field as a long body is typed: one keystroke
+ * counted incrementally, against recounting the whole body.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SegmentationBenchmark {
+
+    static final String SHORT_BODY = "Meeting moved to 3pm.";
+    static final String LONG_BODY = repeat(
+            "Reminder: the community centre is closed on Monday for maintenance. ", 6);
+    static final String UNICODE_BODY = repeat("Напоминание: центр закрыт в понедельник. ", 4);
+
+    static final String COMPOSE_BODY = repeat(LONG_BODY, 12);
+
+    private final FakeSmsTransport mTransport = new FakeSmsTransport();
+    private final SegmentCounter mCounter = new SegmentCounter();
+    private final StringBuilder mComposed = new StringBuilder(COMPOSE_BODY);
+
+    @Setup
+    public void setUp() {
+        mCounter.reset(mComposed);
+    }
+
+    @Benchmark
+    public int divideShort() {
+        return mTransport.divideMessage(SHORT_BODY).size();
+    }
+
+    @Benchmark
+    public int divideLong() {
+        return mTransport.divideMessage(LONG_BODY).size();
+    }
+
+    @Benchmark
+    public int divideUnicode() {
+        return mTransport.divideMessage(UNICODE_BODY).size();
+    }
+
+    @Benchmark
+    public int countKeystroke() {
+        // Type a character at the end, then delete it again.
+        int end = mComposed.length();
+        mComposed.append('x');
+        mCounter.insert(mComposed, end, 1);
+        mCounter.remove(mComposed, end, 1);
+        mComposed.setLength(end);
+        return mCounter.getSegmentCount();
+    }
+
+    @Benchmark
+    public int recountKeystroke() {
+        int end = mComposed.length();
+        mComposed.append('x');
+        mCounter.reset(mComposed);
+        mComposed.setLength(end);
+        mCounter.reset(mComposed);
+        return mCounter.getSegmentCount();
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.benchmarks;
+
+import com.example.android.smsmessaging.MessageTemplate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Personalizing a bulk message: rendering a compiled template for each
+ * recipient into a reused builder, and compiling the template itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TemplateBenchmark {
+
+    static final String TEMPLATE = "Hi {first}, your code is {code}. "
+            + "Show it at the desk before {date} to collect your order, {name}. "
+            + "Reply STOP to opt out.";
+    private static final int RECIPIENTS = 1000;
+
+    private MessageTemplate mTemplate;
+    private String[][] mValues;
+    private final StringBuilder mBody = new StringBuilder(256);
+
+    @Setup
+    public void setUp() {
+        mTemplate = MessageTemplate.compile(TEMPLATE);
+        mValues = new String[RECIPIENTS][mTemplate.getPlaceholderCount()];
+        for (int i = 0; i < RECIPIENTS; i++) {
+            String[] values = mValues[i];
+            values[mTemplate.indexOf("first")] = "Jane" + i;
+            values[mTemplate.indexOf("name")] = "Jane" + i + " Doe";
+            values[mTemplate.indexOf("code")] = Integer.toString(100000 + i * 7);
+            values[mTemplate.indexOf("date")] = "Friday";
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECIPIENTS)
+    public int render() {
+        int length = 0;
+        for (String[] values : mValues) {
+            mBody.setLength(0);
+            mTemplate.render(values, mBody);
+            length += mBody.length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public MessageTemplate compile() {
+        return MessageTemplate.compile(TEMPLATE);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.benchmarks;
+
+import com.example.android.smsmessaging.GsmTransliterator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transliterating a campaign body to GSM 7-bit before it is sent: one with
+ * typographic quotes and accents, and one that is already all GSM.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TransliterationBenchmark {
+
+    static final String TYPOGRAPHIC_BODY = "Don’t miss our “Winter Fête” — crêpes, "
+            + "café au lait and a piñata for the kids… Saturday 10–4 at the Hôtel de Ville. "
+            + "Reply STOP to opt out.";
+    static final String GSM_BODY = "Don't miss our \"Winter Fete\" - crepes, "
+            + "cafe au lait and a pinata for the kids... Saturday 10-4 at the Hotel de Ville. "
+            + "Reply STOP to opt out.";
+
+    @Benchmark
+    public String transliterateTypographic() {
+        return GsmTransliterator.transliterate(TYPOGRAPHIC_BODY).getText();
+    }
+
+    @Benchmark
+    public String transliterateGsm() {
+        return GsmTransliterator.transliterate(GSM_BODY).getText();
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.mmschallenge;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Prepares a batch of images for one MMS in parallel.
+ *
+ * Each image is one task on a pool with a thread per core; a free thread
+ * takes the next image from the shared queue, so a few large photos do
+ * not hold up the rest. Every thread has its own ImagePreparer, and all of
+ * them share one BitmapPool and one memory budget, so the bitmaps of the
+ * whole batch stay within the budget however many threads run. The pool
+ * gets a fixed share of the budget and the decodes the rest, each charged
+ * for the real size of the bitmap it decodes into. The MMS size budget is
+ * split evenly across the images.
+ */
+public final class BatchPreparer {
+
+    private static final String TAG = BatchPreparer.class.getSimpleName();
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    // Room taken by the headers of each part of the message.
+    private static final int PART_OVERHEAD_BYTES = 512;
+    // Share of the memory budget kept by the BitmapPool.
+    private static final int POOL_MEMORY_DIVISOR = 3;
+
+    /**
+     * Receives the prepared batch, on a pool thread.
+     */
+    public interface Callback {
+        /**
+         * @param files  The prepared images, in the order of the sources,
+         *               without those that failed.
+         * @param failed Number of images that could not be prepared.
+         */
+        void onPrepared(List<File> files, int failed);
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+    private final ThreadLocal<ImagePreparer> mPreparers;
+
+    /**
+     * @param resolver    Opens the source images.
+     * @param memoryBytes Most memory the bitmaps of the batch may use,
+     *                    pooled ones included.
+     * @param maxPixels   Most pixels to decode for one image.
+     */
+    public BatchPreparer(final ContentResolver resolver, long memoryBytes, int maxPixels) {
+        long poolBytes = memoryBytes / POOL_MEMORY_DIVISOR;
+        long decodeBytes = memoryBytes - poolBytes;
+        final BitmapPool pool = new BitmapPool(poolBytes);
+        final int memoryKb = (int) (decodeBytes / 1024);
+        final Semaphore memory = new Semaphore(memoryKb, true);
+        // No image may need more than the whole decode budget: the bitmap
+        // and one transformed copy.
+        final int pixels = (int) Math.min(maxPixels, decodeBytes / 8);
+        mPreparers = new ThreadLocal<ImagePreparer>() {
+            @Override
+            protected ImagePreparer initialValue() {
+                return new ImagePreparer(resolver, pool, pixels, memory, memoryKb);
+            }
+        };
+        int threads = Runtime.getRuntime().availableProcessors();
+        mExecutor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(
+                                        Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, TAG + "-" + mCount.incrementAndGet());
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Deletes the images of earlier batches from a directory, then prepares
+     * each source into it. Returns at once.
+     *
+     * @param sources    The images, in order.
+     * @param totalBytes Size budget for all the images together.
+     * @param dir        Directory for the prepared images.
+     * @param callback   Called once every image is prepared or has failed.
+     */
+    public void prepare(final List<Uri> sources, long totalBytes, final File dir,
+                        final Callback callback) {
+        final int count = sources.size();
+        final long targetBytes = totalBytes / Math.max(count, 1) - PART_OVERHEAD_BYTES;
+        final File[] prepared = new File[count];
+        final AtomicInteger remaining = new AtomicInteger(count);
+        final String prefix = "image-" + System.currentTimeMillis() + "-";
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deleteFiles(dir);
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    Log.e(TAG, "Cannot create " + dir);
+                    callback.onPrepared(new ArrayList<File>(), count);
+                    return;
+                }
+                if (count == 0) {
+                    callback.onPrepared(new ArrayList<File>(), 0);
+                    return;
+                }
+                for (int i = 0; i < count; i++) {
+                    final int index = i;
+                    mExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            prepared[index] = prepareOne(sources.get(index), targetBytes,
+                                    new File(dir, prefix + index + ".jpg"));
+                            if (remaining.decrementAndGet() == 0) {
+                                finish(prepared, callback);
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * @return The prepared file, or null if the image failed.
+     */
+    private File prepareOne(Uri source, long targetBytes, File out) {
+        try {
+            ImagePreparer.Result result = mPreparers.get().prepare(source, targetBytes, out);
+            Log.d(TAG, "Prepared " + source + ": " + result);
+            return out;
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Cannot prepare " + source, e);
+            return null;
+        }
+    }
+
+    /**
+     * Hands the batch to the callback. The last task to finish sees the
+     * files of all the others, as the counter publishes their writes.
+     */
+    private static void finish(File[] prepared, Callback callback) {
+        ArrayList<File> files = new ArrayList<>(prepared.length);
+        for (File file : prepared) {
+            if (file != null) {
+                files.add(file);
+            }
+        }
+        callback.onPrepared(files, prepared.length - files.size());
+    }
+
+    /**
+     * Deletes the images prepared earlier, which have been sent by now.
+     */
+    private static void deleteFiles(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    Log.w(TAG, "Cannot delete " + file);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.mmschallenge;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps mutable bitmaps that are no longer shown, so that the next decode
+ * can reuse their memory through BitmapFactory.Options.inBitmap instead of
+ * allocating a new bitmap for every image.
+ *
+ * The pool holds at most maxBytes; the oldest bitmaps are recycled first.
+ * All methods are synchronized.
+ */
+public final class BitmapPool {
+
+    private final long mMaxBytes;
+    private final ArrayList<Bitmap> mBitmaps = new ArrayList<>();
+    private long mBytes;
+
+    /**
+     * @param maxBytes Most memory the pooled bitmaps may hold.
+     */
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Sets options.inBitmap to a pooled bitmap that can hold the decoded
+     * image, and takes it out of the pool. The caller must have set
+     * outWidth, outHeight and inSampleSize from a bounds decode.
+     *
+     * @param options The decode options.
+     * @return true if a bitmap was found.
+     */
+    public synchronized boolean setInBitmap(BitmapFactory.Options options) {
+        options.inMutable = true;
+        for (int i = mBitmaps.size() - 1; i >= 0; i--) {
+            Bitmap candidate = mBitmaps.get(i);
+            if (canDecodeInto(candidate, options)) {
+                mBitmaps.remove(i);
+                mBytes -= byteCount(candidate);
+                options.inBitmap = candidate;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a bitmap to the pool, or recycles it if it cannot be reused.
+     *
+     * @param bitmap A bitmap nothing else refers to any more.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        int bytes = byteCount(bitmap);
+        if (!bitmap.isMutable() || bytes > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        mBitmaps.add(bitmap);
+        mBytes += bytes;
+        while (mBytes > mMaxBytes) {
+            Bitmap oldest = mBitmaps.remove(0);
+            mBytes -= byteCount(oldest);
+            oldest.recycle();
+        }
+    }
+
+    /**
+     * Recycles every pooled bitmap.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < mBitmaps.size(); i++) {
+            mBitmaps.get(i).recycle();
+        }
+        mBitmaps.clear();
+        mBytes = 0;
+    }
+
+    /**
+     * Checks the inBitmap rules: from KitKat any bitmap with enough memory
+     * will do; before that only one of the same size, and only without
+     * subsampling.
+     */
+    private static boolean canDecodeInto(Bitmap candidate, BitmapFactory.Options options) {
+        int sampleSize = Math.max(options.inSampleSize, 1);
+        int width = (options.outWidth + sampleSize - 1) / sampleSize;
+        int height = (options.outHeight + sampleSize - 1) / sampleSize;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return candidate.getConfig() == options.inPreferredConfig
+                    && (long) width * height * bytesPerPixel(candidate.getConfig())
+                    <= byteCount(candidate);
+        }
+        return sampleSize == 1 && candidate.getWidth() == width
+                && candidate.getHeight() == height
+                && candidate.getConfig() == options.inPreferredConfig;
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ARGB_8888) {
+            return 4;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 2;
+    }
+
+    /**
+     * @param bitmap A bitmap.
+     * @return The memory it holds, which for a reused bitmap may be more
+     *         than its current size needs.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    static int byteCount(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
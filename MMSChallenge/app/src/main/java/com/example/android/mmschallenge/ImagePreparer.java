@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.mmschallenge;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.PorterDuff;
+import android.net.Uri;
+import android.provider.MediaStore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Turns a picked image into a JPEG small enough to send by MMS.
+ *
+ * The image is read twice as a stream: once for its bounds, and once to
+ * decode it with the power-of-two subsampling that brings it under the
+ * pixel budget, into a bitmap from the BitmapPool. The pixel budget
+ * follows the byte budget and has a fixed cap, so the memory used does not
+ * depend on the size of the source. The bitmap is then turned upright and
+ * encoded with a binary search for the highest JPEG quality that fits the
+ * byte budget, shrinking the image further if even the lowest quality
+ * does not fit. Bitmap.compress() writes no EXIF, so location and camera
+ * metadata are not sent.
+ *
+ * Preparers on several threads can share a memory budget: before
+ * decoding, each takes permits for its bitmap and one transformed copy
+ * from a shared Semaphore, counted in kilobytes. A bitmap taken from the
+ * pool is charged for its whole allocation, which may be larger than the
+ * image needs.
+ *
+ * Does disk I/O and decoding; call it off the main thread. An instance
+ * reuses its encode buffer, so use one per thread.
+ */
+public final class ImagePreparer {
+
+    private static final int MIN_QUALITY = 40;
+    private static final int MAX_QUALITY = 92;
+    // A photo at moderate JPEG quality takes about two bits a pixel, so a
+    // budget of N bytes is worth about 4N pixels.
+    private static final int PIXELS_PER_BYTE = 4;
+    // Each shrink when the lowest quality is still too large, in percent,
+    // and the smallest side worth sending.
+    private static final int SHRINK_PERCENT = 70;
+    private static final int MIN_DIMENSION = 160;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    /**
+     * Size and quality of a prepared image.
+     */
+    public static final class Result {
+        public final int width;
+        public final int height;
+        public final int quality;
+        public final int bytes;
+
+        Result(int width, int height, int quality, int bytes) {
+            this.width = width;
+            this.height = height;
+            this.quality = quality;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + " q" + quality + " " + bytes + " bytes";
+        }
+    }
+
+    /**
+     * A ByteArrayOutputStream whose buffer can be written out without a copy.
+     */
+    private static final class EncodeBuffer extends ByteArrayOutputStream {
+        EncodeBuffer(int size) {
+            super(size);
+        }
+
+        void writeTo(File file) throws IOException {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(buf, 0, count);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final BitmapPool mPool;
+    private final int mMaxPixels;
+    private final Semaphore mMemory;
+    private final int mMemoryKb;
+    private final EncodeBuffer mBuffer = new EncodeBuffer(64 * 1024);
+
+    /**
+     * @param resolver  Opens the source images.
+     * @param pool      Supplies and takes back the decode bitmaps.
+     * @param maxPixels Most pixels to decode, whatever the byte budget.
+     * @param memory    Memory budget shared with other preparers, in KB, or
+     *                  null for none.
+     * @param memoryKb  The total number of permits of memory.
+     */
+    public ImagePreparer(ContentResolver resolver, BitmapPool pool, int maxPixels,
+                         Semaphore memory, int memoryKb) {
+        mResolver = resolver;
+        mPool = pool;
+        mMaxPixels = maxPixels;
+        mMemory = memory;
+        mMemoryKb = memoryKb;
+    }
+
+    /**
+     * Writes a JPEG of the image that fits a byte budget.
+     *
+     * @param source      The image.
+     * @param targetBytes The largest file to write.
+     * @param out         The file to write.
+     * @return The size and quality of the written image.
+     * @throws IOException if the image cannot be read, or cannot fit.
+     */
+    public Result prepare(Uri source, long targetBytes, File out) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decode(source, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Cannot decode " + source);
+        }
+        long maxPixels = Math.min(mMaxPixels, targetBytes * PIXELS_PER_BYTE);
+        options.inSampleSize = sampleSize(options.outWidth, options.outHeight, maxPixels);
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        // Take the pooled bitmap first, so the reservation covers its size.
+        mPool.setInBitmap(options);
+        int permits;
+        try {
+            permits = reserveMemory(options);
+        } catch (IOException e) {
+            mPool.put(options.inBitmap);
+            throw e;
+        }
+        try {
+            return prepare(source, targetBytes, out, options);
+        } finally {
+            if (permits > 0) {
+                mMemory.release(permits);
+            }
+        }
+    }
+
+    private Result prepare(Uri source, long targetBytes, File out,
+                           BitmapFactory.Options options) throws IOException {
+        Bitmap bitmap = decodePooled(source, options);
+        try {
+            if (bitmap.hasAlpha() && bitmap.isMutable()) {
+                // JPEG has no alpha; put transparent areas on white
+                // rather than black.
+                new Canvas(bitmap).drawColor(Color.WHITE, PorterDuff.Mode.DST_OVER);
+            }
+            bitmap = swap(bitmap, rotate(bitmap, orientation(source)));
+            int quality = compressToBudget(bitmap, targetBytes);
+            while (quality < 0) {
+                int width = bitmap.getWidth() * SHRINK_PERCENT / 100;
+                int height = bitmap.getHeight() * SHRINK_PERCENT / 100;
+                if (Math.min(width, height) < MIN_DIMENSION) {
+                    throw new IOException("Cannot fit " + source + " in " + targetBytes
+                            + " bytes");
+                }
+                bitmap = swap(bitmap, Bitmap.createScaledBitmap(bitmap, width, height, true));
+                quality = compressToBudget(bitmap, targetBytes);
+            }
+            mBuffer.writeTo(out);
+            return new Result(bitmap.getWidth(), bitmap.getHeight(), quality, mBuffer.size());
+        } finally {
+            mPool.put(bitmap);
+        }
+    }
+
+    /**
+     * Waits until the shared budget has room for the decoded bitmap and one
+     * transformed copy. The decoded bitmap is options.inBitmap when set,
+     * which may be larger than the image. A single image larger than the
+     * whole budget waits for all of it.
+     *
+     * @return The permits taken.
+     */
+    private int reserveMemory(BitmapFactory.Options options) throws IOException {
+        if (mMemory == null) {
+            return 0;
+        }
+        int sampleSize = options.inSampleSize;
+        long pixels = (long) ((options.outWidth + sampleSize - 1) / sampleSize)
+                * ((options.outHeight + sampleSize - 1) / sampleSize);
+        long imageBytes = pixels * BYTES_PER_PIXEL;
+        long bitmapBytes = options.inBitmap != null
+                ? Math.max(imageBytes, BitmapPool.byteCount(options.inBitmap)) : imageBytes;
+        int permits = (int) Math.min(mMemoryKb, (bitmapBytes + imageBytes) / 1024 + 1);
+        try {
+            mMemory.acquire(permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for memory");
+        }
+        return permits;
+    }
+
+    /**
+     * Returns the smallest power of two that, as a sample size, brings the
+     * image down to maxPixels.
+     *
+     * @param width     Width of the source.
+     * @param height    Height of the source.
+     * @param maxPixels Most pixels to decode.
+     * @return The sample size.
+     */
+    static int sampleSize(int width, int height, long maxPixels) {
+        int sampleSize = 1;
+        while ((long) (width / sampleSize) * (height / sampleSize) > maxPixels) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Encodes at the highest quality that fits the budget, leaving the
+     * result in mBuffer.
+     *
+     * @return The quality, or -1 if even MIN_QUALITY does not fit.
+     */
+    private int compressToBudget(Bitmap bitmap, long targetBytes) {
+        // Most small images fit at the top quality; try it first.
+        if (compress(bitmap, MAX_QUALITY) <= targetBytes) {
+            return MAX_QUALITY;
+        }
+        int low = MIN_QUALITY;
+        int high = MAX_QUALITY - 1;
+        int best = -1;
+        int last = MAX_QUALITY;
+        while (low <= high) {
+            int quality = (low + high) >>> 1;
+            last = quality;
+            if (compress(bitmap, quality) <= targetBytes) {
+                best = quality;
+                low = quality + 1;
+            } else {
+                high = quality - 1;
+            }
+        }
+        if (best >= 0 && last != best) {
+            compress(bitmap, best);
+        }
+        return best;
+    }
+
+    private int compress(Bitmap bitmap, int quality) {
+        mBuffer.reset();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, quality, mBuffer);
+        return mBuffer.size();
+    }
+
+    /**
+     * Decodes into options.inBitmap, the pooled bitmap if one fit, falling
+     * back to a new one.
+     */
+    private Bitmap decodePooled(Uri source, BitmapFactory.Options options)
+            throws IOException {
+        if (options.inBitmap != null) {
+            try {
+                Bitmap bitmap = decode(source, options);
+                if (bitmap != null) {
+                    return bitmap;
+                }
+            } catch (IllegalArgumentException e) {
+                // The decoder would not reuse the bitmap; decode without it.
+            }
+            mPool.put(options.inBitmap);
+            options.inBitmap = null;
+        }
+        Bitmap bitmap = decode(source, options);
+        if (bitmap == null) {
+            throw new IOException("Cannot decode " + source);
+        }
+        return bitmap;
+    }
+
+    private Bitmap decode(Uri source, BitmapFactory.Options options) throws IOException {
+        InputStream in = mResolver.openInputStream(source);
+        if (in == null) {
+            throw new IOException("Cannot open " + source);
+        }
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the replacement, giving the old bitmap back to the pool if
+     * it was replaced.
+     */
+    private Bitmap swap(Bitmap old, Bitmap replacement) {
+        if (replacement != old) {
+            mPool.put(old);
+        }
+        return replacement;
+    }
+
+    private static Bitmap rotate(Bitmap bitmap, int degrees) {
+        if (degrees % 360 == 0) {
+            return bitmap;
+        }
+        Matrix matrix = new Matrix();
+        matrix.postRotate(degrees);
+        return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(),
+                matrix, true);
+    }
+
+    /**
+     * Returns the rotation the media store recorded for an image, which
+     * it takes from the EXIF orientation, or 0 if it is not known.
+     */
+    private int orientation(Uri source) {
+        Cursor cursor;
+        try {
+            cursor = mResolver.query(source,
+                    new String[]{MediaStore.Images.ImageColumns.ORIENTATION},
+                    null, null, null);
+        } catch (RuntimeException e) {
+            // Not a media store image.
+            return 0;
+        }
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
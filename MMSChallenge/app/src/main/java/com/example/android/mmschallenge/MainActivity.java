@@ -17,17 +17,26 @@
 package com.example.android.mmschallenge;
 
 import android.Manifest;
+import android.annotation.TargetApi;
+import android.app.ActivityManager;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.app.ActivityCompat;
+import android.support.v4.content.FileProvider;
 import android.support.v7.app.AppCompatActivity;
+import android.telephony.SmsManager;
 import android.util.Log;
 import android.view.View;
 import android.widget.Toast;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * This app enables user to choose an image from the Gallery
  * and launch an SMS messaging app to send the image to the
@@ -39,6 +48,21 @@ public class MainActivity extends AppCompatActivity {
     private static final int MY_PERMISSIONS_REQUEST_READ_EXTERNAL_STORAGE = 1;
 
     private static final String TAG = MainActivity.class.getSimpleName();
+    private static final String FILE_PROVIDER_SUFFIX = ".fileprovider";
+    // Prepared images are written here, and shared through the FileProvider.
+    private static final String PREPARED_DIR = "mms";
+    // Size limit when the carrier does not give one, and room left in the
+    // carrier limit for the MMS headers and the rest of the message.
+    private static final int DEFAULT_MMS_SIZE_LIMIT = 300 * 1024;
+    private static final int MMS_OVERHEAD_BYTES = 8 * 1024;
+    // Most pixels decoded for one image: 16 MB as ARGB_8888.
+    private static final int MAX_DECODE_PIXELS = 4 * 1024 * 1024;
+    // Share of the heap the bitmaps of a batch may use, both those being
+    // decoded and the idle ones kept for reuse.
+    private static final int BITMAP_MEMORY_DIVISOR = 3;
+
+    // Prepares the images off the main thread, in parallel.
+    private static BatchPreparer sBatchPreparer;
 
     /**
      * Creates the activity, sets the view, and checks for Storage permission
@@ -125,20 +149,20 @@ public class MainActivity extends AppCompatActivity {
     /**
      *
      * On click of the Choose Picture button, enables the user to
-     * choose an image from the Gallery.
+     * choose images in the in-app picker.
      *
      * @param view View (Choose Picture button) that was clicked.
      */
     public void choosePic(View view) {
-        // Choose a picture.
-        Intent galleryIntent = new Intent(Intent.ACTION_PICK,
-                android.provider.MediaStore.Images.Media.EXTERNAL_CONTENT_URI);
-        startActivityForResult(galleryIntent, IMAGE_PICK);
+        // Choose one or more pictures.
+        Intent pickerIntent = new Intent(this, PickerActivity.class);
+        startActivityForResult(pickerIntent, IMAGE_PICK);
     }
 
     /**
-     * Sets the image Uri and creates implicit intent with ACTION_SEND
-     * to launch an app to send the image.
+     * Gets the chosen image Uris, prepares images that together fit the
+     * MMS size limit off the main thread, and then creates implicit intent
+     * with ACTION_SEND or ACTION_SEND_MULTIPLE to launch an app to send them.
      */
     @Override
     protected void onActivityResult
@@ -147,18 +171,113 @@ public class MainActivity extends AppCompatActivity {
         if (requestCode == IMAGE_PICK) {
             if (resultCode == RESULT_OK) {
                 Log.d(TAG, getString(R.string.picture_chosen));
-                Uri mSelectedImage = imageReturnedIntent.getData();
-                Log.d(TAG, "onActivityResult: " + mSelectedImage.toString());
-                Intent smsIntent = new Intent(Intent.ACTION_SEND);
-                smsIntent.putExtra(Intent.EXTRA_STREAM, mSelectedImage);
-                smsIntent.setType("image/*");
-                if (smsIntent.resolveActivity(getPackageManager()) != null) {
-                    startActivity(smsIntent);
-                } else {
-                    Log.d(TAG, "Can't resolve app for ACTION_SEND Intent.");
+                List<Uri> selectedImages = imageReturnedIntent
+                        .getParcelableArrayListExtra(PickerActivity.EXTRA_IMAGES);
+                Log.d(TAG, "onActivityResult: " + selectedImages);
+                if (!selectedImages.isEmpty()) {
+                    prepareAndSend(selectedImages);
+                }
+            }
+        }
+    }
+
+    /**
+     * Prepares the images on the pool, then sends them from the main thread.
+     *
+     * @param sources The chosen images.
+     */
+    private void prepareAndSend(List<Uri> sources) {
+        File dir = new File(getCacheDir(), PREPARED_DIR);
+        long totalBytes = getMmsSizeLimit() - MMS_OVERHEAD_BYTES;
+        getBatchPreparer(this).prepare(sources, totalBytes, dir,
+                new BatchPreparer.Callback() {
+                    @Override
+                    public void onPrepared(final List<File> files, final int failed) {
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (failed > 0) {
+                                    Toast.makeText(MainActivity.this,
+                                            R.string.failure_prepare,
+                                            Toast.LENGTH_LONG).show();
+                                }
+                                if (!files.isEmpty()) {
+                                    sendImages(files);
+                                }
+                            }
+                        });
+                    }
+                });
+    }
+
+    /**
+     * Creates implicit intent with ACTION_SEND, or ACTION_SEND_MULTIPLE for
+     * several images, to launch an app to send the prepared images.
+     *
+     * @param images The prepared JPEGs.
+     */
+    private void sendImages(List<File> images) {
+        if (isFinishing()) {
+            return;
+        }
+        ArrayList<Uri> imageUris = new ArrayList<>(images.size());
+        for (File image : images) {
+            imageUris.add(FileProvider.getUriForFile(this,
+                    getPackageName() + FILE_PROVIDER_SUFFIX, image));
+        }
+        Intent smsIntent;
+        if (imageUris.size() == 1) {
+            smsIntent = new Intent(Intent.ACTION_SEND);
+            smsIntent.putExtra(Intent.EXTRA_STREAM, imageUris.get(0));
+        } else {
+            smsIntent = new Intent(Intent.ACTION_SEND_MULTIPLE);
+            smsIntent.putParcelableArrayListExtra(Intent.EXTRA_STREAM, imageUris);
+        }
+        smsIntent.setType("image/jpeg");
+        smsIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        if (smsIntent.resolveActivity(getPackageManager()) != null) {
+            startActivity(smsIntent);
+        } else {
+            Log.d(TAG, "Can't resolve app for ACTION_SEND Intent.");
+        }
+    }
+
+    /**
+     * Returns the batch preparer, creating it on first use with memory
+     * budgets taken from the heap size.
+     *
+     * @param context Any context; only the application context is kept.
+     * @return The preparer.
+     */
+    private static synchronized BatchPreparer getBatchPreparer(Context context) {
+        if (sBatchPreparer == null) {
+            Context appContext = context.getApplicationContext();
+            ActivityManager activityManager =
+                    (ActivityManager) appContext.getSystemService(ACTIVITY_SERVICE);
+            long heapBytes = activityManager.getMemoryClass() * 1024L * 1024L;
+            sBatchPreparer = new BatchPreparer(appContext.getContentResolver(),
+                    heapBytes / BITMAP_MEMORY_DIVISOR, MAX_DECODE_PIXELS);
+        }
+        return sBatchPreparer;
+    }
+
+    /**
+     * Returns the largest MMS the carrier accepts, if it says.
+     *
+     * @return The limit in bytes.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static int getMmsSizeLimit() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            Bundle config = SmsManager.getDefault().getCarrierConfigValues();
+            if (config != null) {
+                int limit = config.getInt(SmsManager.MMS_CONFIG_MAX_MESSAGE_SIZE, 0);
+                if (limit > MMS_OVERHEAD_BYTES) {
+                    return limit;
                 }
             }
         }
+        return DEFAULT_MMS_SIZE_LIMIT;
     }
 
 }
@@ -0,0 +1,520 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.mmschallenge;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Encodes an MMS m-send.req PDU in the WAP binary format (OMA MMS
+ * encapsulation 1.2): the headers, then a multipart/related body with a
+ * SMIL presentation followed by the parts.
+ *
+ * Only the headers, which are small, are built in memory. The data of
+ * each part is streamed into the output from its InputStream or
+ * FileChannel when the PDU is written, through one reused buffer, so heap
+ * use does not grow with the size of the attachments. File parts use
+ * FileChannel.transferTo(), which can copy without going through the heap
+ * at all when the output is a file.
+ *
+ * To send the PDU, write it to a file, share the file through a content
+ * Uri, and pass the Uri to SmsManager.sendMultimediaMessage().
+ *
+ * Plain Java. An encoder is written once; it is not thread safe.
+ */
+public final class MmsPduEncoder {
+
+    // Header field names, with the high bit set.
+    private static final int HEADER_CONTENT_TYPE = 0x84;
+    private static final int HEADER_DELIVERY_REPORT = 0x86;
+    private static final int HEADER_FROM = 0x89;
+    private static final int HEADER_MESSAGE_CLASS = 0x8A;
+    private static final int HEADER_MESSAGE_TYPE = 0x8C;
+    private static final int HEADER_MMS_VERSION = 0x8D;
+    private static final int HEADER_SUBJECT = 0x96;
+    private static final int HEADER_TO = 0x97;
+    private static final int HEADER_TRANSACTION_ID = 0x98;
+    // Part header field names.
+    private static final int PART_CONTENT_LOCATION = 0x8E;
+    private static final int PART_CONTENT_ID = 0xC0;
+    // Header values.
+    private static final int MESSAGE_TYPE_SEND_REQ = 0x80;
+    private static final int MMS_VERSION_1_2 = 0x92;
+    private static final int MESSAGE_CLASS_PERSONAL = 0x80;
+    private static final int YES = 0x80;
+    private static final int NO = 0x81;
+    private static final int INSERT_ADDRESS_TOKEN = 0x81;
+    // Well-known content types, with the high bit set.
+    private static final int TYPE_MULTIPART_RELATED = 0xB3;
+    private static final int TYPE_TEXT_PLAIN = 0x83;
+    private static final int TYPE_IMAGE_GIF = 0x9D;
+    private static final int TYPE_IMAGE_JPEG = 0x9E;
+    private static final int TYPE_IMAGE_PNG = 0xA0;
+    // Content type parameters.
+    private static final int PARAM_CHARSET = 0x81;
+    private static final int PARAM_NAME = 0x85;
+    private static final int PARAM_TYPE = 0x89;
+    private static final int PARAM_START = 0x8A;
+    // IANA MIBenum of UTF-8, as a short integer.
+    private static final int CHARSET_UTF_8 = 0x80 | 106;
+
+    private static final int QUOTE = 0x7F;
+    private static final int QUOTED_STRING = 0x22;
+    private static final int LENGTH_QUOTE = 31;
+    private static final int MAX_SHORT_LENGTH = 30;
+    private static final int COPY_BUFFER_SIZE = 16 * 1024;
+    private static final String SMIL_TYPE = "application/smil";
+    private static final String SMIL_ID = "<smil>";
+    private static final String SMIL_LOCATION = "smil.xml";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Where the data of a part comes from.
+     */
+    private interface Source {
+        void writeTo(WritableByteChannel out, ByteBuffer buffer) throws IOException;
+    }
+
+    /**
+     * One part of the message body. The data is read when the PDU is
+     * written, so streams and channels must stay open until then.
+     */
+    public static final class Part {
+        final String contentType;
+        final String location;
+        final long length;
+        final Source source;
+
+        private Part(String contentType, String location, long length, Source source) {
+            this.contentType = contentType;
+            this.location = location;
+            this.length = length;
+            this.source = source;
+        }
+
+        /**
+         * @param location Name of the part, e.g. "text_0.txt".
+         * @param text     The text.
+         * @return A text/plain part in UTF-8.
+         */
+        public static Part text(String location, String text) {
+            return bytes("text/plain", location, text.getBytes(UTF_8));
+        }
+
+        /**
+         * @param contentType MIME type of the data.
+         * @param location    Name of the part.
+         * @param data        The data, which is not copied.
+         * @return A part with data held in memory.
+         */
+        public static Part bytes(String contentType, String location, final byte[] data) {
+            return new Part(contentType, location, data.length, new Source() {
+                @Override
+                public void writeTo(WritableByteChannel out, ByteBuffer buffer)
+                        throws IOException {
+                    writeFully(out, ByteBuffer.wrap(data));
+                }
+            });
+        }
+
+        /**
+         * @param contentType MIME type of the data.
+         * @param location    Name of the part, e.g. "image_0.jpg".
+         * @param in          The data. Not closed.
+         * @param length      Exact number of bytes the stream will give.
+         * @return A part streamed from the InputStream.
+         */
+        public static Part stream(String contentType, String location, final InputStream in,
+                                  final long length) {
+            return new Part(contentType, location, length, new Source() {
+                @Override
+                public void writeTo(WritableByteChannel out, ByteBuffer buffer)
+                        throws IOException {
+                    byte[] array = buffer.array();
+                    long remaining = length;
+                    while (remaining > 0) {
+                        int read = in.read(array, 0, (int) Math.min(array.length, remaining));
+                        if (read < 0) {
+                            throw new IOException("Stream ended " + remaining
+                                    + " bytes short");
+                        }
+                        buffer.clear();
+                        buffer.limit(read);
+                        writeFully(out, buffer);
+                        remaining -= read;
+                    }
+                }
+            });
+        }
+
+        /**
+         * @param contentType MIME type of the data.
+         * @param location    Name of the part, e.g. "image_0.jpg".
+         * @param channel     The data, from the channel's position to its end.
+         *                    Not closed.
+         * @return A part copied from the channel.
+         * @throws IOException if the channel size cannot be read.
+         */
+        public static Part file(String contentType, String location,
+                                final FileChannel channel) throws IOException {
+            final long start = channel.position();
+            final long length = channel.size() - start;
+            return new Part(contentType, location, length, new Source() {
+                @Override
+                public void writeTo(WritableByteChannel out, ByteBuffer buffer)
+                        throws IOException {
+                    long done = 0;
+                    while (done < length) {
+                        long copied = channel.transferTo(start + done, length - done, out);
+                        if (copied <= 0) {
+                            throw new IOException("File ended " + (length - done)
+                                    + " bytes short");
+                        }
+                        done += copied;
+                    }
+                }
+            });
+        }
+    }
+
+    private final String mTransactionId;
+    private final ArrayList<String> mRecipients = new ArrayList<>();
+    private final ArrayList<Part> mParts = new ArrayList<>();
+    private String mSubject;
+    private boolean mDeliveryReport;
+    private byte[] mHeaders;
+    private byte[][] mPartHeaders;
+    private Part mSmil;
+
+    /**
+     * @param transactionId Identifies the request to the MMS center.
+     */
+    public MmsPduEncoder(String transactionId) {
+        mTransactionId = transactionId;
+    }
+
+    /**
+     * @param number Phone number of a recipient.
+     * @return This encoder.
+     */
+    public MmsPduEncoder addRecipient(String number) {
+        mRecipients.add(number);
+        mHeaders = null;
+        return this;
+    }
+
+    /**
+     * @param subject The subject, or null for none.
+     * @return This encoder.
+     */
+    public MmsPduEncoder setSubject(String subject) {
+        mSubject = subject;
+        mHeaders = null;
+        return this;
+    }
+
+    /**
+     * @param deliveryReport Whether to ask for a delivery report.
+     * @return This encoder.
+     */
+    public MmsPduEncoder setDeliveryReport(boolean deliveryReport) {
+        mDeliveryReport = deliveryReport;
+        mHeaders = null;
+        return this;
+    }
+
+    /**
+     * Adds a part; the SMIL presentation shows the parts in this order,
+     * one image per slide, with the text of the message on the first.
+     *
+     * @param part The part.
+     * @return This encoder.
+     */
+    public MmsPduEncoder addPart(Part part) {
+        mParts.add(part);
+        mHeaders = null;
+        return this;
+    }
+
+    /**
+     * Returns the size of the whole PDU without reading any part data,
+     * e.g. to check it against the carrier's size limit.
+     *
+     * @return The size in bytes.
+     */
+    public long getLength() {
+        encodeHeaders();
+        long length = mHeaders.length + uintvarLength(mParts.size() + 1);
+        for (int i = 0; i <= mParts.size(); i++) {
+            Part part = i == 0 ? mSmil : mParts.get(i - 1);
+            length += uintvarLength(mPartHeaders[i].length) + uintvarLength(part.length)
+                    + mPartHeaders[i].length + part.length;
+        }
+        return length;
+    }
+
+    /**
+     * Writes the PDU, streaming the part data.
+     *
+     * @param out Where to write.
+     * @throws IOException if a part or the output fails.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        writeTo(Channels.newChannel(out));
+    }
+
+    /**
+     * Writes the PDU, streaming the part data. Pass a FileChannel to let
+     * file parts be copied by the kernel.
+     *
+     * @param out Where to write.
+     * @throws IOException if a part or the output fails.
+     */
+    public void writeTo(WritableByteChannel out) throws IOException {
+        encodeHeaders();
+        ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream(64);
+        header.write(mHeaders, 0, mHeaders.length);
+        writeUintvar(header, mParts.size() + 1);
+        for (int i = 0; i <= mParts.size(); i++) {
+            Part part = i == 0 ? mSmil : mParts.get(i - 1);
+            writeUintvar(header, mPartHeaders[i].length);
+            writeUintvar(header, part.length);
+            header.write(mPartHeaders[i], 0, mPartHeaders[i].length);
+            writeFully(out, ByteBuffer.wrap(header.toByteArray()));
+            header.reset();
+            part.source.writeTo(out, buffer);
+        }
+    }
+
+    /**
+     * Builds the message headers, the SMIL part and the part headers.
+     */
+    private void encodeHeaders() {
+        if (mHeaders != null) {
+            return;
+        }
+        if (mRecipients.isEmpty()) {
+            throw new IllegalStateException("No recipients");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        out.write(HEADER_MESSAGE_TYPE);
+        out.write(MESSAGE_TYPE_SEND_REQ);
+        out.write(HEADER_TRANSACTION_ID);
+        writeText(out, mTransactionId);
+        out.write(HEADER_MMS_VERSION);
+        out.write(MMS_VERSION_1_2);
+        // The MMS center fills in the sender.
+        out.write(HEADER_FROM);
+        out.write(1);
+        out.write(INSERT_ADDRESS_TOKEN);
+        for (int i = 0; i < mRecipients.size(); i++) {
+            out.write(HEADER_TO);
+            writeEncodedString(out, mRecipients.get(i) + "/TYPE=PLMN");
+        }
+        if (mSubject != null) {
+            out.write(HEADER_SUBJECT);
+            writeEncodedString(out, mSubject);
+        }
+        out.write(HEADER_MESSAGE_CLASS);
+        out.write(MESSAGE_CLASS_PERSONAL);
+        out.write(HEADER_DELIVERY_REPORT);
+        out.write(mDeliveryReport ? YES : NO);
+        // The content type comes last, right before the body.
+        ByteArrayOutputStream type = new ByteArrayOutputStream(32);
+        type.write(TYPE_MULTIPART_RELATED);
+        type.write(PARAM_START);
+        writeText(type, SMIL_ID);
+        type.write(PARAM_TYPE);
+        writeText(type, SMIL_TYPE);
+        out.write(HEADER_CONTENT_TYPE);
+        writeWithLength(out, type);
+        mHeaders = out.toByteArray();
+
+        mSmil = Part.bytes(SMIL_TYPE, SMIL_LOCATION, buildSmil().getBytes(UTF_8));
+        mPartHeaders = new byte[mParts.size() + 1][];
+        mPartHeaders[0] = encodePartHeaders(mSmil, SMIL_ID);
+        for (int i = 0; i < mParts.size(); i++) {
+            Part part = mParts.get(i);
+            mPartHeaders[i + 1] = encodePartHeaders(part, "<" + part.location + ">");
+        }
+    }
+
+    /**
+     * Encodes the content type and headers of a part.
+     */
+    private static byte[] encodePartHeaders(Part part, String contentId) {
+        ByteArrayOutputStream type = new ByteArrayOutputStream(32);
+        int wellKnown = wellKnownType(part.contentType);
+        if (wellKnown != 0) {
+            type.write(wellKnown);
+        } else {
+            writeText(type, part.contentType);
+        }
+        if (wellKnown == TYPE_TEXT_PLAIN) {
+            type.write(PARAM_CHARSET);
+            type.write(CHARSET_UTF_8);
+        }
+        type.write(PARAM_NAME);
+        writeText(type, part.location);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        writeWithLength(out, type);
+        out.write(PART_CONTENT_ID);
+        out.write(QUOTED_STRING);
+        writeRaw(out, contentId);
+        out.write(PART_CONTENT_LOCATION);
+        writeText(out, part.location);
+        return out.toByteArray();
+    }
+
+    /**
+     * Lays the parts out as slides: each image on its own slide, and the
+     * text parts on the first slide.
+     */
+    private String buildSmil() {
+        StringBuilder texts = new StringBuilder();
+        ArrayList<String> images = new ArrayList<>();
+        for (int i = 0; i < mParts.size(); i++) {
+            Part part = mParts.get(i);
+            if (part.contentType.startsWith("image/")) {
+                images.add(part.location);
+            } else if (part.contentType.startsWith("text/")) {
+                texts.append("<text src=\"").append(part.location)
+                        .append("\" region=\"Text\"/>");
+            }
+        }
+        StringBuilder smil = new StringBuilder("<smil><head><layout><root-layout/>"
+                + "<region id=\"Image\" top=\"0\" left=\"0\" height=\"80%\" width=\"100%\"/>"
+                + "<region id=\"Text\" top=\"80%\" left=\"0\" height=\"20%\" width=\"100%\"/>"
+                + "</layout></head><body>");
+        for (int i = 0; i < Math.max(images.size(), 1); i++) {
+            smil.append("<par dur=\"5000ms\">");
+            if (i < images.size()) {
+                smil.append("<img src=\"").append(images.get(i)).append("\" region=\"Image\"/>");
+            }
+            if (i == 0) {
+                smil.append(texts);
+            }
+            smil.append("</par>");
+        }
+        return smil.append("</body></smil>").toString();
+    }
+
+    private static int wellKnownType(String contentType) {
+        switch (contentType) {
+            case "text/plain":
+                return TYPE_TEXT_PLAIN;
+            case "image/gif":
+                return TYPE_IMAGE_GIF;
+            case "image/jpeg":
+                return TYPE_IMAGE_JPEG;
+            case "image/png":
+                return TYPE_IMAGE_PNG;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Writes a Text-string: the UTF-8 bytes, quoted if the first byte has
+     * the high bit set, and a terminating zero.
+     */
+    private static void writeText(ByteArrayOutputStream out, String text) {
+        byte[] bytes = text.getBytes(UTF_8);
+        if (bytes.length > 0 && (bytes[0] & 0x80) != 0) {
+            out.write(QUOTE);
+        }
+        out.write(bytes, 0, bytes.length);
+        out.write(0);
+    }
+
+    /**
+     * Writes the UTF-8 bytes of a string and a terminating zero, unquoted.
+     */
+    private static void writeRaw(ByteArrayOutputStream out, String text) {
+        byte[] bytes = text.getBytes(UTF_8);
+        out.write(bytes, 0, bytes.length);
+        out.write(0);
+    }
+
+    /**
+     * Writes an Encoded-string-value: plain text for ASCII, and otherwise
+     * the text with its length and the UTF-8 charset.
+     */
+    private static void writeEncodedString(ByteArrayOutputStream out, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                ByteArrayOutputStream value = new ByteArrayOutputStream(text.length() * 3 + 2);
+                value.write(CHARSET_UTF_8);
+                writeText(value, text);
+                writeWithLength(out, value);
+                return;
+            }
+        }
+        writeText(out, text);
+    }
+
+    /**
+     * Writes a Value-length and then the value.
+     */
+    private static void writeWithLength(ByteArrayOutputStream out, ByteArrayOutputStream value) {
+        int length = value.size();
+        if (length <= MAX_SHORT_LENGTH) {
+            out.write(length);
+        } else {
+            out.write(LENGTH_QUOTE);
+            writeUintvar(out, length);
+        }
+        byte[] bytes = value.toByteArray();
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Writes a variable-length unsigned integer: seven bits a byte, most
+     * significant first, with the high bit set on all but the last byte.
+     */
+    private static void writeUintvar(ByteArrayOutputStream out, long value) {
+        int length = uintvarLength(value);
+        for (int i = length - 1; i > 0; i--) {
+            out.write((int) ((value >>> (7 * i)) & 0x7F) | 0x80);
+        }
+        out.write((int) (value & 0x7F));
+    }
+
+    private static int uintvarLength(long value) {
+        int length = 1;
+        while ((value >>>= 7) != 0) {
+            length++;
+        }
+        return length;
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.mmschallenge;
+
+import android.app.ActivityManager;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.provider.MediaStore;
+import android.support.v7.app.AppCompatActivity;
+import android.util.SparseBooleanArray;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
+import android.widget.GridView;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * In-app image picker: a grid of the images in the media store, with
+ * thumbnails from a shared ThumbnailLoader. Returns the chosen images as
+ * an ArrayList of Uris in EXTRA_IMAGES.
+ *
+ * The media store is queried once, off the main thread, and the columns
+ * the grid needs are copied into arrays, so scrolling never touches the
+ * cursor. While scrolling, thumbnails are prefetched one screen ahead and
+ * behind, and loads further away than that are dropped.
+ */
+public class PickerActivity extends AppCompatActivity {
+
+    public static final String EXTRA_IMAGES = "com.example.android.mmschallenge.IMAGES";
+
+    private static final String THUMBNAIL_DIR = "thumbnails";
+    private static final long MAX_DISK_CACHE_BYTES = 32 * 1024 * 1024;
+    // Share of the heap for thumbnails in memory.
+    private static final int MEMORY_CACHE_DIVISOR = 8;
+
+    private static ThumbnailLoader sLoader;
+
+    private GridView mGrid;
+    private ImageAdapter mAdapter;
+    // Columns of the images, newest first.
+    private long[] mIds = new long[0];
+    private long[] mModified = new long[0];
+    private int[] mOrientations = new int[0];
+    private int mLastFirstVisible = -1;
+
+    /**
+     * Creates the activity, sets the view, and starts loading the list of
+     * images.
+     *
+     * @param savedInstanceState Instance state
+     */
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_picker);
+        ThumbnailLoader loader = getLoader(this);
+        // The loader outlives the activity; forget the last visit's window
+        // so the first rows are not dropped before onScroll() sets one.
+        loader.setWindow(0, Integer.MAX_VALUE);
+        mAdapter = new ImageAdapter(loader,
+                getResources().getDimensionPixelSize(R.dimen.picker_cell_size));
+        mGrid = (GridView) findViewById(R.id.grid_images);
+        mGrid.setAdapter(mAdapter);
+        mGrid.setChoiceMode(AbsListView.CHOICE_MODE_MULTIPLE);
+        mGrid.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisible, int visibleCount,
+                                 int totalCount) {
+                if (firstVisible != mLastFirstVisible && visibleCount > 0) {
+                    mLastFirstVisible = firstVisible;
+                    prefetchAround(firstVisible, visibleCount);
+                }
+            }
+        });
+        loadImages();
+    }
+
+    /**
+     * Returns the chosen images to the caller.
+     *
+     * @param view View (Send button) that was clicked.
+     */
+    public void sendSelected(View view) {
+        ArrayList<Uri> images = new ArrayList<>();
+        SparseBooleanArray checked = mGrid.getCheckedItemPositions();
+        for (int i = 0; i < checked.size(); i++) {
+            if (checked.valueAt(i)) {
+                images.add(uri(checked.keyAt(i)));
+            }
+        }
+        Intent result = new Intent();
+        result.putParcelableArrayListExtra(EXTRA_IMAGES, images);
+        setResult(RESULT_OK, result);
+        finish();
+    }
+
+    /**
+     * Queries the media store on a background thread and shows the result.
+     */
+    private void loadImages() {
+        final Context appContext = getApplicationContext();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Cursor cursor = appContext.getContentResolver().query(
+                        MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                        new String[]{MediaStore.Images.Media._ID,
+                                MediaStore.Images.Media.DATE_MODIFIED,
+                                MediaStore.Images.Media.ORIENTATION},
+                        null, null, MediaStore.Images.Media.DATE_MODIFIED + " DESC");
+                if (cursor == null) {
+                    return;
+                }
+                final long[] ids = new long[cursor.getCount()];
+                final long[] modified = new long[ids.length];
+                final int[] orientations = new int[ids.length];
+                try {
+                    for (int i = 0; i < ids.length && cursor.moveToNext(); i++) {
+                        ids[i] = cursor.getLong(0);
+                        modified[i] = cursor.getLong(1);
+                        orientations[i] = cursor.getInt(2);
+                    }
+                } finally {
+                    cursor.close();
+                }
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mIds = ids;
+                        mModified = modified;
+                        mOrientations = orientations;
+                        mAdapter.notifyDataSetChanged();
+                    }
+                });
+            }
+        }, "PickerQuery").start();
+    }
+
+    /**
+     * Narrows loading to a screen either side of the visible items, and
+     * prefetches the thumbnails in that range.
+     */
+    private void prefetchAround(int firstVisible, int visibleCount) {
+        int first = Math.max(0, firstVisible - visibleCount);
+        int last = Math.min(mIds.length - 1, firstVisible + 2 * visibleCount - 1);
+        ThumbnailLoader loader = mAdapter.mLoader;
+        loader.setWindow(first, last);
+        // The newest requests are served first, so queue the items
+        // nearest the visible ones last.
+        for (int i = first; i < firstVisible; i++) {
+            loader.prefetch(uri(i), mModified[i], mOrientations[i], i);
+        }
+        for (int i = last; i >= firstVisible + visibleCount; i--) {
+            loader.prefetch(uri(i), mModified[i], mOrientations[i], i);
+        }
+    }
+
+    private Uri uri(int position) {
+        return ContentUris.withAppendedId(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                mIds[position]);
+    }
+
+    /**
+     * Returns the thumbnail loader, which keeps its memory cache between
+     * visits to the picker.
+     *
+     * @param context Any context; only the application context is kept.
+     * @return The loader.
+     */
+    private static synchronized ThumbnailLoader getLoader(Context context) {
+        if (sLoader == null) {
+            Context appContext = context.getApplicationContext();
+            ActivityManager activityManager =
+                    (ActivityManager) appContext.getSystemService(ACTIVITY_SERVICE);
+            int heapBytes = activityManager.getMemoryClass() * 1024 * 1024;
+            ThumbnailCache cache = new ThumbnailCache(heapBytes / MEMORY_CACHE_DIVISOR,
+                    new File(appContext.getCacheDir(), THUMBNAIL_DIR), MAX_DISK_CACHE_BYTES);
+            sLoader = new ThumbnailLoader(cache, appContext.getContentResolver(),
+                    appContext.getResources().getDimensionPixelSize(R.dimen.picker_cell_size));
+        }
+        return sLoader;
+    }
+
+    /**
+     * Square cells showing the thumbnails; a checked cell shows its
+     * activated background around the image.
+     */
+    private final class ImageAdapter extends BaseAdapter {
+        final ThumbnailLoader mLoader;
+        private final int mCellSize;
+
+        ImageAdapter(ThumbnailLoader loader, int cellSize) {
+            mLoader = loader;
+            mCellSize = cellSize;
+        }
+
+        @Override
+        public int getCount() {
+            return mIds.length;
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return uri(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return mIds[position];
+        }
+
+        @Override
+        public boolean hasStableIds() {
+            return true;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            ImageView view = (ImageView) convertView;
+            if (view == null) {
+                view = new ImageView(PickerActivity.this);
+                view.setLayoutParams(new AbsListView.LayoutParams(mCellSize, mCellSize));
+                view.setScaleType(ImageView.ScaleType.CENTER_CROP);
+                view.setBackgroundResource(R.drawable.picker_cell_background);
+                int padding = getResources().getDimensionPixelSize(R.dimen.picker_cell_padding);
+                view.setPadding(padding, padding, padding, padding);
+            }
+            mLoader.load(view, uri(position), mModified[position], mOrientations[position],
+                    position);
+            return view;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.mmschallenge;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Two-level cache of thumbnails: an LRU of bitmaps in memory, sized in
+ * bytes, in front of a directory of JPEG thumbnails on disk.
+ *
+ * Keys name the image and its version, e.g. its content Uri and
+ * modification time, so an edited image gets a new thumbnail and the old
+ * one ages out. Disk files are named by a 64-bit hash of the key. The disk
+ * cache is kept under its size limit by deleting the least recently used
+ * files, going by their modification times, which are touched on each hit.
+ *
+ * The memory methods may be called from any thread. The disk methods do
+ * I/O; call them off the main thread.
+ */
+public final class ThumbnailCache {
+
+    private static final String TAG = ThumbnailCache.class.getSimpleName();
+    private static final int JPEG_QUALITY = 80;
+    // When over the limit, trim the disk cache down to this share of it,
+    // so that trimming does not run on every write.
+    private static final int TRIM_PERCENT = 90;
+
+    private final LruCache<String, Bitmap> mMemory;
+    private final File mDir;
+    private final long mMaxDiskBytes;
+    // Guarded by mDir.
+    private long mDiskBytes = -1;
+
+    /**
+     * @param maxMemoryBytes Most memory the bitmaps in memory may use.
+     * @param dir            Directory of the disk cache, created if needed.
+     * @param maxDiskBytes   Most space the disk cache may use.
+     */
+    public ThumbnailCache(int maxMemoryBytes, File dir, long maxDiskBytes) {
+        mMemory = new LruCache<String, Bitmap>(maxMemoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getRowBytes() * bitmap.getHeight();
+            }
+        };
+        mDir = dir;
+        mMaxDiskBytes = maxDiskBytes;
+    }
+
+    /**
+     * @param key The thumbnail key.
+     * @return The thumbnail, or null if it is not in memory.
+     */
+    public Bitmap getFromMemory(String key) {
+        return mMemory.get(key);
+    }
+
+    /**
+     * Reads a thumbnail from disk, and keeps it in memory if found.
+     *
+     * @param key The thumbnail key.
+     * @return The thumbnail, or null if it is not on disk.
+     */
+    public Bitmap getFromDisk(String key) {
+        File file = file(key);
+        if (!file.exists()) {
+            return null;
+        }
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+        if (bitmap == null) {
+            // Cut short by a crash; decode the image again.
+            deleteFile(file);
+            return null;
+        }
+        // Mark it recently used.
+        file.setLastModified(System.currentTimeMillis());
+        mMemory.put(key, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Keeps a new thumbnail in memory and writes it to disk.
+     *
+     * @param key       The thumbnail key.
+     * @param thumbnail The thumbnail.
+     */
+    public void put(String key, Bitmap thumbnail) {
+        mMemory.put(key, thumbnail);
+        synchronized (mDir) {
+            if (mDiskBytes < 0) {
+                if (!mDir.isDirectory() && !mDir.mkdirs()) {
+                    Log.w(TAG, "Cannot create " + mDir);
+                    return;
+                }
+                mDiskBytes = diskUsage();
+            }
+        }
+        File file = file(key);
+        File tmp = new File(mDir, file.getName() + ".tmp" + Thread.currentThread().getId());
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                thumbnail.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            } finally {
+                out.close();
+            }
+            long length = tmp.length();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Cannot rename " + tmp);
+            }
+            synchronized (mDir) {
+                mDiskBytes += length;
+                if (mDiskBytes > mMaxDiskBytes) {
+                    trim();
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write thumbnail " + file, e);
+            deleteFile(tmp);
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the disk cache is down
+     * to TRIM_PERCENT of its limit. Called with mDir held.
+     */
+    private void trim() {
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        long total = 0;
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+            total += files[i].length();
+        }
+        // Sort the indexes rather than the files, so each modification
+        // time is read once.
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                long x = modified[a];
+                long y = modified[b];
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+        long target = mMaxDiskBytes / 100 * TRIM_PERCENT;
+        for (int i = 0; i < order.length && total > target; i++) {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+        mDiskBytes = total;
+    }
+
+    private long diskUsage() {
+        File[] files = mDir.listFiles();
+        long total = 0;
+        if (files != null) {
+            for (File file : files) {
+                total += file.length();
+            }
+        }
+        return total;
+    }
+
+    private File file(String key) {
+        return new File(mDir, Long.toHexString(hash(key)) + ".jpg");
+    }
+
+    /**
+     * Returns the 64-bit FNV-1a hash of a key, wide enough that 10,000
+     * thumbnails are unlikely to share a file name.
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Cannot delete " + file);
+        }
+    }
+}
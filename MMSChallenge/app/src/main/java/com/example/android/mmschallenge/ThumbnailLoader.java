@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.mmschallenge;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ThumbnailUtils;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.widget.ImageView;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads square thumbnails into ImageViews in the background, through a
+ * ThumbnailCache.
+ *
+ * A thumbnail is taken from memory on the main thread when it is there;
+ * otherwise a task reads it from the disk cache, or decodes the image with
+ * subsampling and writes the thumbnail to the disk cache. Tasks run newest
+ * first, so the rows the user is looking at come before those scrolled
+ * past, and a task whose position has left the window set by setWindow()
+ * is dropped without decoding. prefetch() loads thumbnails just outside the
+ * visible rows in the same way, so they are in memory when scrolled in.
+ *
+ * Each view remembers the key it was last bound to, so a thumbnail that
+ * arrives after its view was recycled for another image is not shown.
+ * Call everything except the tasks on the main thread.
+ */
+public final class ThumbnailLoader {
+
+    private static final String TAG = ThumbnailLoader.class.getSimpleName();
+    private static final int THREADS = 2;
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    /**
+     * Runs the newest task first.
+     */
+    private static final class LifoQueue extends LinkedBlockingDeque<Runnable> {
+        @Override
+        public boolean offer(Runnable runnable) {
+            return offerFirst(runnable);
+        }
+    }
+
+    private final ThumbnailCache mCache;
+    private final ContentResolver mResolver;
+    private final int mSize;
+    private final ThreadPoolExecutor mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Main thread only.
+    private final WeakHashMap<ImageView, String> mBound = new WeakHashMap<>();
+    private final HashSet<String> mPending = new HashSet<>();
+    // Positions worth loading; read by the tasks.
+    private volatile int mWindowFirst;
+    private volatile int mWindowLast = Integer.MAX_VALUE;
+
+    /**
+     * @param cache    The thumbnail cache.
+     * @param resolver Opens the images.
+     * @param size     Width and height of the thumbnails in pixels.
+     */
+    public ThumbnailLoader(ThumbnailCache cache, ContentResolver resolver, int size) {
+        mCache = cache;
+        mResolver = resolver;
+        mSize = size;
+        mExecutor = new ThreadPoolExecutor(THREADS, THREADS, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LifoQueue(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(
+                                        Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, TAG);
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the cache key of an image version.
+     *
+     * @param uri         The image.
+     * @param modified    Its modification time.
+     * @param orientation Its rotation in degrees.
+     * @return The key.
+     */
+    public static String key(Uri uri, long modified, int orientation) {
+        return uri + "#" + modified + "#" + orientation;
+    }
+
+    /**
+     * Shows the thumbnail of an image in a view, at once if it is in
+     * memory, and otherwise when it has been loaded.
+     *
+     * @param view        The view.
+     * @param uri         The image.
+     * @param modified    Its modification time.
+     * @param orientation Its rotation in degrees.
+     * @param position    Its position in the list, for setWindow().
+     */
+    public void load(ImageView view, Uri uri, long modified, int orientation, int position) {
+        String key = key(uri, modified, orientation);
+        mBound.put(view, key);
+        Bitmap bitmap = mCache.getFromMemory(key);
+        if (bitmap != null) {
+            view.setImageBitmap(bitmap);
+            return;
+        }
+        view.setImageDrawable(null);
+        enqueue(key, uri, orientation, position);
+    }
+
+    /**
+     * Loads the thumbnail of an image into memory if it is not there yet.
+     *
+     * @param uri         The image.
+     * @param modified    Its modification time.
+     * @param orientation Its rotation in degrees.
+     * @param position    Its position in the list, for setWindow().
+     */
+    public void prefetch(Uri uri, long modified, int orientation, int position) {
+        String key = key(uri, modified, orientation);
+        if (mCache.getFromMemory(key) == null) {
+            enqueue(key, uri, orientation, position);
+        }
+    }
+
+    /**
+     * Sets the positions still worth loading; queued tasks outside them
+     * are dropped.
+     *
+     * @param first First position, inclusive.
+     * @param last  Last position, inclusive.
+     */
+    public void setWindow(int first, int last) {
+        mWindowFirst = first;
+        mWindowLast = last;
+    }
+
+    private void enqueue(final String key, final Uri uri, final int orientation,
+                         final int position) {
+        if (!mPending.add(key)) {
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap bitmap = null;
+                if (position >= mWindowFirst && position <= mWindowLast) {
+                    bitmap = mCache.getFromDisk(key);
+                    if (bitmap == null) {
+                        bitmap = decode(uri, orientation);
+                        if (bitmap != null) {
+                            mCache.put(key, bitmap);
+                        }
+                    }
+                }
+                deliver(key, bitmap);
+            }
+        });
+    }
+
+    /**
+     * Shows a loaded thumbnail in the views still bound to its key.
+     */
+    private void deliver(final String key, final Bitmap bitmap) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mPending.remove(key);
+                if (bitmap == null) {
+                    return;
+                }
+                for (Map.Entry<ImageView, String> entry : mBound.entrySet()) {
+                    if (key.equals(entry.getValue())) {
+                        entry.getKey().setImageBitmap(bitmap);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Decodes an image with the largest subsampling that keeps both sides
+     * at least the thumbnail size, then crops the center to a square.
+     */
+    private Bitmap decode(Uri uri, int orientation) {
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            decode(uri, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+            int sampleSize = 1;
+            while (Math.min(options.outWidth, options.outHeight) / (sampleSize * 2) >= mSize) {
+                sampleSize *= 2;
+            }
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize;
+            Bitmap bitmap = decode(uri, options);
+            if (bitmap == null) {
+                return null;
+            }
+            Bitmap thumbnail = ThumbnailUtils.extractThumbnail(bitmap, mSize, mSize,
+                    ThumbnailUtils.OPTIONS_RECYCLE_INPUT);
+            if (orientation % 360 != 0) {
+                Matrix matrix = new Matrix();
+                matrix.postRotate(orientation);
+                Bitmap rotated = Bitmap.createBitmap(thumbnail, 0, 0, mSize, mSize,
+                        matrix, true);
+                if (rotated != thumbnail) {
+                    thumbnail.recycle();
+                }
+                thumbnail = rotated;
+            }
+            return thumbnail;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Cannot decode " + uri, e);
+            return null;
+        }
+    }
+
+    private Bitmap decode(Uri uri, BitmapFactory.Options options) throws IOException {
+        InputStream in = mResolver.openInputStream(uri);
+        if (in == null) {
+            throw new IOException("Cannot open " + uri);
+        }
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,625 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.phonecallingsample;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dials a queue of numbers one after another: when a call ends (IDLE
+ * after OFFHOOK), the next number is dialed after a wrap-up delay.
+ *
+ * The queue and the outcome of each number are saved to a file, so a
+ * campaign survives the process; a loaded campaign starts out paused.
+ * The file is read and written on the executor, never on the thread that
+ * feeds in call states. Until the saved campaign is loaded the campaign
+ * is idle, and starting a new one discards the saved one.
+ * Numbers can be skipped by SkipRules, and calls that were too short to
+ * count can be retried at the end of the queue. Stats reports the calls
+ * per hour of running time and the idle gap from the end of one call to
+ * the start of the next, which is the time the campaign is trying to cut.
+ *
+ * Plain Java apart from logging. Call states come in through
+ * onCallStateChanged(); timers and file I/O run on the given executor.
+ * All methods are synchronized.
+ */
+public final class CallCampaign {
+
+    private static final String TAG = CallCampaign.class.getSimpleName();
+
+    // Campaign states.
+    public static final int STATE_IDLE = 0;
+    public static final int STATE_RUNNING = 1;
+    public static final int STATE_PAUSED = 2;
+    public static final int STATE_FINISHED = 3;
+
+    // Same values as TelephonyManager.CALL_STATE_IDLE, _RINGING and _OFFHOOK.
+    private static final int CALL_IDLE = 0;
+    private static final int CALL_OFFHOOK = 2;
+
+    // Entry statuses, as saved in the file.
+    private static final char PENDING = 'P';
+    private static final char DONE = 'D';
+    private static final char FAILED = 'F';
+    private static final char SKIPPED = 'S';
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Places the calls.
+     */
+    public interface Dialer {
+        /**
+         * Starts a call. Called on the executor.
+         *
+         * @param number The number to call.
+         * @throws RuntimeException if the call cannot be placed; the
+         *         campaign is paused.
+         */
+        void dial(String number);
+    }
+
+    /**
+     * Decides whether a number should be skipped.
+     */
+    public interface SkipRule {
+        /**
+         * @param number   The number about to be dialed.
+         * @param attempts How many times it was dialed before.
+         * @return true to skip it.
+         */
+        boolean shouldSkip(String number, int attempts);
+    }
+
+    /**
+     * Told about every change, on the thread that made it.
+     */
+    public interface Listener {
+        void onCampaignChanged(Stats stats);
+    }
+
+    /**
+     * Campaign settings.
+     */
+    public static final class Options {
+        long wrapUpMillis = 5000;
+        long dialTimeoutMillis = 60000;
+        long minTalkMillis;
+        int maxAttempts = 1;
+        boolean skipDuplicates = true;
+        final ArrayList<SkipRule> skipRules = new ArrayList<>();
+
+        /**
+         * @param millis Pause between the end of a call and the next dial.
+         * @return These options.
+         */
+        public Options setWrapUpMillis(long millis) {
+            wrapUpMillis = millis;
+            return this;
+        }
+
+        /**
+         * @param millis How long to wait for a dialed call to go off hook
+         *               before giving up on the number.
+         * @return These options.
+         */
+        public Options setDialTimeoutMillis(long millis) {
+            dialTimeoutMillis = millis;
+            return this;
+        }
+
+        /**
+         * @param millis      Calls shorter than this did not reach anyone.
+         * @param maxAttempts How many times to try such a number in all.
+         * @return These options.
+         */
+        public Options setRetry(long millis, int maxAttempts) {
+            minTalkMillis = millis;
+            this.maxAttempts = Math.max(1, maxAttempts);
+            return this;
+        }
+
+        /**
+         * @param skip Whether to skip numbers already in the queue.
+         * @return These options.
+         */
+        public Options setSkipDuplicates(boolean skip) {
+            skipDuplicates = skip;
+            return this;
+        }
+
+        /**
+         * @param rule A rule checked before each dial.
+         * @return These options.
+         */
+        public Options addSkipRule(SkipRule rule) {
+            skipRules.add(rule);
+            return this;
+        }
+    }
+
+    /**
+     * Progress and throughput of the campaign.
+     */
+    public static final class Stats {
+        public final int state;
+        public final String currentNumber;
+        public final int completed;
+        public final int failed;
+        public final int skipped;
+        public final int remaining;
+        public final long runningMillis;
+        public final long lastIdleGapMillis;
+        public final long averageIdleGapMillis;
+
+        Stats(int state, String currentNumber, int completed, int failed, int skipped,
+              int remaining, long runningMillis, long lastIdleGapMillis,
+              long averageIdleGapMillis) {
+            this.state = state;
+            this.currentNumber = currentNumber;
+            this.completed = completed;
+            this.failed = failed;
+            this.skipped = skipped;
+            this.remaining = remaining;
+            this.runningMillis = runningMillis;
+            this.lastIdleGapMillis = lastIdleGapMillis;
+            this.averageIdleGapMillis = averageIdleGapMillis;
+        }
+
+        /**
+         * @return Completed calls per hour of running time.
+         */
+        public double getCallsPerHour() {
+            return runningMillis == 0 ? 0 : completed * 3600000.0 / runningMillis;
+        }
+    }
+
+    /**
+     * A number in the queue.
+     */
+    private static final class Entry {
+        final String number;
+        char status;
+        int attempts;
+
+        Entry(String number, char status, int attempts) {
+            this.number = number;
+            this.status = status;
+            this.attempts = attempts;
+        }
+    }
+
+    private final File mFile;
+    private final Options mOptions;
+    private final Dialer mDialer;
+    private final ScheduledExecutorService mExecutor;
+    private final ArrayList<Entry> mEntries = new ArrayList<>();
+    private Listener mListener;
+
+    private int mState = STATE_IDLE;
+    private int mCallState = CALL_IDLE;
+    private Entry mCurrent;
+    private boolean mConnected;
+    private long mTalkStartMillis;
+    private long mLastCallEndMillis = -1;
+    private long mRunningSinceMillis;
+    private long mRunningMillis;
+    private long mLastIdleGapMillis;
+    private long mTotalIdleGapMillis;
+    private int mIdleGapCount;
+    private ScheduledFuture<?> mPendingDial;
+    private ScheduledFuture<?> mDialTimeout;
+    // Set once the saved campaign is loaded or replaced by start().
+    private boolean mLoaded;
+    private boolean mSavePending;
+
+    private final Runnable mDialNext = new Runnable() {
+        @Override
+        public void run() {
+            dialNext();
+        }
+    };
+    private final Runnable mDialTimedOut = new Runnable() {
+        @Override
+        public void run() {
+            dialTimedOut();
+        }
+    };
+    private final Runnable mLoad = new Runnable() {
+        @Override
+        public void run() {
+            load();
+        }
+    };
+    private final Runnable mSave = new Runnable() {
+        @Override
+        public void run() {
+            save();
+        }
+    };
+
+    /**
+     * Starts loading the campaign saved in a file, if any, paused. The
+     * listener is told when it is loaded.
+     *
+     * @param file     File the queue is saved in.
+     * @param options  Campaign settings.
+     * @param dialer   Places the calls.
+     * @param executor Runs the wrap-up and dial timers, and reads and
+     *                 writes the file.
+     */
+    public CallCampaign(File file, Options options, Dialer dialer,
+                        ScheduledExecutorService executor) {
+        mFile = file;
+        mOptions = options;
+        mDialer = dialer;
+        mExecutor = executor;
+        mExecutor.execute(mLoad);
+    }
+
+    public synchronized void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @return One of the STATE_ constants.
+     */
+    public synchronized int getState() {
+        return mState;
+    }
+
+    /**
+     * Replaces the queue and starts dialing. The queue is saved in the
+     * background.
+     *
+     * @param numbers The numbers, in order.
+     */
+    public synchronized void start(List<String> numbers) {
+        mLoaded = true;
+        cancelTimers();
+        mEntries.clear();
+        mCurrent = null;
+        mConnected = false;
+        mRunningMillis = 0;
+        mLastCallEndMillis = -1;
+        mLastIdleGapMillis = 0;
+        mTotalIdleGapMillis = 0;
+        mIdleGapCount = 0;
+        HashSet<String> seen = new HashSet<>();
+        for (int i = 0; i < numbers.size(); i++) {
+            String number = numbers.get(i);
+            boolean duplicate = !seen.add(number);
+            mEntries.add(new Entry(number,
+                    duplicate && mOptions.skipDuplicates ? SKIPPED : PENDING, 0));
+        }
+        scheduleSave();
+        mState = STATE_PAUSED;
+        resume();
+    }
+
+    /**
+     * Stops dialing new numbers; a call in progress goes on.
+     */
+    public synchronized void pause() {
+        if (mState != STATE_RUNNING) {
+            return;
+        }
+        stopRunning(STATE_PAUSED);
+        cancelTimers();
+        notifyChanged();
+    }
+
+    /**
+     * Dials the next number as soon as the phone is idle.
+     */
+    public synchronized void resume() {
+        if (mState != STATE_PAUSED) {
+            return;
+        }
+        mState = STATE_RUNNING;
+        mRunningSinceMillis = now();
+        scheduleDial(0);
+        notifyChanged();
+    }
+
+    /**
+     * Feeds a call-state change to the campaign.
+     *
+     * @param callState The new state; a TelephonyManager.CALL_STATE_ value.
+     */
+    public synchronized void onCallStateChanged(int callState) {
+        int previous = mCallState;
+        mCallState = callState;
+        if (callState == previous) {
+            return;
+        }
+        long now = now();
+        if (callState == CALL_OFFHOOK && mCurrent != null && !mConnected) {
+            // The dialed call started.
+            mConnected = true;
+            mTalkStartMillis = now;
+            cancel(mDialTimeout);
+            if (mLastCallEndMillis >= 0) {
+                mLastIdleGapMillis = now - mLastCallEndMillis;
+                mTotalIdleGapMillis += mLastIdleGapMillis;
+                mIdleGapCount++;
+            }
+        } else if (callState == CALL_IDLE) {
+            if (previous == CALL_OFFHOOK && mCurrent != null && mConnected) {
+                finishCall(now - mTalkStartMillis >= mOptions.minTalkMillis);
+                mLastCallEndMillis = now;
+                scheduleSave();
+            }
+            if (mState == STATE_RUNNING && mCurrent == null) {
+                scheduleDial(mOptions.wrapUpMillis);
+            }
+        }
+        notifyChanged();
+    }
+
+    /**
+     * @return The current progress and throughput.
+     */
+    public synchronized Stats getStats() {
+        int completed = 0;
+        int failed = 0;
+        int skipped = 0;
+        int remaining = 0;
+        for (int i = 0; i < mEntries.size(); i++) {
+            switch (mEntries.get(i).status) {
+                case DONE:
+                    completed++;
+                    break;
+                case FAILED:
+                    failed++;
+                    break;
+                case SKIPPED:
+                    skipped++;
+                    break;
+                default:
+                    remaining++;
+                    break;
+            }
+        }
+        long running = mRunningMillis
+                + (mState == STATE_RUNNING ? now() - mRunningSinceMillis : 0);
+        return new Stats(mState, mCurrent == null ? null : mCurrent.number, completed,
+                failed, skipped, remaining, running, mLastIdleGapMillis,
+                mIdleGapCount == 0 ? 0 : mTotalIdleGapMillis / mIdleGapCount);
+    }
+
+    private synchronized void dialNext() {
+        mPendingDial = null;
+        if (mState != STATE_RUNNING || mCallState != CALL_IDLE || mCurrent != null) {
+            return;
+        }
+        Entry entry = nextEntry();
+        if (entry == null) {
+            stopRunning(STATE_FINISHED);
+            notifyChanged();
+            return;
+        }
+        entry.attempts++;
+        mCurrent = entry;
+        mConnected = false;
+        mDialTimeout = mExecutor.schedule(mDialTimedOut, mOptions.dialTimeoutMillis,
+                TimeUnit.MILLISECONDS);
+        try {
+            mDialer.dial(entry.number);
+        } catch (RuntimeException e) {
+            // E.g. the call permission was revoked; wait for the user.
+            cancel(mDialTimeout);
+            entry.attempts--;
+            mCurrent = null;
+            stopRunning(STATE_PAUSED);
+        }
+        scheduleSave();
+        notifyChanged();
+    }
+
+    private synchronized void dialTimedOut() {
+        if (mCurrent == null || mConnected) {
+            return;
+        }
+        // The call never started.
+        finishCall(false);
+        scheduleSave();
+        scheduleDial(0);
+        notifyChanged();
+    }
+
+    /**
+     * Returns the first pending entry, skipping those the rules reject.
+     */
+    private Entry nextEntry() {
+        for (int i = 0; i < mEntries.size(); i++) {
+            Entry entry = mEntries.get(i);
+            if (entry.status != PENDING) {
+                continue;
+            }
+            if (shouldSkip(entry)) {
+                entry.status = SKIPPED;
+                continue;
+            }
+            return entry;
+        }
+        return null;
+    }
+
+    private boolean shouldSkip(Entry entry) {
+        for (int i = 0; i < mOptions.skipRules.size(); i++) {
+            if (mOptions.skipRules.get(i).shouldSkip(entry.number, entry.attempts)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Settles the current entry; a failed number is tried again at the
+     * end of the queue while it has attempts left.
+     */
+    private void finishCall(boolean reached) {
+        Entry entry = mCurrent;
+        mCurrent = null;
+        mConnected = false;
+        if (reached) {
+            entry.status = DONE;
+        } else if (entry.attempts < mOptions.maxAttempts) {
+            mEntries.remove(entry);
+            mEntries.add(entry);
+        } else {
+            entry.status = FAILED;
+        }
+    }
+
+    private void scheduleDial(long delayMillis) {
+        cancel(mPendingDial);
+        mPendingDial = mExecutor.schedule(mDialNext, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void stopRunning(int state) {
+        if (mState == STATE_RUNNING) {
+            mRunningMillis += now() - mRunningSinceMillis;
+        }
+        mState = state;
+    }
+
+    private void cancelTimers() {
+        cancel(mPendingDial);
+        cancel(mDialTimeout);
+        mPendingDial = null;
+        mDialTimeout = null;
+    }
+
+    private static void cancel(ScheduledFuture<?> future) {
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    private void notifyChanged() {
+        if (mListener != null) {
+            mListener.onCampaignChanged(getStats());
+        }
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * Reads the saved queue, on the executor, and publishes it paused
+     * unless start() was called first. A file that cannot be read leaves
+     * the campaign idle.
+     */
+    private void load() {
+        ArrayList<Entry> entries = new ArrayList<>();
+        if (mFile.exists()) {
+            try {
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(new FileInputStream(mFile), UTF_8));
+                try {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        // Status, attempts and number, separated by spaces.
+                        String[] fields = line.split(" ", 3);
+                        if (fields.length == 3 && fields[0].length() == 1) {
+                            entries.add(new Entry(fields[2], fields[0].charAt(0),
+                                    Integer.parseInt(fields[1])));
+                        }
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException | NumberFormatException e) {
+                Log.w(TAG, "Cannot load " + mFile, e);
+                entries.clear();
+            }
+        }
+        synchronized (this) {
+            if (mLoaded) {
+                return;
+            }
+            mLoaded = true;
+            mEntries.addAll(entries);
+            for (int i = 0; i < mEntries.size(); i++) {
+                if (mEntries.get(i).status == PENDING) {
+                    mState = STATE_PAUSED;
+                    break;
+                }
+            }
+            notifyChanged();
+        }
+    }
+
+    /**
+     * Saves the queue on the executor. Changes made before the save runs
+     * are written by it.
+     */
+    private void scheduleSave() {
+        if (!mSavePending) {
+            mSavePending = true;
+            mExecutor.execute(mSave);
+        }
+    }
+
+    /**
+     * Writes the queue to a new file and renames it over the old one. A
+     * failed save leaves the previous file; the next save catches up.
+     */
+    private void save() {
+        StringBuilder text = new StringBuilder();
+        synchronized (this) {
+            mSavePending = false;
+            for (int i = 0; i < mEntries.size(); i++) {
+                Entry entry = mEntries.get(i);
+                text.append(entry.status).append(' ').append(entry.attempts).append(' ')
+                        .append(entry.number).append('\n');
+            }
+        }
+        File tmp = new File(mFile.getPath() + ".tmp");
+        try {
+            Writer out = new OutputStreamWriter(new FileOutputStream(tmp), UTF_8);
+            try {
+                out.write(text.toString());
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(mFile)) {
+                throw new IOException("Cannot rename " + tmp);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot save " + mFile, e);
+        }
+    }
+}
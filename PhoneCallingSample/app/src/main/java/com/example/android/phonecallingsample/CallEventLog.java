@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.phonecallingsample;
+
+/**
+ * Fixed-size ring buffer of call-state transitions, each with a
+ * timestamp from a monotonic clock. When full, the oldest events are
+ * overwritten.
+ *
+ * record() allocates nothing. There must be a single writer; readers on
+ * other threads can copy the latest events at any time with snapshot(),
+ * which skips events overwritten while it was copying.
+ */
+public final class CallEventLog {
+
+    private final long[] mTimes;
+    private final int[] mStates;
+    private final int mMask;
+    // Total number of events ever recorded. Written after the event
+    // itself, so a reader that sees the count also sees the event.
+    private volatile long mCount;
+
+    /**
+     * @param capacity Number of events kept; rounded up to a power of two.
+     */
+    public CallEventLog(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        mTimes = new long[size];
+        mStates = new int[size];
+        mMask = size - 1;
+    }
+
+    /**
+     * Records a transition. Must only be called from one thread.
+     *
+     * @param state      The new call state.
+     * @param timeMillis When it happened, from SystemClock.elapsedRealtime().
+     */
+    public void record(int state, long timeMillis) {
+        long count = mCount;
+        int slot = (int) count & mMask;
+        mTimes[slot] = timeMillis;
+        mStates[slot] = state;
+        mCount = count + 1;
+    }
+
+    /**
+     * Copies the most recent events, oldest first.
+     *
+     * @param times  Receives the timestamps.
+     * @param states Receives the states; at least as long as times.
+     * @return The number of events copied.
+     */
+    public int snapshot(long[] times, int[] states) {
+        long end = mCount;
+        long start = Math.max(0, end - Math.min(times.length, mTimes.length));
+        for (long i = start; i < end; i++) {
+            int slot = (int) i & mMask;
+            times[(int) (i - start)] = mTimes[slot];
+            states[(int) (i - start)] = mStates[slot];
+        }
+        // Events the writer may have overwritten while we copied. The
+        // writer fills slot mCount before publishing mCount + 1, so that
+        // slot's older event may be half-written too.
+        long overwritten = mCount - mTimes.length + 1;
+        int skip = (int) Math.max(0, overwritten - start);
+        if (skip >= end - start) {
+            return 0;
+        }
+        if (skip > 0) {
+            int copied = (int) (end - start);
+            System.arraycopy(times, skip, times, 0, copied - skip);
+            System.arraycopy(states, skip, states, 0, copied - skip);
+        }
+        return (int) (end - start) - skip;
+    }
+
+    /**
+     * @return The total number of events ever recorded.
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return The number of events the log can hold.
+     */
+    public int getCapacity() {
+        return mTimes.length;
+    }
+}
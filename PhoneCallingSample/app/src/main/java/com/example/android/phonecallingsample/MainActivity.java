@@ -17,11 +17,13 @@
 package com.example.android.phonecallingsample;
 
 import android.Manifest;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v4.app.ActivityCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.telephony.PhoneStateListener;
@@ -31,8 +33,13 @@ import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ImageButton;
+import android.widget.TextView;
 import android.widget.Toast;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+
 /**
  * This app accepts a phone number and makes a phone call.
  */
@@ -40,6 +47,30 @@ public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = MainActivity.class.getSimpleName();
     private static final int MY_PERMISSIONS_REQUEST_CALL_PHONE = 1;
+    private static final int CALL_EVENT_LOG_SIZE = 1024;
+    private static final String CAMPAIGN_FILE = "campaign.txt";
+    // Pause after each campaign call, and how long a dialed call may take
+    // to go off hook.
+    private static final long CAMPAIGN_WRAP_UP_MILLIS = 5000;
+    private static final long CAMPAIGN_DIAL_TIMEOUT_MILLIS = 60000;
+    // Campaign calls shorter than this reached no one and are tried again
+    // at the end of the queue, up to this many times in all.
+    private static final long CAMPAIGN_MIN_TALK_MILLIS = 10000;
+    private static final int CAMPAIGN_MAX_ATTEMPTS = 2;
+    private static final String BLOCKLIST_FILE = "blocklist.txt";
+    private static final int NORMALIZER_CACHE_SIZE = 256;
+
+    // Timing of the calls seen by every instance of the listener, which
+    // all run on the main thread.
+    private static final CallMetrics sCallMetrics = new CallMetrics(CALL_EVENT_LOG_SIZE);
+    // The call campaign, shared by every instance of the activity.
+    private static CallCampaign sCampaign;
+    // Feeds call states to the campaign for the life of the process, so it
+    // keeps dialing when no activity is around. Kept in a field, as the
+    // TelephonyManager holds it only weakly.
+    private static PhoneStateListener sCampaignListener;
+    // Numbers whose calls are flagged as blocked, read in the background.
+    private static BlocklistFile sBlocklist;
 
     private TelephonyManager mTelephonyManager;
     private MyPhoneCallListener mListener;
@@ -57,6 +88,9 @@ public class MainActivity extends AppCompatActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        // Start watching and reading the blocklist now, so it is ready
+        // before a call rings.
+        getBlocklist(this);
         // Create a telephony manager.
         mTelephonyManager = (TelephonyManager) getSystemService(TELEPHONY_SERVICE);
         // Check to see if Telephony is enabled.
@@ -74,6 +108,91 @@ public class MainActivity extends AppCompatActivity {
             // Disable the call button.
             disableCallButton();
         }
+        // The saved campaign is loaded in the background; the listener
+        // shows it once it is.
+        getCampaign(this).setListener(new CallCampaign.Listener() {
+            @Override
+            public void onCampaignChanged(final CallCampaign.Stats stats) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        showCampaign(stats);
+                    }
+                });
+            }
+        });
+        showCampaign(sCampaign.getStats());
+    }
+
+    /**
+     * Returns the blocklist, creating it on first use.
+     *
+     * @param context Any context; only the application context is kept.
+     * @return The blocklist.
+     */
+    private static synchronized BlocklistFile getBlocklist(Context context) {
+        if (sBlocklist == null) {
+            Context appContext = context.getApplicationContext();
+            sBlocklist = new BlocklistFile(new File(appContext.getFilesDir(), BLOCKLIST_FILE),
+                    new PhoneNumberNormalizer(appContext.getString(R.string.default_country_code),
+                            NORMALIZER_CACHE_SIZE));
+        }
+        return sBlocklist;
+    }
+
+    /**
+     * Returns the call campaign, starting to load the saved one and to
+     * listen for call states on first use, which must be on the main
+     * thread.
+     *
+     * @param context Any context; only the application context is kept.
+     * @return The campaign.
+     */
+    private static synchronized CallCampaign getCampaign(Context context) {
+        if (sCampaign == null) {
+            final Context appContext = context.getApplicationContext();
+            CallCampaign.Options options = new CallCampaign.Options()
+                    .setWrapUpMillis(CAMPAIGN_WRAP_UP_MILLIS)
+                    .setDialTimeoutMillis(CAMPAIGN_DIAL_TIMEOUT_MILLIS)
+                    .setRetry(CAMPAIGN_MIN_TALK_MILLIS, CAMPAIGN_MAX_ATTEMPTS)
+                    .addSkipRule(new CallCampaign.SkipRule() {
+                        @Override
+                        public boolean shouldSkip(String number, int attempts) {
+                            // Skip entries with nothing to dial.
+                            for (int i = 0; i < number.length(); i++) {
+                                if (Character.isDigit(number.charAt(i))) {
+                                    return false;
+                                }
+                            }
+                            return true;
+                        }
+                    });
+            CallCampaign.Dialer dialer = new CallCampaign.Dialer() {
+                @Override
+                public void dial(String number) {
+                    Intent callIntent = new Intent(Intent.ACTION_CALL,
+                            Uri.fromParts("tel", number, null));
+                    callIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+                    appContext.startActivity(callIntent);
+                }
+            };
+            sCampaign = new CallCampaign(new File(appContext.getFilesDir(), CAMPAIGN_FILE),
+                    options, dialer, Executors.newSingleThreadScheduledExecutor());
+            // The campaign dials its next number when the phone is idle again.
+            TelephonyManager telephonyManager =
+                    (TelephonyManager) appContext.getSystemService(TELEPHONY_SERVICE);
+            if (telephonyManager != null) {
+                final CallCampaign campaign = sCampaign;
+                sCampaignListener = new PhoneStateListener() {
+                    @Override
+                    public void onCallStateChanged(int state, String incomingNumber) {
+                        campaign.onCallStateChanged(state);
+                    }
+                };
+                telephonyManager.listen(sCampaignListener, PhoneStateListener.LISTEN_CALL_STATE);
+            }
+        }
+        return sCampaign;
     }
 
     /**
@@ -168,20 +287,88 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Starts a campaign with the numbers entered, one per line, or pauses
+     * or resumes the current one.
+     *
+     * @param view View (button_campaign) that was clicked.
+     */
+    public void toggleCampaign(View view) {
+        if (sCampaign == null) {
+            return;
+        }
+        switch (sCampaign.getState()) {
+            case CallCampaign.STATE_RUNNING:
+                sCampaign.pause();
+                break;
+            case CallCampaign.STATE_PAUSED:
+                sCampaign.resume();
+                break;
+            default:
+                EditText editText = (EditText) findViewById(R.id.editText_campaign);
+                ArrayList<String> numbers = new ArrayList<>();
+                for (String line : editText.getText().toString().split("\n")) {
+                    String number = line.trim();
+                    if (!number.isEmpty()) {
+                        numbers.add(number);
+                    }
+                }
+                if (numbers.isEmpty()) {
+                    return;
+                }
+                sCampaign.start(numbers);
+                break;
+        }
+    }
+
+    /**
+     * Shows the progress of the campaign and sets the campaign button label.
+     *
+     * @param stats The campaign stats.
+     */
+    private void showCampaign(CallCampaign.Stats stats) {
+        Button campaignButton = (Button) findViewById(R.id.button_campaign);
+        switch (stats.state) {
+            case CallCampaign.STATE_RUNNING:
+                campaignButton.setText(R.string.campaign_pause);
+                break;
+            case CallCampaign.STATE_PAUSED:
+                campaignButton.setText(R.string.campaign_resume);
+                break;
+            default:
+                campaignButton.setText(R.string.campaign_start);
+                break;
+        }
+        TextView statusView = (TextView) findViewById(R.id.campaign_status);
+        statusView.setText(getString(R.string.campaign_status, stats.completed,
+                stats.failed, stats.skipped, stats.remaining, stats.getCallsPerHour(),
+                stats.lastIdleGapMillis / 1000, stats.averageIdleGapMillis / 1000));
+    }
+
     /**
      * Monitors and logs phone call activities, and shows the phone state
      * in a toast message.
      */
     private class MyPhoneCallListener extends PhoneStateListener {
-        private boolean returningFromOffHook = false;
-
         @Override
         public void onCallStateChanged(int state, String incomingNumber) {
+            // Record the transition before anything else, for accurate timing.
+            int previousState = sCallMetrics.onCallStateChanged(state,
+                    SystemClock.elapsedRealtime());
             // Define a string for the message to use in a toast.
             String message = getString(R.string.phone_status);
             switch (state) {
                 case TelephonyManager.CALL_STATE_RINGING:
                     // Incoming call is ringing (not used for outgoing call).
+                    // Apps cannot end a call before API 28, so a blocked
+                    // caller is only flagged. The check is a Bloom filter
+                    // probe and at most a few binary searches.
+                    if (getBlocklist(MainActivity.this).isBlocked(incomingNumber)) {
+                        message = message + getString(R.string.blocked) + incomingNumber;
+                        Toast.makeText(MainActivity.this, message, Toast.LENGTH_LONG).show();
+                        Log.i(TAG, message);
+                        break;
+                    }
                     message = message +
                             getString(R.string.ringing) + incomingNumber;
                     Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show();
@@ -192,7 +379,6 @@ public class MainActivity extends AppCompatActivity {
                     message = message + getString(R.string.offhook);
                     Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show();
                     Log.i(TAG, message);
-                    returningFromOffHook = true;
                     break;
                 case TelephonyManager.CALL_STATE_IDLE:
                     // Phone is idle before and after phone call.
@@ -201,9 +387,13 @@ public class MainActivity extends AppCompatActivity {
                     message = message + getString(R.string.idle);
                     Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show();
                     Log.i(TAG, message);
-                    if (returningFromOffHook) {
-                        // No need to do anything if >= version KitKat.
-                        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+                    if (previousState == CallMetrics.STATE_OFFHOOK) {
+                        Log.i(TAG, sCallMetrics.getSnapshot().toString());
+                        // No need to do anything if >= version KitKat, or
+                        // while a campaign is about to dial the next number.
+                        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT
+                                && (sCampaign == null || sCampaign.getState()
+                                        != CallCampaign.STATE_RUNNING)) {
                             Log.i(TAG, getString(R.string.restarting_app));
                             // Restart the app.
                             Intent intent = getPackageManager()
@@ -258,8 +448,13 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        // Detach only this activity's callbacks; the campaign keeps its own
+        // call-state listener.
         if (isTelephonyEnabled()) {
             mTelephonyManager.listen(mListener, PhoneStateListener.LISTEN_NONE);
         }
+        if (sCampaign != null) {
+            sCampaign.setListener(null);
+        }
     }
 }
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.phonecallingsample;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * An immutable set of blocked phone numbers and number prefixes, sized for
+ * millions of entries.
+ *
+ * Numbers are held as 64-bit keys in a sorted long[], searched with a
+ * binary search, behind a Bloom filter of about 10 bits per number that
+ * turns away nearly all numbers that are not blocked without touching the
+ * array. A million numbers take 8 MB for the array and 2 MB for the
+ * filter. Prefixes block whole ranges, such as premium-rate codes; they
+ * are kept in a second sorted array and checked once per prefix length in
+ * use.
+ *
+ * Numbers must be normalized with PhoneNumberNormalizer first. Only plain
+ * numbers of up to 15 digits, with or without a leading '+', can be
+ * blocked. Plain Java and thread-safe.
+ */
+public final class NumberBlocklist {
+
+    /** A blocklist that blocks nothing. */
+    public static final NumberBlocklist EMPTY = new Builder().build();
+
+    // Bloom filter bits per number and hash functions, for about 1% false
+    // positives.
+    private static final int BITS_PER_NUMBER = 10;
+    private static final int HASHES = 7;
+    private static final int MAX_DIGITS = 15;
+    // Key layout: bit 54 for a leading '+', bits 50-53 for the number of
+    // digits, so that "0123" and "123" differ, and the digits as a value
+    // below them; 10^15 < 2^50.
+    private static final int PLUS_SHIFT = 54;
+    private static final int LENGTH_SHIFT = 50;
+    private static final long VALUE_MASK = (1L << LENGTH_SHIFT) - 1;
+    private static final long[] POWERS_OF_TEN = new long[MAX_DIGITS + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i <= MAX_DIGITS; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final long[] mBloom;
+    private final int mBloomMask;
+    private final long[] mNumbers;
+    private final long[] mPrefixes;
+    // Bit n is set if some prefix has n digits.
+    private final int mPrefixLengths;
+
+    private NumberBlocklist(long[] numbers, long[] prefixes) {
+        mNumbers = numbers;
+        mPrefixes = prefixes;
+        int prefixLengths = 0;
+        for (long prefix : prefixes) {
+            prefixLengths |= 1 << length(prefix);
+        }
+        mPrefixLengths = prefixLengths;
+        int bits = 64;
+        while (bits < numbers.length * BITS_PER_NUMBER && bits < (1 << 30)) {
+            bits *= 2;
+        }
+        mBloom = new long[bits / 64];
+        mBloomMask = bits - 1;
+        for (long number : numbers) {
+            long hash = mix(number);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1;
+            for (int i = 0; i < HASHES; i++) {
+                int bit = (h1 + i * h2) & mBloomMask;
+                mBloom[bit >>> 6] |= 1L << bit;
+            }
+        }
+    }
+
+    /**
+     * Reads a blocklist file: one number per line, or a prefix ending in
+     * '*'. Blank lines, lines starting with '#' and numbers that cannot be
+     * blocked are skipped. Write prefixes in international form, e.g.
+     * "+1900*", since a few digits are too short to get a country code.
+     *
+     * @param in         The file. Not closed.
+     * @param normalizer Normalizes each entry.
+     * @return The blocklist.
+     * @throws IOException if the file cannot be read.
+     */
+    public static NumberBlocklist parse(Reader in, PhoneNumberNormalizer normalizer)
+            throws IOException {
+        Builder builder = new Builder();
+        BufferedReader reader = new BufferedReader(in);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.charAt(0) == '#') {
+                continue;
+            }
+            boolean prefix = line.charAt(line.length() - 1) == '*';
+            char[] chars = line.toCharArray();
+            // Bypass the normalizer's cache, which these would only flush.
+            String normalized = normalizer.normalize(chars, 0,
+                    prefix ? chars.length - 1 : chars.length);
+            if (prefix) {
+                builder.addPrefix(normalized);
+            } else {
+                builder.add(normalized);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param normalized A normalized number.
+     * @return True if the number or one of its prefixes is blocked.
+     */
+    public boolean isBlocked(String normalized) {
+        long key = key(normalized);
+        if (key < 0) {
+            return false;
+        }
+        if (mightContain(key) && Arrays.binarySearch(mNumbers, key) >= 0) {
+            return true;
+        }
+        if (mPrefixLengths == 0) {
+            return false;
+        }
+        int length = length(key);
+        long plus = key & (1L << PLUS_SHIFT);
+        long value = key & VALUE_MASK;
+        for (int n = 1; n <= length; n++) {
+            if ((mPrefixLengths & (1 << n)) != 0) {
+                long prefix = plus | ((long) n << LENGTH_SHIFT)
+                        | (value / POWERS_OF_TEN[length - n]);
+                if (Arrays.binarySearch(mPrefixes, prefix) >= 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The number of blocked numbers, not counting prefixes.
+     */
+    public int size() {
+        return mNumbers.length;
+    }
+
+    /**
+     * @return The number of blocked prefixes.
+     */
+    public int getPrefixCount() {
+        return mPrefixes.length;
+    }
+
+    /**
+     * @return Bytes used by the arrays.
+     */
+    public long getMemoryBytes() {
+        return 8L * (mBloom.length + mNumbers.length + mPrefixes.length);
+    }
+
+    private boolean mightContain(long key) {
+        long hash = mix(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & mBloomMask;
+            if ((mBloom[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the key of a normalized number, or -1 if it is not a plain
+     * number of up to MAX_DIGITS digits.
+     */
+    static long key(String normalized) {
+        int start = normalized.startsWith("+") ? 1 : 0;
+        int length = normalized.length() - start;
+        if (length == 0 || length > MAX_DIGITS) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return ((long) start << PLUS_SHIFT) | ((long) length << LENGTH_SHIFT) | value;
+    }
+
+    private static int length(long key) {
+        return (int) (key >>> LENGTH_SHIFT) & 0xF;
+    }
+
+    private static long mix(long key) {
+        // The finalizer of MurmurHash3.
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+     * Collects normalized numbers and prefixes, then sorts them into a
+     * blocklist.
+     */
+    public static final class Builder {
+        private long[] mNumbers = new long[64];
+        private int mNumberCount;
+        private long[] mPrefixes = new long[8];
+        private int mPrefixCount;
+
+        /**
+         * @param normalized A normalized number; ignored if it cannot be blocked.
+         * @return This builder.
+         */
+        public Builder add(String normalized) {
+            long key = key(normalized);
+            if (key >= 0) {
+                if (mNumberCount == mNumbers.length) {
+                    mNumbers = Arrays.copyOf(mNumbers, mNumberCount * 2);
+                }
+                mNumbers[mNumberCount++] = key;
+            }
+            return this;
+        }
+
+        /**
+         * @param normalized A normalized prefix; ignored if it cannot be blocked.
+         * @return This builder.
+         */
+        public Builder addPrefix(String normalized) {
+            long key = key(normalized);
+            if (key >= 0) {
+                if (mPrefixCount == mPrefixes.length) {
+                    mPrefixes = Arrays.copyOf(mPrefixes, mPrefixCount * 2);
+                }
+                mPrefixes[mPrefixCount++] = key;
+            }
+            return this;
+        }
+
+        /**
+         * @return The blocklist.
+         */
+        public NumberBlocklist build() {
+            return new NumberBlocklist(sortedUnique(mNumbers, mNumberCount),
+                    sortedUnique(mPrefixes, mPrefixCount));
+        }
+
+        private static long[] sortedUnique(long[] keys, int count) {
+            Arrays.sort(keys, 0, count);
+            int unique = 0;
+            for (int i = 0; i < count; i++) {
+                if (unique == 0 || keys[i] != keys[unique - 1]) {
+                    keys[unique++] = keys[i];
+                }
+            }
+            return Arrays.copyOf(keys, unique);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.phonecallingsample;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Normalizes phone numbers to E.164 ("+" followed by the country code and
+ * the national number), so that the same number compares equal however
+ * it was typed or received.
+ *
+ * Separators are dropped and keypad letters become digits, as with
+ * PhoneNumberUtils.normalizeNumber(), but the work is done on char arrays
+ * and does not depend on the locale or the Android version. International
+ * numbers may start with "+" or the exit code of the default country
+ * ("00" in most, "011" in the North American plan); national numbers lose
+ * its trunk prefix ("0" in most, "1" in the North American plan, none in
+ * Italy, where the leading 0 is part of the number) and get its country
+ * code. An extension ("ext", "x") or a pause (',' or ';') ends the number.
+ *
+ * Input that cannot be made into an E.164 number is still cleaned up:
+ * short codes come back as plain digits, dial strings keep their '*' and
+ * '#', and alphanumeric sender IDs are lower-cased. Letters are only
+ * keypad letters in a number that starts with a digit or '+', such as
+ * 1-800-FLOWERS; input that starts with a letter, such as INFO24, or has
+ * no digits at all is a sender ID.
+ *
+ * A bounded LRU cache in front of normalize(String) makes repeat numbers
+ * cheap. Plain Java and thread-safe.
+ */
+public final class PhoneNumberNormalizer {
+
+    private static final String KEYPAD = "22233344455566677778889999";
+    private static final String NANP_COUNTRY_CODE = "1";
+    private static final String DEFAULT_EXIT_CODE = "00";
+    private static final String DEFAULT_TRUNK_PREFIX = "0";
+    // Country codes with another exit code.
+    private static final String[][] EXIT_CODES = {
+            {"1", "011"}, {"61", "0011"}, {"81", "010"},
+    };
+    // Country codes with another trunk prefix, or none.
+    private static final String[][] TRUNK_PREFIXES = {
+            {"1", "1"}, {"7", "8"}, {"30", ""}, {"34", ""}, {"36", "06"}, {"39", ""},
+            {"45", ""}, {"47", ""}, {"52", ""}, {"351", ""}, {"352", ""}, {"354", ""},
+            {"378", ""}, {"379", ""},
+    };
+    // Words that start an extension, compared in lower case.
+    private static final String[] EXTENSION_MARKERS = {"x", "ext", "extn", "extension"};
+    // Shortest national number that gets a country code; anything shorter
+    // is treated as a short code.
+    private static final int MIN_NATIONAL_LENGTH = 7;
+    // Longest E.164 number, not counting the '+'.
+    private static final int MAX_E164_DIGITS = 15;
+
+    private final char[] mCountryCode;
+    private final boolean mNanp;
+    private final String mExitCode;
+    private final String mTrunkPrefix;
+    private final LinkedHashMap<String, String> mCache;
+    // Scratch buffer, only used while holding the lock.
+    private char[] mDigits = new char[32];
+
+    /**
+     * @param countryCode Calling code for national numbers, digits only (e.g. "1" or "44").
+     * @param cacheSize   Most results kept in the cache.
+     */
+    public PhoneNumberNormalizer(String countryCode, final int cacheSize) {
+        mCountryCode = countryCode.toCharArray();
+        mNanp = NANP_COUNTRY_CODE.equals(countryCode);
+        mExitCode = lookup(EXIT_CODES, countryCode, DEFAULT_EXIT_CODE);
+        mTrunkPrefix = lookup(TRUNK_PREFIXES, countryCode, DEFAULT_TRUNK_PREFIX);
+        // Access order, so the eldest entry is the least recently used.
+        mCache = new LinkedHashMap<String, String>(cacheSize * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Normalizes a number, using the cache.
+     *
+     * @param number The number as typed or received.
+     * @return The normalized number.
+     */
+    public synchronized String normalize(String number) {
+        String normalized = mCache.get(number);
+        if (normalized == null) {
+            normalized = normalize(number.toCharArray(), 0, number.length());
+            mCache.put(number, normalized);
+        }
+        return normalized;
+    }
+
+    /**
+     * Normalizes a number held in a char array, bypassing the cache.
+     *
+     * @param chars  Buffer holding the number.
+     * @param offset Index of the first character.
+     * @param length Number of characters.
+     * @return The normalized number.
+     */
+    public synchronized String normalize(char[] chars, int offset, int length) {
+        // Room for the country code, which may be added in front.
+        int capacity = length + mCountryCode.length + 1;
+        if (mDigits.length < capacity) {
+            mDigits = new char[capacity];
+        }
+        char[] digits = mDigits;
+        // Leave room in front so the '+' and country code can be written
+        // without moving the digits.
+        int start = mCountryCode.length + 1;
+        int end = start;
+        boolean plus = false;
+        boolean hasDigit = false;
+        boolean dialString = false;
+        for (int i = offset; i < offset + length; i++) {
+            char c = chars[i];
+            if (c >= '0' && c <= '9') {
+                digits[end++] = c;
+                hasDigit = true;
+            } else if (c == '+' && end == start && !plus) {
+                plus = true;
+            } else if (isLetter(c)) {
+                if (end == start && !plus) {
+                    // Starts with a letter: a sender ID, not a number.
+                    return senderId(chars, offset, length);
+                }
+                int wordEnd = i + 1;
+                while (wordEnd < offset + length && isLetter(chars[wordEnd])) {
+                    wordEnd++;
+                }
+                if (isExtensionMarker(chars, i, wordEnd)) {
+                    break;
+                }
+                for (int j = i; j < wordEnd; j++) {
+                    c = chars[j];
+                    digits[end++] = KEYPAD.charAt(c <= 'Z' ? c - 'A' : c - 'a');
+                }
+                i = wordEnd - 1;
+            } else if (c == '*' || c == '#') {
+                digits[end++] = c;
+                dialString = true;
+            } else if (c == ',' || c == ';') {
+                // A pause or wait: what follows is dialed after the call
+                // connects.
+                break;
+            }
+            // Anything else is a separator.
+        }
+        if (!hasDigit) {
+            // An alphanumeric sender ID, not a number.
+            return senderId(chars, offset, length);
+        }
+        if (dialString) {
+            return plus ? "+" + new String(digits, start, end - start)
+                    : new String(digits, start, end - start);
+        }
+        if (!plus && startsWith(digits, start, end, mExitCode)) {
+            plus = true;
+            start += mExitCode.length();
+        }
+        if (plus) {
+            if (end - start > MAX_E164_DIGITS) {
+                return new String(digits, start, end - start);
+            }
+            digits[--start] = '+';
+            return new String(digits, start, end - start);
+        }
+        // A national number: drop the trunk prefix.
+        int national = start;
+        if (mNanp) {
+            if (end - national == 11 && digits[national] == '1') {
+                national++;
+            }
+            if (end - national != 10) {
+                // A local or short number, which has no E.164 form.
+                return new String(digits, start, end - start);
+            }
+        } else {
+            if (startsWith(digits, national, end, mTrunkPrefix)) {
+                national += mTrunkPrefix.length();
+            }
+            if (end - national < MIN_NATIONAL_LENGTH
+                    || end - national + mCountryCode.length > MAX_E164_DIGITS) {
+                return new String(digits, start, end - start);
+            }
+        }
+        start = national;
+        start -= mCountryCode.length;
+        System.arraycopy(mCountryCode, 0, digits, start, mCountryCode.length);
+        digits[--start] = '+';
+        return new String(digits, start, end - start);
+    }
+
+    private static String lookup(String[][] table, String countryCode, String otherwise) {
+        for (String[] entry : table) {
+            if (entry[0].equals(countryCode)) {
+                return entry[1];
+            }
+        }
+        return otherwise;
+    }
+
+    private static boolean isLetter(char c) {
+        return c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z';
+    }
+
+    private static boolean isExtensionMarker(char[] chars, int start, int end) {
+        for (String marker : EXTENSION_MARKERS) {
+            if (end - start != marker.length()) {
+                continue;
+            }
+            int i = 0;
+            // Setting 0x20 lower-cases an ASCII letter.
+            while (i < marker.length() && (chars[start + i] | 0x20) == marker.charAt(i)) {
+                i++;
+            }
+            if (i == marker.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String senderId(char[] chars, int offset, int length) {
+        return new String(chars, offset, length).trim().toLowerCase(Locale.US);
+    }
+
+    private static boolean startsWith(char[] chars, int start, int end, String prefix) {
+        if (end - start < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (chars[start + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
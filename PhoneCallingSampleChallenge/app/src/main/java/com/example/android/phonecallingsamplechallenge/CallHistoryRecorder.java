@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.phonecallingsamplechallenge;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes each finished call to the CallHistoryStore under files/history,
+ * on a background thread, and logs a summary of the last day.
+ *
+ * Set as the CallListener of CallMetrics. The number of the current call
+ * is passed in separately with setCurrentNumber().
+ */
+public final class CallHistoryRecorder
+        implements CallMetrics.CallListener, CallStateProcessor.CallNumberListener {
+
+    private static final String TAG = CallHistoryRecorder.class.getSimpleName();
+    private static final String HISTORY_DIR = "history";
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+    private static final int TOP_NUMBERS = 3;
+
+    private static CallHistoryRecorder sInstance;
+
+    private final File mDir;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    // Set from the main thread for outgoing calls and from the call-state
+    // thread for incoming ones.
+    private volatile long mCurrentNumberKey = CallerIdIndex.NO_KEY;
+    // Only touched on the executor.
+    private CallHistoryStore mStore;
+
+    /**
+     * Returns the process-wide recorder.
+     *
+     * @param context Any context.
+     * @return The recorder.
+     */
+    public static synchronized CallHistoryRecorder getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CallHistoryRecorder(
+                    new File(context.getApplicationContext().getFilesDir(), HISTORY_DIR));
+        }
+        return sInstance;
+    }
+
+    private CallHistoryRecorder(File dir) {
+        mDir = dir;
+    }
+
+    /**
+     * Sets the number of the call that is ringing or being dialed.
+     *
+     * @param numberKey The number from CallerIdIndex.key(), or NO_KEY.
+     */
+    @Override
+    public void setCurrentNumber(long numberKey) {
+        mCurrentNumberKey = numberKey;
+    }
+
+    @Override
+    public void onCallEnded(final int outcome, long endMillis, long ringMillis,
+                            final long talkMillis) {
+        // Turn the monotonic end time into wall-clock time.
+        final long startMillis = System.currentTimeMillis()
+                - (SystemClock.elapsedRealtime() - endMillis) - ringMillis - talkMillis;
+        final long numberKey = mCurrentNumberKey;
+        mCurrentNumberKey = CallerIdIndex.NO_KEY;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    CallHistoryStore store = store();
+                    store.append(startMillis, (int) talkMillis, numberKey, outcome);
+                    logSummary(store);
+                } catch (IOException e) {
+                    Log.e(TAG, "Cannot record call", e);
+                }
+            }
+        });
+    }
+
+    private CallHistoryStore store() throws IOException {
+        if (mStore == null) {
+            mStore = new CallHistoryStore(mDir);
+        }
+        return mStore;
+    }
+
+    private static void logSummary(CallHistoryStore store) throws IOException {
+        long now = System.currentTimeMillis();
+        long from = now - DAY_MILLIS;
+        StringBuilder sb = new StringBuilder("Last 24h: ");
+        sb.append(store.countByOutcome(from, now + 1, CallMetrics.OUTCOME_ANSWERED))
+                .append(" answered, ")
+                .append(store.countByOutcome(from, now + 1, CallMetrics.OUTCOME_MISSED))
+                .append(" missed, ")
+                .append(store.countByOutcome(from, now + 1, CallMetrics.OUTCOME_OUTGOING))
+                .append(" outgoing, average talk ")
+                .append(store.averageTalkMillis(from, now + 1) / 1000).append(" s");
+        List<CallHistoryStore.NumberCount> top = store.topNumbers(from, now + 1, TOP_NUMBERS);
+        for (int i = 0; i < top.size(); i++) {
+            sb.append(i == 0 ? "; top: " : ", ")
+                    .append(CallerIdIndex.number(top.get(i).numberKey))
+                    .append(" x").append(top.get(i).count);
+        }
+        Log.i(TAG, sb.toString());
+    }
+}
@@ -0,0 +1,493 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.phonecallingsamplechallenge;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Call history kept as columns of primitive arrays: start time, duration,
+ * number key (from CallerIdIndex.key()) and outcome (one of the
+ * CallMetrics.OUTCOME_ constants).
+ *
+ * Calls are grouped into blocks of BLOCK_SIZE rows. A full block is
+ * written to its own file, column after column, with the range of its
+ * start times in the header. Opening the store reads only the headers;
+ * a column of a block is read the first time a query needs it, and
+ * queries skip blocks outside their time range. The calls of the block
+ * being filled are also appended to a journal of its own, so nothing is
+ * lost if the process dies. The journal is deleted once its block file
+ * is in place; a journal left next to a sealed block is stale and is
+ * deleted when the store is opened.
+ *
+ * Plain Java; all methods are synchronized.
+ */
+public final class CallHistoryStore implements Closeable {
+
+    public static final int BLOCK_SIZE = 4096;
+
+    private static final String BLOCK_PREFIX = "calls-";
+    private static final String BLOCK_SUFFIX = ".blk";
+    private static final String JOURNAL_SUFFIX = ".journal";
+    // Row count, first start time, last start time.
+    private static final int BLOCK_HEADER_SIZE = 4 + 8 + 8;
+    // Start time, duration, number key, outcome.
+    private static final int JOURNAL_ROW_SIZE = 8 + 4 + 8 + 1;
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+    /**
+     * How often a number appears in a time range.
+     */
+    public static final class NumberCount {
+        public final long numberKey;
+        public final int count;
+
+        NumberCount(long numberKey, int count) {
+            this.numberKey = numberKey;
+            this.count = count;
+        }
+    }
+
+    /**
+     * A block of calls. The columns of a sealed block are read on demand.
+     */
+    private static final class Block {
+        final File file;
+        int count;
+        long minStart = Long.MAX_VALUE;
+        long maxStart = Long.MIN_VALUE;
+        long[] starts;
+        int[] durations;
+        long[] keys;
+        byte[] outcomes;
+
+        Block(File file) {
+            this.file = file;
+        }
+
+        boolean overlaps(long from, long to) {
+            return count > 0 && minStart < to && maxStart >= from;
+        }
+
+        boolean within(long from, long to) {
+            return minStart >= from && maxStart < to;
+        }
+    }
+
+    private final File mDir;
+    private final ArrayList<Block> mBlocks = new ArrayList<>();
+    private Block mActive;
+    private RandomAccessFile mJournal;
+    private final ByteBuffer mRow = ByteBuffer.allocate(JOURNAL_ROW_SIZE);
+
+    /**
+     * Opens the store in a directory, creating it if needed.
+     *
+     * @param dir Directory holding the block files and the journal.
+     * @throws IOException if the store cannot be read or created.
+     */
+    public CallHistoryStore(File dir) throws IOException {
+        mDir = dir;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        for (int i = 0; blockFile(i).exists(); i++) {
+            mBlocks.add(readHeader(blockFile(i)));
+        }
+        // A crash between sealing a block and deleting its journal leaves
+        // the journal behind; its rows are already in the block.
+        if (!mBlocks.isEmpty()) {
+            deleteJournal(mBlocks.size() - 1);
+        }
+        mActive = newActiveBlock();
+        replayJournal();
+    }
+
+    /**
+     * Appends a call.
+     *
+     * @param startMillis    When the call started, from System.currentTimeMillis().
+     * @param durationMillis How long it lasted; 0 for a missed call.
+     * @param numberKey      The number from CallerIdIndex.key(), or NO_KEY.
+     * @param outcome        One of the CallMetrics.OUTCOME_ constants.
+     * @throws IOException if the call cannot be written.
+     */
+    public synchronized void append(long startMillis, int durationMillis, long numberKey,
+                                    int outcome) throws IOException {
+        mRow.clear();
+        mRow.putLong(startMillis).putInt(durationMillis).putLong(numberKey)
+                .put((byte) outcome);
+        mRow.flip();
+        FileChannel channel = mJournal.getChannel();
+        channel.write(mRow, channel.size());
+        addRow(mActive, startMillis, durationMillis, numberKey, (byte) outcome);
+        if (mActive.count == BLOCK_SIZE) {
+            seal();
+        }
+    }
+
+    /**
+     * Counts calls per hour. Reads only the start times.
+     *
+     * @param fromMillis Start of the range, inclusive.
+     * @param toMillis   End of the range, exclusive.
+     * @return The number of calls that started in each hour of the range.
+     * @throws IOException if a block cannot be read.
+     */
+    public synchronized int[] countPerHour(long fromMillis, long toMillis) throws IOException {
+        int[] counts = new int[(int) ((toMillis - fromMillis + HOUR_MILLIS - 1) / HOUR_MILLIS)];
+        for (int b = 0; b < mBlocks.size(); b++) {
+            Block block = mBlocks.get(b);
+            if (!block.overlaps(fromMillis, toMillis)) {
+                continue;
+            }
+            long[] starts = starts(block);
+            for (int i = 0; i < block.count; i++) {
+                long start = starts[i];
+                if (start >= fromMillis && start < toMillis) {
+                    counts[(int) ((start - fromMillis) / HOUR_MILLIS)]++;
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the average duration of the calls that were answered or
+     * made. Blocks entirely inside the range are summed from the
+     * durations alone.
+     *
+     * @param fromMillis Start of the range, inclusive.
+     * @param toMillis   End of the range, exclusive.
+     * @return The average duration in milliseconds, or 0 if there were no calls.
+     * @throws IOException if a block cannot be read.
+     */
+    public synchronized long averageTalkMillis(long fromMillis, long toMillis)
+            throws IOException {
+        long total = 0;
+        int calls = 0;
+        for (int b = 0; b < mBlocks.size(); b++) {
+            Block block = mBlocks.get(b);
+            if (!block.overlaps(fromMillis, toMillis)) {
+                continue;
+            }
+            int[] durations = durations(block);
+            long[] starts = block.within(fromMillis, toMillis) ? null : starts(block);
+            for (int i = 0; i < block.count; i++) {
+                // Missed calls have no duration.
+                if (durations[i] > 0
+                        && (starts == null || (starts[i] >= fromMillis && starts[i] < toMillis))) {
+                    total += durations[i];
+                    calls++;
+                }
+            }
+        }
+        return calls == 0 ? 0 : total / calls;
+    }
+
+    /**
+     * Counts the calls with a given outcome.
+     *
+     * @param fromMillis Start of the range, inclusive.
+     * @param toMillis   End of the range, exclusive.
+     * @param outcome    One of the CallMetrics.OUTCOME_ constants.
+     * @return The number of calls.
+     * @throws IOException if a block cannot be read.
+     */
+    public synchronized int countByOutcome(long fromMillis, long toMillis, int outcome)
+            throws IOException {
+        int calls = 0;
+        for (int b = 0; b < mBlocks.size(); b++) {
+            Block block = mBlocks.get(b);
+            if (!block.overlaps(fromMillis, toMillis)) {
+                continue;
+            }
+            byte[] outcomes = outcomes(block);
+            long[] starts = block.within(fromMillis, toMillis) ? null : starts(block);
+            for (int i = 0; i < block.count; i++) {
+                if (outcomes[i] == outcome
+                        && (starts == null || (starts[i] >= fromMillis && starts[i] < toMillis))) {
+                    calls++;
+                }
+            }
+        }
+        return calls;
+    }
+
+    /**
+     * Returns the numbers with the most calls.
+     *
+     * @param fromMillis Start of the range, inclusive.
+     * @param toMillis   End of the range, exclusive.
+     * @param limit      Most numbers to return.
+     * @return The numbers and their call counts, most calls first.
+     * @throws IOException if a block cannot be read.
+     */
+    public synchronized List<NumberCount> topNumbers(long fromMillis, long toMillis, int limit)
+            throws IOException {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        // Count the calls per number in an open-addressing table.
+        int capacity = 16;
+        while (capacity < size() * 2) {
+            capacity <<= 1;
+        }
+        long[] tableKeys = new long[capacity];
+        int[] tableCounts = new int[capacity];
+        int mask = capacity - 1;
+        for (int b = 0; b < mBlocks.size(); b++) {
+            Block block = mBlocks.get(b);
+            if (!block.overlaps(fromMillis, toMillis)) {
+                continue;
+            }
+            long[] keys = keys(block);
+            long[] starts = block.within(fromMillis, toMillis) ? null : starts(block);
+            for (int i = 0; i < block.count; i++) {
+                long key = keys[i];
+                if (key == CallerIdIndex.NO_KEY
+                        || (starts != null && (starts[i] < fromMillis || starts[i] >= toMillis))) {
+                    continue;
+                }
+                int slot = (int) (key ^ (key >>> 32)) * 0x9E3779B9 & mask;
+                while (tableCounts[slot] != 0 && tableKeys[slot] != key) {
+                    slot = (slot + 1) & mask;
+                }
+                tableKeys[slot] = key;
+                tableCounts[slot]++;
+            }
+        }
+        // Keep the top entries in a small array sorted by count.
+        long[] topKeys = new long[limit];
+        int[] topCounts = new int[limit];
+        int found = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            int count = tableCounts[slot];
+            if (count == 0 || (found == limit && count <= topCounts[limit - 1])) {
+                continue;
+            }
+            int i = Math.min(found, limit - 1);
+            while (i > 0 && topCounts[i - 1] < count) {
+                topKeys[i] = topKeys[i - 1];
+                topCounts[i] = topCounts[i - 1];
+                i--;
+            }
+            topKeys[i] = tableKeys[slot];
+            topCounts[i] = count;
+            found = Math.min(found + 1, limit);
+        }
+        List<NumberCount> result = new ArrayList<>(found);
+        for (int i = 0; i < found; i++) {
+            result.add(new NumberCount(topKeys[i], topCounts[i]));
+        }
+        return result;
+    }
+
+    /**
+     * @return The number of calls in the store.
+     */
+    public synchronized int size() {
+        int size = 0;
+        for (int b = 0; b < mBlocks.size(); b++) {
+            size += mBlocks.get(b).count;
+        }
+        return size;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mJournal.close();
+    }
+
+    private static void addRow(Block block, long start, int duration, long key, byte outcome) {
+        int i = block.count++;
+        block.starts[i] = start;
+        block.durations[i] = duration;
+        block.keys[i] = key;
+        block.outcomes[i] = outcome;
+        block.minStart = Math.min(block.minStart, start);
+        block.maxStart = Math.max(block.maxStart, start);
+    }
+
+    private Block newActiveBlock() throws IOException {
+        Block block = new Block(null);
+        block.starts = new long[BLOCK_SIZE];
+        block.durations = new int[BLOCK_SIZE];
+        block.keys = new long[BLOCK_SIZE];
+        block.outcomes = new byte[BLOCK_SIZE];
+        mBlocks.add(block);
+        mJournal = new RandomAccessFile(journalFile(mBlocks.size() - 1), "rw");
+        return block;
+    }
+
+    private void deleteJournal(int index) throws IOException {
+        File journal = journalFile(index);
+        if (journal.exists() && !journal.delete()) {
+            throw new IOException("Cannot delete " + journal);
+        }
+    }
+
+    /**
+     * Adds the calls in the journal to the active block, ignoring a row
+     * cut short by a crash.
+     */
+    private void replayJournal() throws IOException {
+        long rows = mJournal.length() / JOURNAL_ROW_SIZE;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(journalFile(mBlocks.size() - 1))));
+        try {
+            for (long i = 0; i < rows && mActive.count < BLOCK_SIZE; i++) {
+                addRow(mActive, in.readLong(), in.readInt(), in.readLong(), in.readByte());
+            }
+        } finally {
+            in.close();
+        }
+        mJournal.setLength(rows * JOURNAL_ROW_SIZE);
+        if (mActive.count == BLOCK_SIZE) {
+            seal();
+        }
+    }
+
+    /**
+     * Writes the active block to its file, deletes its journal and starts
+     * a new block.
+     */
+    private void seal() throws IOException {
+        Block active = mActive;
+        int count = active.count;
+        int index = mBlocks.size() - 1;
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_HEADER_SIZE + count * JOURNAL_ROW_SIZE);
+        buffer.putInt(count).putLong(active.minStart).putLong(active.maxStart);
+        buffer.asLongBuffer().put(active.starts, 0, count);
+        buffer.position(buffer.position() + count * 8);
+        buffer.asIntBuffer().put(active.durations, 0, count);
+        buffer.position(buffer.position() + count * 4);
+        buffer.asLongBuffer().put(active.keys, 0, count);
+        buffer.position(buffer.position() + count * 8);
+        buffer.put(active.outcomes, 0, count);
+        buffer.flip();
+        File tmp = new File(mDir, blockFile(index).getName() + ".tmp");
+        RandomAccessFile file = new RandomAccessFile(tmp, "rw");
+        try {
+            file.getChannel().write(buffer);
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+        if (!tmp.renameTo(blockFile(index))) {
+            throw new IOException("Cannot write " + blockFile(index));
+        }
+        // Keep the columns in memory; they are already loaded.
+        Block sealed = new Block(blockFile(index));
+        sealed.count = count;
+        sealed.minStart = active.minStart;
+        sealed.maxStart = active.maxStart;
+        sealed.starts = active.starts;
+        sealed.durations = active.durations;
+        sealed.keys = active.keys;
+        sealed.outcomes = active.outcomes;
+        mBlocks.set(index, sealed);
+        mJournal.close();
+        deleteJournal(index);
+        mActive = newActiveBlock();
+    }
+
+    private static Block readHeader(File file) throws IOException {
+        Block block = new Block(file);
+        ByteBuffer header = read(file, 0, BLOCK_HEADER_SIZE);
+        block.count = header.getInt();
+        block.minStart = header.getLong();
+        block.maxStart = header.getLong();
+        return block;
+    }
+
+    private static long[] starts(Block block) throws IOException {
+        if (block.starts == null) {
+            block.starts = new long[block.count];
+            read(block.file, BLOCK_HEADER_SIZE, block.count * 8).asLongBuffer().get(block.starts);
+        }
+        return block.starts;
+    }
+
+    private static int[] durations(Block block) throws IOException {
+        if (block.durations == null) {
+            block.durations = new int[block.count];
+            read(block.file, BLOCK_HEADER_SIZE + block.count * 8, block.count * 4)
+                    .asIntBuffer().get(block.durations);
+        }
+        return block.durations;
+    }
+
+    private static long[] keys(Block block) throws IOException {
+        if (block.keys == null) {
+            block.keys = new long[block.count];
+            read(block.file, BLOCK_HEADER_SIZE + block.count * 12, block.count * 8)
+                    .asLongBuffer().get(block.keys);
+        }
+        return block.keys;
+    }
+
+    private static byte[] outcomes(Block block) throws IOException {
+        if (block.outcomes == null) {
+            block.outcomes = new byte[block.count];
+            read(block.file, BLOCK_HEADER_SIZE + block.count * 20, block.count)
+                    .get(block.outcomes);
+        }
+        return block.outcomes;
+    }
+
+    /**
+     * Reads part of a file in a single call.
+     */
+    private static ByteBuffer read(File file, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("Truncated " + file);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private File blockFile(int index) {
+        return new File(mDir,
+                String.format(Locale.US, "%s%05d%s", BLOCK_PREFIX, index, BLOCK_SUFFIX));
+    }
+
+    private File journalFile(int index) {
+        return new File(mDir,
+                String.format(Locale.US, "%s%05d%s", BLOCK_PREFIX, index, JOURNAL_SUFFIX));
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.phonecallingsamplechallenge;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Derives call timing from call-state transitions: how long incoming
+ * calls rang, whether they were answered or missed, and how long calls
+ * lasted. Every transition is also kept in a CallEventLog.
+ *
+ * Transitions come from one thread (the PhoneStateListener's); the
+ * aggregate statistics can be read from any thread at any time with
+ * getSnapshot(), which never blocks the listener. A CallListener can be
+ * told about each call as it ends.
+ */
+public final class CallMetrics {
+
+    // Same values as TelephonyManager.CALL_STATE_IDLE, _RINGING and _OFFHOOK.
+    public static final int STATE_IDLE = 0;
+    public static final int STATE_RINGING = 1;
+    public static final int STATE_OFFHOOK = 2;
+
+    // How a call ended.
+    public static final int OUTCOME_ANSWERED = 1;
+    public static final int OUTCOME_MISSED = 2;
+    public static final int OUTCOME_OUTGOING = 3;
+
+    // Indexes into mStats.
+    private static final int INCOMING = 0;
+    private static final int ANSWERED = 1;
+    private static final int MISSED = 2;
+    private static final int OUTGOING = 3;
+    private static final int RING_TOTAL_MILLIS = 4;
+    private static final int RING_MAX_MILLIS = 5;
+    private static final int TALK_TOTAL_MILLIS = 6;
+    private static final int TALK_MAX_MILLIS = 7;
+    private static final int TALK_COUNT = 8;
+    private static final int STAT_COUNT = 9;
+
+    /**
+     * Told about each call when it ends, on the listener thread.
+     */
+    public interface CallListener {
+        /**
+         * @param outcome    One of the OUTCOME_ constants.
+         * @param endMillis  When the call ended, from SystemClock.elapsedRealtime().
+         * @param ringMillis How long it rang; 0 for outgoing calls.
+         * @param talkMillis How long it lasted; 0 for missed calls.
+         */
+        void onCallEnded(int outcome, long endMillis, long ringMillis, long talkMillis);
+    }
+
+    /**
+     * A consistent copy of the statistics.
+     */
+    public static final class Snapshot {
+        public final long incomingCalls;
+        public final long answeredCalls;
+        public final long missedCalls;
+        public final long outgoingCalls;
+        public final long totalRingMillis;
+        public final long maxRingMillis;
+        public final long completedCalls;
+        public final long totalTalkMillis;
+        public final long maxTalkMillis;
+
+        Snapshot(long[] stats) {
+            incomingCalls = stats[INCOMING];
+            answeredCalls = stats[ANSWERED];
+            missedCalls = stats[MISSED];
+            outgoingCalls = stats[OUTGOING];
+            totalRingMillis = stats[RING_TOTAL_MILLIS];
+            maxRingMillis = stats[RING_MAX_MILLIS];
+            completedCalls = stats[TALK_COUNT];
+            totalTalkMillis = stats[TALK_TOTAL_MILLIS];
+            maxTalkMillis = stats[TALK_MAX_MILLIS];
+        }
+
+        /**
+         * @return Average ring time of incoming calls that were answered
+         *         or missed, in milliseconds.
+         */
+        public long getAverageRingMillis() {
+            long rung = answeredCalls + missedCalls;
+            return rung == 0 ? 0 : totalRingMillis / rung;
+        }
+
+        /**
+         * @return Average duration of completed calls, in milliseconds.
+         */
+        public long getAverageTalkMillis() {
+            return completedCalls == 0 ? 0 : totalTalkMillis / completedCalls;
+        }
+
+        @Override
+        public String toString() {
+            return "incoming=" + incomingCalls + " answered=" + answeredCalls
+                    + " missed=" + missedCalls + " outgoing=" + outgoingCalls
+                    + " ring avg/max=" + getAverageRingMillis() + "/" + maxRingMillis + "ms"
+                    + " talk avg/max=" + getAverageTalkMillis() + "/" + maxTalkMillis + "ms";
+        }
+    }
+
+    private final CallEventLog mLog;
+    private final AtomicLongArray mStats = new AtomicLongArray(STAT_COUNT);
+    // Odd while the statistics are being updated.
+    private volatile int mVersion;
+
+    // Only touched by the listener thread.
+    private int mState = STATE_IDLE;
+    private boolean mRinging;
+    private boolean mTalking;
+    private long mRingStartMillis;
+    private long mTalkStartMillis;
+    // Outcome and ring time of the call in progress.
+    private int mCallOutcome;
+    private long mCallRingMillis;
+    private CallListener mCallListener;
+
+    /**
+     * @param logCapacity Number of transitions kept in the event log.
+     */
+    public CallMetrics(int logCapacity) {
+        mLog = new CallEventLog(logCapacity);
+    }
+
+    /**
+     * @param listener Told about each call when it ends; may be null.
+     */
+    public void setCallListener(CallListener listener) {
+        mCallListener = listener;
+    }
+
+    /**
+     * Records a call-state change and updates the statistics. Must always
+     * be called from the same thread.
+     *
+     * @param state      The new state, one of the STATE_ constants.
+     * @param timeMillis When it happened, from SystemClock.elapsedRealtime().
+     * @return The previous state.
+     */
+    public int onCallStateChanged(int state, long timeMillis) {
+        mLog.record(state, timeMillis);
+        int previous = mState;
+        if (state == previous) {
+            // The listener is told the current state when it registers.
+            return previous;
+        }
+        mState = state;
+        mVersion++;
+        switch (state) {
+            case STATE_RINGING:
+                mRinging = true;
+                mRingStartMillis = timeMillis;
+                mStats.incrementAndGet(INCOMING);
+                break;
+            case STATE_OFFHOOK:
+                if (mRinging) {
+                    mCallRingMillis = endRing(timeMillis, ANSWERED);
+                    mCallOutcome = OUTCOME_ANSWERED;
+                } else {
+                    mStats.incrementAndGet(OUTGOING);
+                    if (!mTalking) {
+                        mCallRingMillis = 0;
+                        mCallOutcome = OUTCOME_OUTGOING;
+                    }
+                }
+                if (!mTalking) {
+                    mTalking = true;
+                    mTalkStartMillis = timeMillis;
+                }
+                break;
+            case STATE_IDLE:
+                long missedRingMillis = mRinging ? endRing(timeMillis, MISSED) : -1;
+                long talkMillis = -1;
+                if (mTalking) {
+                    mTalking = false;
+                    talkMillis = timeMillis - mTalkStartMillis;
+                    addDuration(talkMillis, TALK_TOTAL_MILLIS, TALK_MAX_MILLIS);
+                    mStats.incrementAndGet(TALK_COUNT);
+                }
+                mVersion++;
+                // Tell the listener once the statistics are consistent again.
+                CallListener listener = mCallListener;
+                if (listener != null) {
+                    if (missedRingMillis >= 0) {
+                        listener.onCallEnded(OUTCOME_MISSED, timeMillis, missedRingMillis, 0);
+                    }
+                    if (talkMillis >= 0) {
+                        listener.onCallEnded(mCallOutcome, timeMillis, mCallRingMillis,
+                                talkMillis);
+                    }
+                }
+                return previous;
+            default:
+                break;
+        }
+        mVersion++;
+        return previous;
+    }
+
+    /**
+     * Returns the statistics, consistent with each other. Never blocks
+     * the listener; retries if a transition happened while copying.
+     *
+     * @return The statistics.
+     */
+    public Snapshot getSnapshot() {
+        long[] stats = new long[STAT_COUNT];
+        while (true) {
+            int version = mVersion;
+            if ((version & 1) == 0) {
+                for (int i = 0; i < STAT_COUNT; i++) {
+                    stats[i] = mStats.get(i);
+                }
+                if (mVersion == version) {
+                    return new Snapshot(stats);
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * @return The log of call-state transitions.
+     */
+    public CallEventLog getEventLog() {
+        return mLog;
+    }
+
+    private long endRing(long timeMillis, int outcome) {
+        mRinging = false;
+        long ringMillis = timeMillis - mRingStartMillis;
+        addDuration(ringMillis, RING_TOTAL_MILLIS, RING_MAX_MILLIS);
+        mStats.incrementAndGet(outcome);
+        return ringMillis;
+    }
+
+    private void addDuration(long millis, int total, int max) {
+        mStats.addAndGet(total, millis);
+        if (millis > mStats.get(max)) {
+            mStats.set(max, millis);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.phonecallingsamplechallenge;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Handles call-state changes on the thread of the CallStateSource: records
+ * them in CallMetrics, identifies the caller and tells the call history
+ * the number. The result is handed to the UI as a CallUiState.
+ *
+ * UI updates are coalesced: while one is waiting for the main thread,
+ * newer states replace it, and updates are at least a frame apart. A
+ * burst of changes costs the main thread one update per frame. A call
+ * that ended is not lost when a newer state replaces it: the replacing
+ * state carries callEnded too.
+ *
+ * Plain Java: the main thread and its clock come in as a UiScheduler, so
+ * the processor can be fed synthetic streams off the device.
+ */
+public final class CallStateProcessor implements CallStateSource.Callback {
+
+    private static final long FRAME_MILLIS = 16;
+
+    /**
+     * Runs work on the main thread. MainThreadScheduler posts to the main
+     * looper.
+     */
+    public interface UiScheduler {
+        /**
+         * @return The current time on the clock postAtTime() uses, in milliseconds.
+         */
+        long uptimeMillis();
+
+        /**
+         * Runs a task on the main thread no earlier than a given time.
+         *
+         * @param task         The task.
+         * @param uptimeMillis When to run it, on the uptimeMillis() clock.
+         */
+        void postAtTime(Runnable task, long uptimeMillis);
+    }
+
+    /**
+     * Told the number of the call that is ringing, so finished calls can
+     * be recorded with it.
+     */
+    public interface CallNumberListener {
+        /**
+         * @param numberKey The number from CallerIdIndex.key(), or NO_KEY.
+         */
+        void setCurrentNumber(long numberKey);
+    }
+
+    /**
+     * Applies call states to the UI, on the main thread.
+     */
+    public interface UiListener {
+        /**
+         * @param state The latest state; earlier states of the same frame
+         *              are dropped.
+         */
+        void onCallUiState(CallUiState state);
+    }
+
+    private final CallMetrics mMetrics;
+    private final PhoneNumberNormalizer mNormalizer;
+    private final CallerIdIndex mCallerIds;
+    private final CallNumberListener mHistory;
+    private final UiScheduler mUiScheduler;
+    private final AtomicReference<CallUiState> mPending = new AtomicReference<>();
+    private volatile UiListener mUiListener;
+    private volatile long mLastUpdateMillis;
+    private final Runnable mApply = new Runnable() {
+        @Override
+        public void run() {
+            CallUiState state = mPending.getAndSet(null);
+            UiListener listener = mUiListener;
+            if (state != null && listener != null) {
+                mLastUpdateMillis = mUiScheduler.uptimeMillis();
+                listener.onCallUiState(state);
+            }
+        }
+    };
+
+    /**
+     * @param metrics    Records the transitions; only this processor may feed it.
+     * @param normalizer Normalizes incoming numbers.
+     * @param callerIds  Identifies callers.
+     * @param history    Records finished calls.
+     * @param ui         Runs the UI updates on the main thread.
+     */
+    public CallStateProcessor(CallMetrics metrics, PhoneNumberNormalizer normalizer,
+                              CallerIdIndex callerIds, CallNumberListener history,
+                              UiScheduler ui) {
+        mMetrics = metrics;
+        mNormalizer = normalizer;
+        mCallerIds = callerIds;
+        mHistory = history;
+        mUiScheduler = ui;
+    }
+
+    /**
+     * @param listener Applies the states to the UI; null to stop updates.
+     */
+    public void setUiListener(UiListener listener) {
+        mUiListener = listener;
+    }
+
+    @Override
+    public void onCallStateChanged(int state, String number, long timeMillis) {
+        int previousState = mMetrics.onCallStateChanged(state, timeMillis);
+        String callerLabel = null;
+        if (state == CallMetrics.STATE_RINGING) {
+            long numberKey = numberKey(number);
+            mHistory.setCurrentNumber(numberKey);
+            callerLabel = mCallerIds.get(numberKey);
+        }
+        boolean callEnded = state == CallMetrics.STATE_IDLE
+                && previousState == CallMetrics.STATE_OFFHOOK;
+        publish(new CallUiState(state, number, callerLabel, callEnded));
+    }
+
+    /**
+     * Hands a state to the UI, scheduling an update unless one is
+     * already waiting. A waiting state that ended a call passes that on.
+     */
+    private void publish(CallUiState state) {
+        CallUiState pending;
+        CallUiState next;
+        do {
+            pending = mPending.get();
+            next = state;
+            if (pending != null && pending.isCallEnded() && !state.isCallEnded()) {
+                next = new CallUiState(state.getState(), state.getNumber(),
+                        state.getCallerLabel(), true);
+            }
+        } while (!mPending.compareAndSet(pending, next));
+        if (pending != null) {
+            // The waiting update will pick up this state.
+            return;
+        }
+        long at = Math.max(mUiScheduler.uptimeMillis(), mLastUpdateMillis + FRAME_MILLIS);
+        mUiScheduler.postAtTime(mApply, at);
+    }
+
+    /**
+     * Normalizes a number and packs it into a key for the caller-ID index
+     * and the call history.
+     *
+     * @param number The number as received; may be empty.
+     * @return The key, or CallerIdIndex.NO_KEY if there is no number.
+     */
+    private long numberKey(String number) {
+        if (number == null || number.isEmpty()) {
+            return CallerIdIndex.NO_KEY;
+        }
+        return CallerIdIndex.key(mNormalizer.normalize(number));
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.phonecallingsamplechallenge;
+
+/**
+ * A stream of call-state changes. TelephonyCallStateSource reads them
+ * from the platform; ReplayCallStateSource plays back a synthetic stream.
+ */
+public interface CallStateSource {
+
+    /**
+     * Receives call-state changes, all on one background thread.
+     */
+    interface Callback {
+        /**
+         * @param state      The new state; a TelephonyManager.CALL_STATE_ value.
+         * @param number     The incoming number, or empty.
+         * @param timeMillis When it happened, on a monotonic clock.
+         */
+        void onCallStateChanged(int state, String number, long timeMillis);
+    }
+
+    /**
+     * Starts delivering changes. The current state is delivered first.
+     *
+     * @param callback Receives the changes.
+     */
+    void start(Callback callback);
+
+    /**
+     * Stops delivering changes.
+     */
+    void stop();
+}
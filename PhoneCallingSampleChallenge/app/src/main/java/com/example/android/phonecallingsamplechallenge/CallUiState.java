@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.phonecallingsamplechallenge;
+
+/**
+ * What the UI shows for the call state, prepared off the main thread.
+ */
+public final class CallUiState {
+
+    private final int mState;
+    private final String mNumber;
+    private final String mCallerLabel;
+    private final boolean mCallEnded;
+
+    /**
+     * @param state       The call state; a TelephonyManager.CALL_STATE_ value.
+     * @param number      The incoming number, or empty.
+     * @param callerLabel The caller-ID label of the number, or null.
+     * @param callEnded   Whether a call ended since the previous update.
+     */
+    public CallUiState(int state, String number, String callerLabel, boolean callEnded) {
+        mState = state;
+        mNumber = number;
+        mCallerLabel = callerLabel;
+        mCallEnded = callEnded;
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    public String getNumber() {
+        return mNumber;
+    }
+
+    public String getCallerLabel() {
+        return mCallerLabel;
+    }
+
+    public boolean isCallEnded() {
+        return mCallEnded;
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.phonecallingsamplechallenge;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Maps normalized phone numbers to caller labels (a contact or
+ * organization name) for caller identification while a call is ringing.
+ *
+ * Numbers are packed into long keys (see key()) and kept in an open-
+ * addressing table of primitive arrays; labels live in one shared char
+ * pool, each prefixed by its length and the number of entries using it,
+ * so several numbers of a contact can share one label. An entry costs
+ * 20 to 40 bytes (depending on how full the table is) plus its label
+ * characters, against roughly 150 bytes plus the label for a
+ * HashMap<String, String> entry. Lookups do no allocation other than the
+ * returned label.
+ *
+ * Entries can be added, replaced and removed at any time; the pool is
+ * compacted once more than half of it belongs to labels no entry uses.
+ * Label offsets never leave the class, so compaction cannot strand them.
+ * Plain Java; all methods are synchronized.
+ */
+public final class CallerIdIndex {
+
+    /**
+     * Returned by key() for a string that is not a number.
+     */
+    public static final long NO_KEY = -1;
+
+    // Marks an empty slot; key() never returns it.
+    private static final long EMPTY = 0;
+    private static final int MAX_DIGITS = 15;
+    private static final int LENGTH_SHIFT = 50;
+    private static final long PLUS_BIT = 1L << 54;
+    private static final int MAX_LABEL_LENGTH = Character.MAX_VALUE;
+    // Length, then the use count in two chars, high half first.
+    private static final int LABEL_HEADER = 3;
+
+    private long[] mKeys;
+    // Offset of each slot's label in mChars.
+    private int[] mLabels;
+    private int mSize;
+    private int mResizeAt;
+
+    private char[] mChars = new char[1024];
+    private int mCharsEnd;
+    // Characters of labels that no entry uses any more.
+    private int mGarbageChars;
+
+    public CallerIdIndex() {
+        allocate(1024);
+    }
+
+    /**
+     * Packs a normalized number into a key: its value, its digit count
+     * (so that leading zeros are kept) and whether it starts with '+'.
+     *
+     * @param normalized A number from PhoneNumberNormalizer.
+     * @return The key, or NO_KEY if the string is not a number of at most
+     *         15 digits.
+     */
+    public static long key(CharSequence normalized) {
+        int length = normalized.length();
+        int start = (length > 0 && normalized.charAt(0) == '+') ? 1 : 0;
+        int digits = length - start;
+        if (digits == 0 || digits > MAX_DIGITS) {
+            return NO_KEY;
+        }
+        long value = 0;
+        for (int i = start; i < length; i++) {
+            char c = normalized.charAt(i);
+            if (c < '0' || c > '9') {
+                return NO_KEY;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value | ((long) digits << LENGTH_SHIFT) | (start == 1 ? PLUS_BIT : 0);
+    }
+
+    /**
+     * Turns a key back into the normalized number.
+     *
+     * @param key A key from key().
+     * @return The number, or null for NO_KEY.
+     */
+    public static String number(long key) {
+        if (key == NO_KEY || key == EMPTY) {
+            return null;
+        }
+        int digits = (int) (key >>> LENGTH_SHIFT) & 0xF;
+        long value = key & ((1L << LENGTH_SHIFT) - 1);
+        char[] chars = new char[digits + 1];
+        for (int i = digits; i > 0; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        if ((key & PLUS_BIT) != 0) {
+            chars[0] = '+';
+            return new String(chars);
+        }
+        return new String(chars, 1, digits);
+    }
+
+    /**
+     * Maps a number to a label, replacing any previous label.
+     *
+     * @param key   A key from key().
+     * @param label The label; longer labels are cut short.
+     */
+    public synchronized void put(long key, String label) {
+        if (key == NO_KEY || key == EMPTY) {
+            return;
+        }
+        put(key, addLabel(label));
+        compactIfNeeded();
+    }
+
+    /**
+     * Maps several numbers to one label, stored once, replacing any
+     * previous labels.
+     *
+     * @param keys  Keys from key(); NO_KEY entries are skipped.
+     * @param count Number of keys to use from the start of the array.
+     * @param label The label; longer labels are cut short.
+     */
+    public synchronized void put(long[] keys, int count, String label) {
+        int labelRef = addLabel(label);
+        for (int i = 0; i < count; i++) {
+            if (keys[i] != NO_KEY && keys[i] != EMPTY) {
+                put(keys[i], labelRef);
+            }
+        }
+        if (uses(labelRef) == 0) {
+            mGarbageChars += mChars[labelRef] + LABEL_HEADER;
+        }
+        // Compact only after the loop, which holds labelRef.
+        compactIfNeeded();
+    }
+
+    /**
+     * Looks up the label of a number.
+     *
+     * @param key A key from key().
+     * @return The label, or null if the number is not in the index.
+     */
+    public synchronized String get(long key) {
+        if (key == NO_KEY || key == EMPTY) {
+            return null;
+        }
+        int slot = findSlot(key);
+        if (mKeys[slot] != key) {
+            return null;
+        }
+        int offset = mLabels[slot];
+        return new String(mChars, offset + LABEL_HEADER, mChars[offset]);
+    }
+
+    /**
+     * Removes a number.
+     *
+     * @param key A key from key().
+     * @return true if the number was in the index.
+     */
+    public synchronized boolean remove(long key) {
+        if (key == NO_KEY || key == EMPTY) {
+            return false;
+        }
+        int slot = findSlot(key);
+        if (mKeys[slot] != key) {
+            return false;
+        }
+        release(mLabels[slot]);
+        // Shift later entries of the probe run back, so lookups never
+        // need tombstones.
+        int mask = mKeys.length - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (mKeys[next] != EMPTY) {
+            int home = hash(mKeys[next]) & mask;
+            // Move the entry if its home slot is not between the hole
+            // and its current slot.
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                mKeys[hole] = mKeys[next];
+                mLabels[hole] = mLabels[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        mKeys[hole] = EMPTY;
+        mSize--;
+        compactIfNeeded();
+        return true;
+    }
+
+    /**
+     * @return The number of numbers in the index.
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * @return Bytes held by the table and the label pool.
+     */
+    public synchronized long getMemoryBytes() {
+        return mKeys.length * 8L + mLabels.length * 4L + mChars.length * 2L;
+    }
+
+    private int findSlot(long key) {
+        int mask = mKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (mKeys[slot] != EMPTY && mKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(long key) {
+        // The finalizer of MurmurHash3, so that nearby numbers spread out.
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mLabels = new int[capacity];
+        // Keep the load factor at or below 0.6.
+        mResizeAt = capacity / 5 * 3;
+    }
+
+    private void rehash(int capacity) {
+        long[] keys = mKeys;
+        int[] labels = mLabels;
+        allocate(capacity);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                int slot = findSlot(keys[i]);
+                mKeys[slot] = keys[i];
+                mLabels[slot] = labels[i];
+            }
+        }
+    }
+
+    /**
+     * Adds a label to the pool with no uses yet.
+     *
+     * @return Its offset in the pool, valid until the next compaction.
+     */
+    private int addLabel(String label) {
+        int length = Math.min(label.length(), MAX_LABEL_LENGTH);
+        ensureChars(length + LABEL_HEADER);
+        int offset = mCharsEnd;
+        mChars[offset] = (char) length;
+        mChars[offset + 1] = 0;
+        mChars[offset + 2] = 0;
+        label.getChars(0, length, mChars, offset + LABEL_HEADER);
+        mCharsEnd += length + LABEL_HEADER;
+        return offset;
+    }
+
+    /**
+     * Maps a number to a label in the pool without compacting it, so the
+     * caller can go on using the label.
+     */
+    private void put(long key, int label) {
+        setUses(label, uses(label) + 1);
+        int slot = findSlot(key);
+        if (mKeys[slot] == key) {
+            release(mLabels[slot]);
+            mLabels[slot] = label;
+            return;
+        }
+        mKeys[slot] = key;
+        mLabels[slot] = label;
+        if (++mSize > mResizeAt) {
+            rehash(mKeys.length * 2);
+        }
+    }
+
+    /**
+     * Drops one use of a label, which becomes garbage with its last use.
+     */
+    private void release(int label) {
+        int uses = uses(label) - 1;
+        setUses(label, uses);
+        if (uses == 0) {
+            mGarbageChars += mChars[label] + LABEL_HEADER;
+        }
+    }
+
+    private int uses(int label) {
+        return (mChars[label + 1] << 16) | mChars[label + 2];
+    }
+
+    private void setUses(int label, int uses) {
+        mChars[label + 1] = (char) (uses >>> 16);
+        mChars[label + 2] = (char) uses;
+    }
+
+    private void ensureChars(int needed) {
+        if (mCharsEnd + needed > mChars.length) {
+            mChars = Arrays.copyOf(mChars, Math.max(mChars.length * 2, mCharsEnd + needed));
+        }
+    }
+
+    /**
+     * Copies the live labels into a new pool once more than half of the
+     * pool is garbage. Labels shared by several numbers stay shared.
+     */
+    private void compactIfNeeded() {
+        if (mGarbageChars < 1024 || mGarbageChars * 2 < mCharsEnd) {
+            return;
+        }
+        char[] chars = new char[Math.max(1024, (mCharsEnd - mGarbageChars) * 2)];
+        int end = 0;
+        HashMap<Integer, Integer> moved = new HashMap<>();
+        for (int i = 0; i < mKeys.length; i++) {
+            if (mKeys[i] == EMPTY) {
+                continue;
+            }
+            Integer target = moved.get(mLabels[i]);
+            if (target == null) {
+                int length = mChars[mLabels[i]] + LABEL_HEADER;
+                if (end + length > chars.length) {
+                    chars = Arrays.copyOf(chars, (end + length) * 2);
+                }
+                System.arraycopy(mChars, mLabels[i], chars, end, length);
+                target = end;
+                moved.put(mLabels[i], target);
+                end += length;
+            }
+            mLabels[i] = target;
+        }
+        mChars = chars;
+        mCharsEnd = end;
+        mGarbageChars = 0;
+    }
+}
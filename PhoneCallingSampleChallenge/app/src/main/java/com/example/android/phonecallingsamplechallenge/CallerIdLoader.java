@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.phonecallingsamplechallenge;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+/**
+ * Holds the process-wide CallerIdIndex and fills it from the contact
+ * exports in the app's files directory: contacts.csv and contacts.vcf.
+ *
+ * The index is returned at once and filled on a background thread; the
+ * entries become visible as they are read, so a call that rings during
+ * loading may still show only the number.
+ */
+public final class CallerIdLoader {
+
+    private static final String TAG = CallerIdLoader.class.getSimpleName();
+    private static final String CSV_FILE = "contacts.csv";
+    private static final String VCARD_FILE = "contacts.vcf";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static CallerIdIndex sIndex;
+
+    private CallerIdLoader() {
+    }
+
+    /**
+     * Returns the caller-ID index, starting to load it on first use.
+     *
+     * @param context    Any context.
+     * @param normalizer Normalizes the numbers in the exports; must be
+     *                   the one used for lookups.
+     * @return The index, possibly still loading.
+     */
+    public static synchronized CallerIdIndex getIndex(Context context,
+                                                      final PhoneNumberNormalizer normalizer) {
+        if (sIndex == null) {
+            sIndex = new CallerIdIndex();
+            final CallerIdIndex index = sIndex;
+            final File dir = context.getApplicationContext().getFilesDir();
+            Thread loader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    load(dir, index, normalizer);
+                }
+            }, TAG);
+            loader.setDaemon(true);
+            loader.start();
+        }
+        return sIndex;
+    }
+
+    private static void load(File dir, CallerIdIndex index, PhoneNumberNormalizer normalizer) {
+        long start = SystemClock.elapsedRealtime();
+        ContactExportReader reader = new ContactExportReader(index, normalizer);
+        int added = 0;
+        File csv = new File(dir, CSV_FILE);
+        File vcard = new File(dir, VCARD_FILE);
+        try {
+            if (csv.exists()) {
+                BufferedReader in = open(csv);
+                try {
+                    added += reader.readCsv(in);
+                } finally {
+                    in.close();
+                }
+            }
+            if (vcard.exists()) {
+                BufferedReader in = open(vcard);
+                try {
+                    added += reader.readVCard(in);
+                } finally {
+                    in.close();
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot read contact export", e);
+        }
+        Log.i(TAG, "Loaded " + added + " numbers in "
+                + (SystemClock.elapsedRealtime() - start) + " ms, "
+                + index.getMemoryBytes() / 1024 + " KB");
+    }
+
+    private static BufferedReader open(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+    }
+}
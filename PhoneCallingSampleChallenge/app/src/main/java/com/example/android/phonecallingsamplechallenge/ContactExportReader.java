@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.phonecallingsamplechallenge;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Reads a contact export into a CallerIdIndex.
+ *
+ * Two formats are understood:
+ * - CSV, one contact per row: the label in the first column and phone
+ *   numbers in the others. Fields may be quoted. Rows without a number,
+ *   such as a header row, are skipped.
+ * - vCard: each card's TEL numbers get its FN (formatted name), or its
+ *   ORG (organization) if it has no name. TEL values may be tel: URIs.
+ *
+ * Numbers are normalized with the same PhoneNumberNormalizer as incoming
+ * calls, so they match however they were written. Plain Java.
+ */
+public final class ContactExportReader {
+
+    private final CallerIdIndex mIndex;
+    private final PhoneNumberNormalizer mNormalizer;
+    // Keys of the contact being read.
+    private long[] mKeys = new long[8];
+    private int mKeyCount;
+
+    /**
+     * @param index      The index to add the contacts to.
+     * @param normalizer Normalizes the phone numbers.
+     */
+    public ContactExportReader(CallerIdIndex index, PhoneNumberNormalizer normalizer) {
+        mIndex = index;
+        mNormalizer = normalizer;
+    }
+
+    /**
+     * Reads a CSV export.
+     *
+     * @param reader The export.
+     * @return The number of phone numbers added.
+     * @throws IOException if the export cannot be read.
+     */
+    public int readCsv(BufferedReader reader) throws IOException {
+        int added = 0;
+        ArrayList<String> fields = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            splitCsv(line, fields);
+            if (fields.size() < 2) {
+                continue;
+            }
+            for (int i = 1; i < fields.size(); i++) {
+                addNumber(fields.get(i));
+            }
+            added += flush(fields.get(0).trim());
+        }
+        return added;
+    }
+
+    /**
+     * Reads a vCard export.
+     *
+     * @param reader The export.
+     * @return The number of phone numbers added.
+     * @throws IOException if the export cannot be read.
+     */
+    public int readVCard(BufferedReader reader) throws IOException {
+        int added = 0;
+        String name = null;
+        String organization = null;
+        StringBuilder property = new StringBuilder();
+        String line = reader.readLine();
+        while (line != null) {
+            // Unfold continuation lines, which start with a space or a tab.
+            property.setLength(0);
+            property.append(line);
+            line = reader.readLine();
+            while (line != null && !line.isEmpty()
+                    && (line.charAt(0) == ' ' || line.charAt(0) == '\t')) {
+                property.append(line, 1, line.length());
+                line = reader.readLine();
+            }
+            int colon = property.indexOf(":");
+            if (colon < 0) {
+                continue;
+            }
+            String propertyName = propertyName(property, colon);
+            String value = property.substring(colon + 1).trim();
+            if ("BEGIN".equals(propertyName)) {
+                name = null;
+                organization = null;
+                mKeyCount = 0;
+            } else if ("FN".equals(propertyName)) {
+                name = unescape(value);
+            } else if ("ORG".equals(propertyName)) {
+                // Only the organization name, not its units.
+                int semicolon = value.indexOf(';');
+                organization = unescape(semicolon < 0 ? value : value.substring(0, semicolon));
+            } else if ("TEL".equals(propertyName)) {
+                addNumber(value);
+            } else if ("END".equals(propertyName)) {
+                String label = (name != null && !name.isEmpty()) ? name : organization;
+                added += flush(label);
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Returns the upper-cased property name of a vCard line, without its
+     * group prefix or parameters.
+     */
+    private static String propertyName(CharSequence property, int colon) {
+        int start = 0;
+        int end = colon;
+        for (int i = 0; i < colon; i++) {
+            char c = property.charAt(i);
+            if (c == ';') {
+                end = i;
+                break;
+            } else if (c == '.') {
+                start = i + 1;
+            }
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            sb.append(Character.toUpperCase(property.charAt(i)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Removes vCard backslash escapes.
+     */
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                c = value.charAt(++i);
+                if (c == 'n' || c == 'N') {
+                    c = ' ';
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString().trim();
+    }
+
+    /**
+     * Splits a CSV line into fields, handling double-quoted fields.
+     */
+    private static void splitCsv(String line, ArrayList<String> fields) {
+        fields.clear();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+    }
+
+    /**
+     * Normalizes a number of the current contact and holds its key. A
+     * vCard 4.0 tel: URI is reduced to its number first, without its
+     * parameters such as ;ext=.
+     */
+    private void addNumber(String number) {
+        char[] chars = number.trim().toCharArray();
+        int start = 0;
+        if (chars.length >= 4 && new String(chars, 0, 4).equalsIgnoreCase("tel:")) {
+            start = 4;
+        }
+        int end = start;
+        while (end < chars.length && chars[end] != ';') {
+            end++;
+        }
+        long key = CallerIdIndex.key(mNormalizer.normalize(chars, start, end - start));
+        if (key == CallerIdIndex.NO_KEY) {
+            return;
+        }
+        if (mKeyCount == mKeys.length) {
+            mKeys = Arrays.copyOf(mKeys, mKeyCount * 2);
+        }
+        mKeys[mKeyCount++] = key;
+    }
+
+    /**
+     * Adds the held numbers of the current contact under one label.
+     *
+     * @return The number of phone numbers added.
+     */
+    private int flush(String label) {
+        int count = mKeyCount;
+        mKeyCount = 0;
+        if (count == 0 || label == null || label.isEmpty()) {
+            return 0;
+        }
+        mIndex.put(mKeys, count, label);
+        return count;
+    }
+}
@@ -24,8 +24,6 @@ import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.app.ActivityCompat;
 import android.support.v7.app.AppCompatActivity;
-import android.telephony.PhoneNumberUtils;
-import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
 import android.util.Log;
 import android.view.View;
@@ -39,19 +37,30 @@ import android.widget.Toast;
  * This app accepts a phone number and makes a phone call.
  * For incoming calls, the app shows the phone number of the caller.
  */
-public class MainActivity extends AppCompatActivity {
+public class MainActivity extends AppCompatActivity
+        implements CallStateProcessor.UiListener {
 
     private static final String TAG = MainActivity.class.getSimpleName();
     private static final int MY_PERMISSIONS_REQUEST_CALL_PHONE = 1;
+    private static final int CALL_EVENT_LOG_SIZE = 1024;
+    private static final int NORMALIZER_CACHE_SIZE = 64;
+
+    // Timing of the calls seen by every instance of the activity. Fed on
+    // the call-state thread, which all instances share.
+    private static final CallMetrics sCallMetrics = new CallMetrics(CALL_EVENT_LOG_SIZE);
 
     private TelephonyManager mTelephonyManager;
-    private MyPhoneCallListener mListener;
+    private CallStateSource mCallStateSource;
+    private CallStateProcessor mCallStateProcessor;
+    private PhoneNumberNormalizer mNormalizer;
+    private CallerIdIndex mCallerIds;
+    private CallHistoryRecorder mCallHistory;
 
     /**
      * Creates the activity, sets the view, and checks if Telephony is enabled.
      * Telephony enabled:
      *     Checks for phone permission.
-     *     Sets the PhoneStateListener.
+     *     Starts listening to call-state changes on a background thread.
      * Telephony not enabled: Disables the call button and shows the Retry button.
      *
      * @param savedInstanceState Instance state
@@ -60,6 +69,11 @@ public class MainActivity extends AppCompatActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        mNormalizer = new PhoneNumberNormalizer(getString(R.string.default_country_code),
+                NORMALIZER_CACHE_SIZE);
+        mCallerIds = CallerIdLoader.getIndex(this, mNormalizer);
+        mCallHistory = CallHistoryRecorder.getInstance(this);
+        sCallMetrics.setCallListener(mCallHistory);
         // Create a telephony manager.
         mTelephonyManager = (TelephonyManager) getSystemService(TELEPHONY_SERVICE);
         // Check to see if Telephony is enabled.
@@ -67,9 +81,13 @@ public class MainActivity extends AppCompatActivity {
             Log.d(TAG, getString(R.string.telephony_enabled));
             // Check for phone permission.
             checkForPhonePermission();
-            // Register the PhoneStateListener to monitor phone activity.
-            mListener = new MyPhoneCallListener();
-            mTelephonyManager.listen(mListener, PhoneStateListener.LISTEN_CALL_STATE);
+            // Monitor phone activity. The changes are processed off the
+            // main thread and come back through onCallUiState().
+            mCallStateProcessor = new CallStateProcessor(sCallMetrics, mNormalizer,
+                    mCallerIds, mCallHistory, new MainThreadScheduler());
+            mCallStateProcessor.setUiListener(this);
+            mCallStateSource = new TelephonyCallStateSource(mTelephonyManager);
+            mCallStateSource.start(mCallStateProcessor);
         } else {
             Toast.makeText(this,
                     R.string.telephony_not_enabled, Toast.LENGTH_LONG).show();
@@ -151,18 +169,13 @@ public class MainActivity extends AppCompatActivity {
      * @param view View that was clicked.
      */
     public void callNumber(View view) {
-        String normalizedPhoneNumber;
         // Find the editText_main view and assign it to editText.
         EditText editText = (EditText) findViewById(R.id.editText_main);
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
-            Log.d(TAG, "Running version earlier than Lollipop. Can't normalize number.");
-            normalizedPhoneNumber = editText.getText().toString();
-        } else {
-            normalizedPhoneNumber =
-                    PhoneNumberUtils.normalizeNumber(editText.getText().toString());
-        }
-        // Use format with "tel:" and phone number to create phoneNumber.
-        String phoneNumber = String.format("tel: %s", normalizedPhoneNumber);
+        // Normalize the number to E.164; this works on every Android version.
+        String normalizedPhoneNumber = mNormalizer.normalize(editText.getText().toString());
+        // Prepend "tel:" to the phone number to create phoneNumber.
+        String phoneNumber = "tel:" + normalizedPhoneNumber;
+        mCallHistory.setCurrentNumber(CallerIdIndex.key(normalizedPhoneNumber));
         // Log the concatenated phone number for dialing.
         Log.d(TAG, getString(R.string.dial_number) + phoneNumber);
         Toast.makeText(this, getString(R.string.dial_number) + phoneNumber,
@@ -182,55 +195,57 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * Monitors and logs phone call activities, and shows the phone state
-     * in a toast message.
+     * Shows the call state: the caller for a ringing call, and a toast
+     * message otherwise. Called on the main thread, at most once a frame.
+     *
+     * @param callState The latest call state.
      */
-    private class MyPhoneCallListener extends PhoneStateListener {
-        private boolean returningFromOffHook = false;
-
-        @Override
-        public void onCallStateChanged(int state, String incomingNumber) {
-            // Define a string for the message to use in a toast.
-            String message = getString(R.string.phone_status);
-            switch (state) {
-                case TelephonyManager.CALL_STATE_RINGING:
-                    // Incoming call is ringing (not used for outgoing call).
-                    TextView incomingView = (TextView) findViewById(R.id.incoming);
-                    incomingView.setText(incomingNumber);
-                    incomingView.setVisibility(View.VISIBLE);
-                    Log.i(TAG, message);
-                    break;
-                case TelephonyManager.CALL_STATE_OFFHOOK:
-                    // Phone call is active -- off the hook.
-                    message = message + getString(R.string.offhook);
-                    Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show();
-                    Log.i(TAG, message);
-                    returningFromOffHook = true;
-                    break;
-                case TelephonyManager.CALL_STATE_IDLE:
-                    // Phone is idle before and after phone call.
-                    // If running on version older than 19 (KitKat),
-                    // restart activity when phone call ends.
-                    message = message + getString(R.string.idle);
-                    Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show();
-                    Log.i(TAG, message);
-                    if (returningFromOffHook) {
-                        // No need to do anything if >= version KitKat.
-                        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
-                            Log.i(TAG, getString(R.string.restarting_app));
-                            // Restart the app.
-                            Intent i = getPackageManager()
-                                    .getLaunchIntentForPackage(getPackageName());
-                            i.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
-                            startActivity(i);
-                        }
-                    }
-                    break;
-                default:
-                    message = message + "Phone off";
-                    Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show();
-                    Log.i(TAG, message);
-                    break;
+    @Override
+    public void onCallUiState(CallUiState callState) {
+        // Define a string for the message to use in a toast.
+        String message = getString(R.string.phone_status);
+        switch (callState.getState()) {
+            case TelephonyManager.CALL_STATE_RINGING:
+                // Incoming call is ringing (not used for outgoing call).
+                TextView incomingView = (TextView) findViewById(R.id.incoming);
+                String caller = callState.getCallerLabel();
+                incomingView.setText(caller == null ? callState.getNumber()
+                        : getString(R.string.caller_id, caller, callState.getNumber()));
+                incomingView.setVisibility(View.VISIBLE);
+                Log.i(TAG, message);
+                break;
+            case TelephonyManager.CALL_STATE_OFFHOOK:
+                // Phone call is active -- off the hook.
+                message = message + getString(R.string.offhook);
+                Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show();
+                Log.i(TAG, message);
+                break;
+            case TelephonyManager.CALL_STATE_IDLE:
+                // Phone is idle before and after phone call.
+                message = message + getString(R.string.idle);
+                Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show();
+                Log.i(TAG, message);
+                break;
+            default:
+                message = message + "Phone off";
+                Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show();
+                Log.i(TAG, message);
+                break;
+        }
+        // If running on version older than 19 (KitKat), restart activity
+        // when phone call ends. Checked whatever the state: in call
+        // waiting, the next call can ring in the same frame as the end of
+        // the last one.
+        if (callState.isCallEnded()) {
+            Log.i(TAG, sCallMetrics.getSnapshot().toString());
+            // No need to do anything if >= version KitKat.
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+                Log.i(TAG, getString(R.string.restarting_app));
+                // Restart the app.
+                Intent i = getPackageManager()
+                        .getLaunchIntentForPackage(getPackageName());
+                i.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
+                startActivity(i);
             }
         }
     }
@@ -269,8 +284,9 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (isTelephonyEnabled()) {
-            mTelephonyManager.listen(mListener, PhoneStateListener.LISTEN_NONE);
+        if (mCallStateSource != null) {
+            mCallStateSource.stop();
+            mCallStateProcessor.setUiListener(null);
         }
     }
 }
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.phonecallingsamplechallenge;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Posts CallStateProcessor's UI updates to the main looper, timed with
+ * SystemClock.uptimeMillis().
+ */
+public final class MainThreadScheduler implements CallStateProcessor.UiScheduler {
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public long uptimeMillis() {
+        return SystemClock.uptimeMillis();
+    }
+
+    @Override
+    public void postAtTime(Runnable task, long uptimeMillis) {
+        mHandler.postAtTime(task, uptimeMillis);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.phonecallingsamplechallenge;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays back a scripted stream of call-state changes, e.g. a burst of
+ * transitions during call waiting, on its own thread, or at once on the
+ * calling thread with replay(). The timestamps are the scripted offsets
+ * from the start, so the results do not depend on scheduling. Plain Java.
+ */
+public final class ReplayCallStateSource implements CallStateSource {
+
+    /**
+     * One scripted change.
+     */
+    private static final class Event {
+        final int state;
+        final String number;
+        final long offsetMillis;
+
+        Event(int state, String number, long offsetMillis) {
+            this.state = state;
+            this.number = number;
+            this.offsetMillis = offsetMillis;
+        }
+    }
+
+    private final ArrayList<Event> mEvents = new ArrayList<>();
+    private long mEndMillis;
+    private ScheduledExecutorService mExecutor;
+
+    /**
+     * Adds an event to the script.
+     *
+     * @param delayMillis Time since the previous event.
+     * @param state       The new state; a TelephonyManager.CALL_STATE_ value.
+     * @param number      The incoming number, or empty.
+     * @return This source.
+     */
+    public ReplayCallStateSource add(long delayMillis, int state, String number) {
+        mEndMillis += delayMillis;
+        mEvents.add(new Event(state, number, mEndMillis));
+        return this;
+    }
+
+    /**
+     * Plays the script, waiting the scripted delays between events.
+     *
+     * @param callback Receives the events.
+     */
+    @Override
+    public synchronized void start(Callback callback) {
+        start(callback, 1);
+    }
+
+    /**
+     * Plays the script with the delays scaled, e.g. by 0 to deliver the
+     * whole script at once.
+     *
+     * @param callback Receives the events.
+     * @param speed    Factor applied to the delays.
+     */
+    public synchronized void start(final Callback callback, double speed) {
+        stop();
+        mExecutor = Executors.newSingleThreadScheduledExecutor();
+        for (int i = 0; i < mEvents.size(); i++) {
+            final Event event = mEvents.get(i);
+            mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onCallStateChanged(event.state, event.number, event.offsetMillis);
+                }
+            }, (long) (event.offsetMillis * speed), TimeUnit.MILLISECONDS);
+        }
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Delivers the whole script on the calling thread, without waiting.
+     *
+     * @param callback Receives the events.
+     */
+    public void replay(Callback callback) {
+        for (int i = 0; i < mEvents.size(); i++) {
+            Event event = mEvents.get(i);
+            callback.onCallStateChanged(event.state, event.number, event.offsetMillis);
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+            mExecutor = null;
+        }
+    }
+}
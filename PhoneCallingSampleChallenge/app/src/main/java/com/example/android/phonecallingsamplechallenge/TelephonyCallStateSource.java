@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.phonecallingsamplechallenge;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.telephony.PhoneStateListener;
+import android.telephony.TelephonyManager;
+
+/**
+ * Reads call-state changes from the TelephonyManager on a background
+ * thread instead of the main thread.
+ *
+ * A PhoneStateListener calls back on the looper of the thread that
+ * created it, so the listener is created on a HandlerThread. The thread
+ * is shared by every instance, which keeps all call-state processing on
+ * one thread.
+ */
+public final class TelephonyCallStateSource implements CallStateSource {
+
+    private static final String THREAD_NAME = "CallState";
+
+    private static HandlerThread sThread;
+
+    private final TelephonyManager mTelephonyManager;
+    private final Handler mHandler;
+    // Only touched on the call-state thread.
+    private PhoneStateListener mListener;
+
+    /**
+     * @param telephonyManager The telephony manager to listen to.
+     */
+    public TelephonyCallStateSource(TelephonyManager telephonyManager) {
+        mTelephonyManager = telephonyManager;
+        mHandler = new Handler(getThread().getLooper());
+    }
+
+    private static synchronized HandlerThread getThread() {
+        if (sThread == null) {
+            sThread = new HandlerThread(THREAD_NAME, Process.THREAD_PRIORITY_FOREGROUND);
+            sThread.start();
+        }
+        return sThread;
+    }
+
+    // Not named "callback", which would be hidden by a field of
+    // PhoneStateListener inside the anonymous class.
+    @Override
+    public void start(final Callback stateCallback) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mListener != null) {
+                    return;
+                }
+                // Created here so that its callbacks run on this thread.
+                mListener = new PhoneStateListener() {
+                    @Override
+                    public void onCallStateChanged(int state, String incomingNumber) {
+                        stateCallback.onCallStateChanged(state, incomingNumber,
+                                SystemClock.elapsedRealtime());
+                    }
+                };
+                mTelephonyManager.listen(mListener, PhoneStateListener.LISTEN_CALL_STATE);
+            }
+        });
+    }
+
+    @Override
+    public void stop() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mListener != null) {
+                    mTelephonyManager.listen(mListener, PhoneStateListener.LISTEN_NONE);
+                    mListener = null;
+                }
+            }
+        });
+    }
+}
@@ -22,8 +22,10 @@ import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
 import android.view.View;
+import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.TextView;
+import android.widget.Toast;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -59,7 +61,11 @@ public class MainActivity extends AppCompatActivity {
 
     /**
      * Uses an implicit intent to send a message with an SMS messaging app.
-     * Gets the phone number from TextView number_to_call.
+     * Gets the phone number from TextView number_to_call, fills in the
+     * {name} and {number} placeholders of the message from the contact, and
+     * transliterates it to GSM 7-bit if that option is checked. Without a
+     * contact name the message is sent as typed, braces included; with
+     * one, a placeholder other than {name} or {number} stops the send.
      *
      * @param view View (message_icon) that was clicked.
      */
@@ -71,6 +77,38 @@ public class MainActivity extends AppCompatActivity {
         EditText smsEditText = (EditText) findViewById(R.id.sms_message);
         // Get the text of the sms message.
         String sms = smsEditText.getText().toString();
+        TextView nameView = (TextView) findViewById(R.id.contact_name);
+        String contactName = nameView.getText().toString().trim();
+        if (!contactName.isEmpty()) {
+            // Always render, so {{ and }} mean the same with or without
+            // placeholders.
+            MessageTemplate template = MessageTemplate.compile(sms);
+            String[] values = new String[template.getPlaceholderCount()];
+            for (int i = 0; i < values.length; i++) {
+                String placeholder = template.getName(i);
+                if (placeholder.equals("name")) {
+                    values[i] = contactName;
+                } else if (placeholder.equals("number")) {
+                    values[i] = textView.getText().toString();
+                } else {
+                    // Sending it would leave the placeholder empty.
+                    Toast.makeText(this, getString(R.string.template_missing, placeholder),
+                            Toast.LENGTH_LONG).show();
+                    return;
+                }
+            }
+            StringBuilder body = new StringBuilder(template.getLiteralChars() + 32);
+            template.render(values, body);
+            sms = body.toString();
+        }
+        CheckBox transliterate = (CheckBox) findViewById(R.id.transliterate);
+        if (transliterate.isChecked()) {
+            GsmTransliterator.Result result = GsmTransliterator.transliterate(sms);
+            sms = result.getText();
+            Log.d(TAG, "Replaced " + result.getReplacedCount() + " characters: "
+                    + result.getReplacedChars() + "; no GSM equivalent: "
+                    + result.getUnmappableChars());
+        }
         // Create the intent.
         Intent smsIntent = new Intent(Intent.ACTION_SENDTO);
         // Set the data for the intent as the phone number.
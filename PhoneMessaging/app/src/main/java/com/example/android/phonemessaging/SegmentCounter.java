@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.phonemessaging;
+
+import java.util.ArrayList;
+
+/**
+ * Counts the SMS segments a message body takes, and keeps the count up to
+ * date as the body is edited.
+ *
+ * The body is sent in the GSM 7-bit alphabet if every character is in it,
+ * and in UCS-2 otherwise. The counter keeps three totals: UTF-16 units,
+ * septets of the GSM characters, and characters that GSM cannot encode.
+ * It keeps the septets and unencodable characters after GsmTransliterator
+ * as well, so the count can follow setTransliterate() without a recount.
+ * Each edit only adds or subtracts the characters it touches, so an edit
+ * costs time in its own size, not the size of the body. The encoding,
+ * length, segment count and room left in the last segment then follow
+ * in constant time, as SmsMessage.calculateLength() gives them.
+ *
+ * divideMessage() splits a body into the parts the send engine sends,
+ * without cutting an escape sequence or a surrogate pair in two.
+ *
+ * Plain Java and not thread-safe.
+ */
+public final class SegmentCounter {
+
+    /** Same value as SmsMessage.ENCODING_7BIT. */
+    public static final int ENCODING_7BIT = 1;
+    /** Same value as SmsMessage.ENCODING_16BIT. */
+    public static final int ENCODING_16BIT = 3;
+
+    // Septets in a single GSM message, and in each part of a multipart
+    // message, which loses 7 septets to the concatenation header.
+    private static final int GSM_SINGLE = 160;
+    private static final int GSM_MULTI = 153;
+    // Likewise in UTF-16 units for UCS-2.
+    private static final int UCS2_SINGLE = 70;
+    private static final int UCS2_MULTI = 67;
+
+    private int mUnits;
+    private int mSeptets;
+    private int mNonGsm;
+    private int mTransliteratedSeptets;
+    private int mUnmappable;
+    private boolean mTransliterate;
+
+    /**
+     * Counts a whole body, replacing the previous totals.
+     *
+     * @param text The body.
+     */
+    public void reset(CharSequence text) {
+        mUnits = 0;
+        mSeptets = 0;
+        mNonGsm = 0;
+        mTransliteratedSeptets = 0;
+        mUnmappable = 0;
+        insert(text, 0, text.length());
+    }
+
+    /**
+     * Sets whether the body will go through GsmTransliterator before it is
+     * sent, so that the counts are those of the transliterated body.
+     *
+     * @param transliterate True to count the transliterated body.
+     */
+    public void setTransliterate(boolean transliterate) {
+        mTransliterate = transliterate;
+    }
+
+    /**
+     * Adds characters that were inserted into the body. Call with the text
+     * after the edit, as in TextWatcher.onTextChanged().
+     *
+     * @param text  The body after the edit.
+     * @param start Index of the first inserted character.
+     * @param count Number of inserted characters.
+     */
+    public void insert(CharSequence text, int start, int count) {
+        add(text, start, count, 1);
+    }
+
+    /**
+     * Subtracts characters that are about to be removed from the body.
+     * Call with the text before the edit, as in
+     * TextWatcher.beforeTextChanged().
+     *
+     * @param text  The body before the edit.
+     * @param start Index of the first removed character.
+     * @param count Number of removed characters.
+     */
+    public void remove(CharSequence text, int start, int count) {
+        add(text, start, count, -1);
+    }
+
+    private void add(CharSequence text, int start, int count, int sign) {
+        int septets = 0;
+        int nonGsm = 0;
+        int transliteratedSeptets = 0;
+        int unmappable = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = text.charAt(i);
+            int cost = GsmAlphabet.septetCount(c);
+            if (cost == 0) {
+                nonGsm++;
+                cost = GsmTransliterator.septetCount(c);
+                if (cost < 0) {
+                    unmappable++;
+                } else {
+                    transliteratedSeptets += cost;
+                }
+            } else {
+                septets += cost;
+                transliteratedSeptets += cost;
+            }
+        }
+        mUnits += sign * count;
+        mSeptets += sign * septets;
+        mNonGsm += sign * nonGsm;
+        mTransliteratedSeptets += sign * transliteratedSeptets;
+        mUnmappable += sign * unmappable;
+    }
+
+    /**
+     * @return True if the body is sent as GSM 7-bit.
+     */
+    private boolean isGsm() {
+        return mNonGsm == 0 || (mTransliterate && mUnmappable == 0);
+    }
+
+    /**
+     * @return ENCODING_7BIT or ENCODING_16BIT.
+     */
+    public int getEncoding() {
+        return isGsm() ? ENCODING_7BIT : ENCODING_16BIT;
+    }
+
+    /**
+     * @return The length of the body in septets for 7-bit, or in UTF-16
+     * units for UCS-2.
+     */
+    public int getLength() {
+        if (mNonGsm == 0) {
+            return mSeptets;
+        }
+        return isGsm() ? mTransliteratedSeptets : mUnits;
+    }
+
+    /**
+     * @return The number of segments, at least 1.
+     */
+    public int getSegmentCount() {
+        return segmentCount(getLength(), isGsm());
+    }
+
+    /**
+     * @return Septets or UTF-16 units left before the body needs another
+     * segment.
+     */
+    public int getRemainingInSegment() {
+        boolean gsm = isGsm();
+        int length = getLength();
+        int segments = segmentCount(length, gsm);
+        if (segments == 1) {
+            return (gsm ? GSM_SINGLE : UCS2_SINGLE) - length;
+        }
+        return (gsm ? GSM_MULTI : UCS2_MULTI) * segments - length;
+    }
+
+    private static int segmentCount(int length, boolean gsm) {
+        int single = gsm ? GSM_SINGLE : UCS2_SINGLE;
+        int multi = gsm ? GSM_MULTI : UCS2_MULTI;
+        return length <= single ? 1 : (length + multi - 1) / multi;
+    }
+
+    /**
+     * Splits a body into the parts it is sent as.
+     *
+     * @param text The body.
+     * @return The parts, in order; one part if the body fits in one SMS.
+     */
+    public static ArrayList<String> divideMessage(String text) {
+        SegmentCounter counter = new SegmentCounter();
+        counter.reset(text);
+        ArrayList<String> parts = new ArrayList<>(counter.getSegmentCount());
+        boolean gsm = counter.getEncoding() == ENCODING_7BIT;
+        if (counter.getLength() <= (gsm ? GSM_SINGLE : UCS2_SINGLE)) {
+            parts.add(text);
+            return parts;
+        }
+        int limit = gsm ? GSM_MULTI : UCS2_MULTI;
+        int start = 0;
+        int used = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int cost = gsm ? GsmAlphabet.septetCount(c) : 1;
+            // Keep a surrogate pair in one part.
+            if (!gsm && Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                cost = 2;
+            }
+            if (used + cost > limit) {
+                parts.add(text.substring(start, i));
+                start = i;
+                used = 0;
+            }
+            used += cost;
+            if (cost == 2 && !gsm) {
+                i++;
+            }
+        }
+        parts.add(text.substring(start));
+        return parts;
+    }
+}
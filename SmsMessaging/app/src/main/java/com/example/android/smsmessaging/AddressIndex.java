@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+import java.util.Arrays;
+
+/**
+ * Maps 64-bit address hashes to the positions of the records with that
+ * address, newest first, using only primitive arrays.
+ *
+ * Keys live in an open-addressing table that points at the newest record
+ * for the key; each record points at the previous record with the same key.
+ * That is 12 bytes per record and 12 bytes per distinct key, with O(1)
+ * appends and lookups that only visit matching records. Not thread-safe.
+ */
+public final class AddressIndex {
+
+    /** Returned by head() and next() when there are no more records. */
+    public static final int NONE = -1;
+
+    private long[] mKeys = new long[64];
+    private int[] mHeads = new int[64];
+    private int mKeyCount;
+
+    private long[] mPositions = new long[256];
+    private int[] mNext = new int[256];
+    private int mRecordCount;
+
+    /**
+     * Hashes a normalized address with 64-bit FNV-1a.
+     *
+     * @param address The normalized address.
+     * @return The hash; never 0, which marks an empty table slot.
+     */
+    public static long hash(CharSequence address) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < address.length(); i++) {
+            h ^= address.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h != 0 ? h : 1;
+    }
+
+    /**
+     * Adds a record.
+     *
+     * @param key      Address hash from hash().
+     * @param position Position of the record in the store.
+     * @return The record number.
+     */
+    public int add(long key, long position) {
+        if (mRecordCount == mPositions.length) {
+            mPositions = Arrays.copyOf(mPositions, mRecordCount * 2);
+            mNext = Arrays.copyOf(mNext, mRecordCount * 2);
+        }
+        if ((mKeyCount + 1) * 4 > mKeys.length * 3) {
+            rehash(mKeys.length * 2);
+        }
+        int record = mRecordCount++;
+        mPositions[record] = position;
+        int slot = slot(mKeys, key);
+        if (mKeys[slot] == 0) {
+            mKeys[slot] = key;
+            mKeyCount++;
+            mNext[record] = NONE;
+        } else {
+            mNext[record] = mHeads[slot];
+        }
+        mHeads[slot] = record;
+        return record;
+    }
+
+    /**
+     * @param key Address hash from hash().
+     * @return The newest record for the key, or NONE.
+     */
+    public int head(long key) {
+        int slot = slot(mKeys, key);
+        return mKeys[slot] == 0 ? NONE : mHeads[slot];
+    }
+
+    /**
+     * @param record A record number.
+     * @return The next older record with the same key, or NONE.
+     */
+    public int next(int record) {
+        return mNext[record];
+    }
+
+    /**
+     * @param record A record number.
+     * @return The position passed to add() for the record.
+     */
+    public long position(int record) {
+        return mPositions[record];
+    }
+
+    public int recordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * Finds the slot holding the key, or the empty slot where it belongs.
+     */
+    private static int slot(long[] keys, long key) {
+        int mask = keys.length - 1;
+        int slot = (int) (key ^ (key >>> 32)) & mask;
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        long[] keys = new long[capacity];
+        int[] heads = new int[capacity];
+        for (int i = 0; i < mKeys.length; i++) {
+            if (mKeys[i] != 0) {
+                int slot = slot(keys, mKeys[i]);
+                keys[slot] = mKeys[i];
+                heads[slot] = mHeads[i];
+            }
+        }
+        mKeys = keys;
+        mHeads = heads;
+    }
+}
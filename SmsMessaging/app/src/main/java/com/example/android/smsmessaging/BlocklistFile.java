@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+import android.os.FileObserver;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Holds the NumberBlocklist read from a file, and swaps in a new one when
+ * the file changes.
+ *
+ * Lookups never touch the disk: a FileObserver on the file's directory
+ * reports changes, and the file is read on a background thread while
+ * lookups keep using the previous blocklist. Until the first read
+ * finishes, that is an empty blocklist. A missing file blocks nothing.
+ *
+ * Thread-safe.
+ */
+public final class BlocklistFile {
+
+    private static final String TAG = BlocklistFile.class.getSimpleName();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int FILE_EVENTS = FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO
+            | FileObserver.MOVED_FROM | FileObserver.DELETE;
+
+    private final File mFile;
+    private final PhoneNumberNormalizer mNormalizer;
+    // Kept in a field: an observer that is garbage collected stops watching.
+    private final FileObserver mObserver;
+    private final AtomicBoolean mLoading = new AtomicBoolean();
+    // Set when the file changes while it is being read.
+    private final AtomicBoolean mChanged = new AtomicBoolean();
+    private volatile NumberBlocklist mBlocklist = NumberBlocklist.EMPTY;
+
+    /**
+     * Starts watching the file and reading it in the background.
+     *
+     * @param file       The blocklist file, in the format read by NumberBlocklist.parse().
+     * @param normalizer Normalizes the numbers in the file and those looked up.
+     */
+    public BlocklistFile(File file, PhoneNumberNormalizer normalizer) {
+        mFile = file;
+        mNormalizer = normalizer;
+        mObserver = new FileObserver(file.getParent(), FILE_EVENTS) {
+            @Override
+            public void onEvent(int event, String path) {
+                if (mFile.getName().equals(path)) {
+                    reload();
+                }
+            }
+        };
+        mObserver.startWatching();
+        reload();
+    }
+
+    /**
+     * Returns the current blocklist. Reads only memory.
+     *
+     * @return The blocklist.
+     */
+    public NumberBlocklist current() {
+        return mBlocklist;
+    }
+
+    /**
+     * @param number A number as received or dialed.
+     * @return True if the current blocklist blocks it.
+     */
+    public boolean isBlocked(String number) {
+        return number != null && !number.isEmpty()
+                && mBlocklist.isBlocked(mNormalizer.normalize(number));
+    }
+
+    /**
+     * Reads the file on a background thread, unless a read is already
+     * running; that read then goes again once it is done.
+     */
+    private void reload() {
+        mChanged.set(true);
+        if (!mLoading.compareAndSet(false, true)) {
+            return;
+        }
+        Thread loader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (mChanged.getAndSet(false)) {
+                        load();
+                    }
+                } finally {
+                    mLoading.set(false);
+                }
+                // A change that came in after the last check.
+                if (mChanged.get()) {
+                    reload();
+                }
+            }
+        }, TAG);
+        loader.setDaemon(true);
+        loader.setPriority(Thread.MIN_PRIORITY);
+        loader.start();
+    }
+
+    /**
+     * Reads the file and publishes the blocklist. A file that cannot be
+     * read keeps the previous blocklist until it changes again.
+     */
+    private void load() {
+        if (!mFile.exists()) {
+            mBlocklist = NumberBlocklist.EMPTY;
+        } else {
+            try {
+                InputStreamReader in = new InputStreamReader(new FileInputStream(mFile), UTF_8);
+                try {
+                    NumberBlocklist blocklist = NumberBlocklist.parse(in, mNormalizer);
+                    mBlocklist = blocklist;
+                    Log.d(TAG, "Loaded " + blocklist.size() + " numbers and "
+                            + blocklist.getPrefixCount() + " prefixes, "
+                            + blocklist.getMemoryBytes() / 1024 + " KB");
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot read " + mFile, e);
+            }
+        }
+    }
+}
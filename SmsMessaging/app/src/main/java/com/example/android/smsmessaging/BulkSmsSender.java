@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends a message body, or a personalized body each, to a list of
+ * recipients on a background executor, paced by a TokenBucket that
+ * charges one permit per SMS segment.
+ *
+ * Every message goes through a durable Outbox: send() records the batch
+ * on disk, and the dispatcher takes due messages from the outbox, marks
+ * them dispatched and hands them to the transport. Sent reports come back
+ * through onSentReport(); temporary failures are rescheduled by the outbox
+ * with backoff. Each message is also registered with a DeliveryTracker
+ * under its outbox ID.
+ *
+ * All outbox access happens on the executor, which must be single-threaded.
+ * Plain Java: the SmsTransport can be a fake.
+ */
+public final class BulkSmsSender {
+
+    // Messages still waiting for reports after this long are dropped from
+    // the tracker, and failed by the outbox when it is next opened.
+    private static final long REPORT_TIMEOUT_NANOS = TimeUnit.HOURS.toNanos(24);
+    // Retry policy for temporary failures.
+    private static final long RETRY_BASE_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final long RETRY_MAX_DELAY_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final int MAX_ATTEMPTS = 8;
+
+    /**
+     * Progress callbacks, called on the executor thread.
+     */
+    public interface Listener {
+        /**
+         * @param destination The recipient.
+         * @param segments    Number of SMS segments handed to the transport.
+         */
+        void onSent(String destination, int segments);
+
+        /**
+         * Called when every part of a message has been reported sent.
+         *
+         * @param sms The message.
+         */
+        void onMessageSent(SentSms sms);
+
+        /**
+         * Called when a message fails for good.
+         *
+         * @param destination The recipient, or null if only the ID is known.
+         * @param error       The error, or null for a failed sent report.
+         */
+        void onFailed(String destination, Exception error);
+
+        /**
+         * Called when no more messages are due for now.
+         *
+         * @param sent   Number of messages handed to the transport in this pass.
+         * @param failed Number of messages that failed in this pass.
+         */
+        void onFinished(int sent, int failed);
+    }
+
+    private final SmsTransport mTransport;
+    private final TokenBucket mRateLimit;
+    private final ScheduledExecutorService mExecutor;
+    private final DeliveryTracker mTracker;
+    private final File mOutboxDir;
+    private volatile Listener mListener;
+
+    // Only touched on the executor.
+    private Outbox mOutbox;
+    private ScheduledFuture<?> mNextDispatch;
+    // The next message, held until the rate limit allows it.
+    private Outbox.Entry mHeld;
+    private ArrayList<String> mHeldParts;
+    private long mHeldUntilNanos;
+    private String mLastBody;
+    private ArrayList<String> mLastParts;
+    private int mSentInPass;
+    private int mFailedInPass;
+    private final Runnable mDispatch = new Runnable() {
+        @Override
+        public void run() {
+            dispatch();
+        }
+    };
+
+    /**
+     * @param transport The transport that does the sending.
+     * @param rateLimit Limits the rate of segments sent.
+     * @param executor  Single-threaded executor that runs the dispatcher.
+     * @param tracker   Tracks the sent and delivery reports of each message.
+     * @param outboxDir Directory of the durable outbox, opened on the executor.
+     */
+    public BulkSmsSender(SmsTransport transport, TokenBucket rateLimit,
+                         ScheduledExecutorService executor, DeliveryTracker tracker,
+                         File outboxDir) {
+        mTransport = transport;
+        mRateLimit = rateLimit;
+        mExecutor = executor;
+        mTracker = tracker;
+        mOutboxDir = outboxDir;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Queues a message for a list of recipients and returns at once. The
+     * batch is written to the outbox before anything is sent.
+     *
+     * @param recipients The destination addresses.
+     * @param body       The message body.
+     */
+    public void send(List<String> recipients, String body) {
+        send(recipients, Collections.nCopies(recipients.size(), body));
+    }
+
+    /**
+     * Queues a personalized message for each recipient and returns at once.
+     * The batch is written to the outbox before anything is sent.
+     *
+     * @param recipients The destination addresses.
+     * @param bodies     The message body of each recipient.
+     */
+    public void send(List<String> recipients, List<String> bodies) {
+        final ArrayList<String> destinations = new ArrayList<>(recipients);
+        final ArrayList<String> batchBodies = new ArrayList<>(bodies);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    outbox().enqueue(destinations, batchBodies, System.currentTimeMillis());
+                } catch (IOException e) {
+                    notifyFailed(null, e);
+                    return;
+                }
+                dispatch();
+            }
+        });
+    }
+
+    /**
+     * Opens the outbox if needed and sends whatever is due, e.g. after
+     * the process restarts.
+     */
+    public void resume() {
+        mExecutor.execute(mDispatch);
+    }
+
+    /**
+     * Passes a sent report for one part of a message to the outbox, which
+     * may schedule a retry.
+     *
+     * @param id        The message ID.
+     * @param attempt   The attempt the report belongs to.
+     * @param success   Whether the part was sent.
+     * @param retryable Whether a failure may be temporary.
+     */
+    public void onSentReport(final long id, final int attempt, final boolean success,
+                             final boolean retryable) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Outbox outbox = outbox();
+                    long nowMillis = System.currentTimeMillis();
+                    int status = outbox.onReport(id, attempt, success, retryable, nowMillis);
+                    if (status == Outbox.STATUS_SENT) {
+                        Outbox.Entry entry = outbox.getLastSent();
+                        Listener listener = mListener;
+                        if (listener != null) {
+                            listener.onMessageSent(new SentSms(entry.getDestination(),
+                                    entry.getBody(), nowMillis));
+                        }
+                    } else if (status == Outbox.STATUS_FAILED) {
+                        mTracker.onFailed(id, attempt);
+                        notifyFailed(null, null);
+                    } else if (status == Outbox.STATUS_PENDING) {
+                        // A retry was scheduled.
+                        dispatch();
+                    }
+                } catch (IOException e) {
+                    notifyFailed(null, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops accepting work; queued tasks still run.
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    private Outbox outbox() throws IOException {
+        if (mOutbox == null) {
+            mOutbox = new Outbox(mOutboxDir, RETRY_BASE_DELAY_MILLIS,
+                    RETRY_MAX_DELAY_MILLIS, MAX_ATTEMPTS,
+                    TimeUnit.NANOSECONDS.toMillis(REPORT_TIMEOUT_NANOS),
+                    System.currentTimeMillis());
+        }
+        return mOutbox;
+    }
+
+    /**
+     * Sends messages while they are due and the rate limit allows. When
+     * the rate limit says to wait, the next message is held and the
+     * dispatcher reschedules itself instead of blocking the executor, so
+     * sent reports keep being processed during a long run.
+     */
+    private void dispatch() {
+        if (mNextDispatch != null) {
+            mNextDispatch.cancel(false);
+            mNextDispatch = null;
+        }
+        Outbox outbox;
+        try {
+            outbox = outbox();
+            while (true) {
+                if (mHeld == null) {
+                    Outbox.Entry entry = outbox.poll(System.currentTimeMillis());
+                    if (entry == null) {
+                        break;
+                    }
+                    mHeld = entry;
+                    mHeldParts = divideMessage(entry.getBody());
+                    long waitNanos = mRateLimit.reserve(Math.max(mHeldParts.size(), 1),
+                            System.nanoTime());
+                    mHeldUntilNanos = System.nanoTime() + waitNanos;
+                }
+                long waitNanos = mHeldUntilNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    mNextDispatch = mExecutor.schedule(mDispatch, waitNanos,
+                            TimeUnit.NANOSECONDS);
+                    return;
+                }
+                Outbox.Entry entry = mHeld;
+                mHeld = null;
+                sendOne(outbox, entry, mHeldParts);
+            }
+        } catch (IOException e) {
+            notifyFailed(null, e);
+            return;
+        }
+        mTracker.expire(REPORT_TIMEOUT_NANOS, System.nanoTime());
+        long nextDue = outbox.nextDueMillis();
+        if (nextDue != Long.MAX_VALUE) {
+            long delay = Math.max(0, nextDue - System.currentTimeMillis());
+            mNextDispatch = mExecutor.schedule(mDispatch, delay, TimeUnit.MILLISECONDS);
+        }
+        Listener listener = mListener;
+        if (listener != null && (mSentInPass > 0 || mFailedInPass > 0)) {
+            listener.onFinished(mSentInPass, mFailedInPass);
+        }
+        mSentInPass = 0;
+        mFailedInPass = 0;
+    }
+
+    /**
+     * Divides a body into parts, reusing the last result since consecutive
+     * messages in a batch share the body.
+     */
+    private ArrayList<String> divideMessage(String body) {
+        if (!body.equals(mLastBody)) {
+            mLastParts = mTransport.divideMessage(body);
+            mLastBody = body;
+        }
+        return mLastParts;
+    }
+
+    /**
+     * Hands one message to the transport.
+     */
+    private void sendOne(Outbox outbox, Outbox.Entry entry, ArrayList<String> parts)
+            throws IOException {
+        String destination = entry.getDestination();
+        int segments = Math.max(parts.size(), 1);
+        outbox.markDispatched(entry, segments, System.currentTimeMillis());
+        mTracker.onSubmitted(entry.getId(), entry.getAttempt(), segments, System.nanoTime());
+        try {
+            if (parts.size() > 1) {
+                mTransport.sendMultipartTextMessage(destination, parts,
+                        entry.getId(), entry.getAttempt());
+            } else {
+                mTransport.sendTextMessage(destination, entry.getBody(),
+                        entry.getId(), entry.getAttempt());
+            }
+        } catch (RuntimeException e) {
+            // SmsManager throws IllegalArgumentException for a bad address.
+            if (outbox.onReport(entry.getId(), entry.getAttempt(), false, false,
+                    System.currentTimeMillis()) == Outbox.STATUS_FAILED) {
+                mTracker.onFailed(entry.getId(), entry.getAttempt());
+            }
+            mFailedInPass++;
+            notifyFailed(destination, e);
+            return;
+        }
+        mSentInPass++;
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onSent(destination, segments);
+        }
+    }
+
+    private void notifyFailed(String destination, Exception error) {
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onFailed(destination, error);
+        }
+    }
+}
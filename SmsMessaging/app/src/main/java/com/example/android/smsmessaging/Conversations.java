@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Groups the messages of an InboxStore into conversation threads, one per
+ * normalized address, and keeps a summary of each thread: its last message
+ * and how many received messages are unread.
+ *
+ * Summaries are updated as messages are added. Each batch appends the
+ * summaries it changed to a log file, with the number of records they
+ * cover, so saving costs the threads touched rather than every thread.
+ * Opening replays the log, keeping the newest summary of each thread, and
+ * only reads the last message of each thread and any records appended
+ * since the last save. A block cut short by a crash is dropped and its
+ * records applied again. The log is rewritten with one summary per thread
+ * when it has grown to a few times that. Threads themselves are read a
+ * page at a time with getPage().
+ *
+ * Plain Java; all methods are synchronized and do disk I/O, so call them
+ * off the main thread.
+ */
+public final class Conversations {
+
+    /**
+     * A thread's last message and unread count.
+     */
+    public static final class Summary {
+        private final String mAddress;
+        private final String mLastBody;
+        private final long mLastMillis;
+        private final boolean mLastSent;
+        private final int mLastRecord;
+        private final int mUnreadCount;
+
+        Summary(String address, String lastBody, long lastMillis, boolean lastSent,
+                int lastRecord, int unreadCount) {
+            mAddress = address;
+            mLastBody = lastBody;
+            mLastMillis = lastMillis;
+            mLastSent = lastSent;
+            mLastRecord = lastRecord;
+            mUnreadCount = unreadCount;
+        }
+
+        /**
+         * @return The normalized address of the thread.
+         */
+        public String getAddress() {
+            return mAddress;
+        }
+
+        public String getLastBody() {
+            return mLastBody;
+        }
+
+        /**
+         * @return Wall-clock time the last message was received or sent.
+         */
+        public long getLastMillis() {
+            return mLastMillis;
+        }
+
+        /**
+         * @return Whether the last message was sent rather than received.
+         */
+        public boolean isLastSent() {
+            return mLastSent;
+        }
+
+        public int getUnreadCount() {
+            return mUnreadCount;
+        }
+    }
+
+    private static final Comparator<Summary> NEWEST_FIRST = new Comparator<Summary>() {
+        @Override
+        public int compare(Summary a, Summary b) {
+            // Record numbers follow the order the messages were added.
+            return b.mLastRecord - a.mLastRecord;
+        }
+    };
+
+    // The log is rewritten once it holds more summaries than this many
+    // per thread, plus the slack.
+    private static final int LOG_SUMMARIES_PER_THREAD = 4;
+    private static final int LOG_SLACK = 64;
+
+    private final InboxStore mStore;
+    private final PhoneNumberNormalizer mNormalizer;
+    private final File mFile;
+    private final HashMap<String, Summary> mSummaries = new HashMap<>();
+    // Threads changed since the last save, in the order they changed.
+    private final LinkedHashSet<String> mChanged = new LinkedHashSet<>();
+    // Summaries in the log, and whether it must be rewritten before the
+    // next append because its tail is torn or out of date.
+    private int mLogSize;
+    private boolean mRewriteLog;
+
+    /**
+     * Loads the saved summaries and brings them up to date with the store.
+     *
+     * @param store      The store holding the messages.
+     * @param normalizer The normalizer the store was opened with.
+     * @param file       File the summary log is kept in.
+     * @throws IOException if the store cannot be read.
+     */
+    public Conversations(InboxStore store, PhoneNumberNormalizer normalizer, File file)
+            throws IOException {
+        mStore = store;
+        mNormalizer = normalizer;
+        mFile = file;
+        int covered = load();
+        for (int record = covered; record < store.size(); record++) {
+            ReceivedSms sms = store.readRecord(record);
+            apply(record, sms.getAddress(), sms.getBody(), sms.getReceivedMillis(),
+                    store.isSentRecord(record));
+        }
+        if (!mChanged.isEmpty() || mRewriteLog) {
+            save();
+        }
+    }
+
+    /**
+     * Adds a batch of received messages to the store and their threads.
+     *
+     * @param messages The messages.
+     * @throws IOException if the store or the summaries cannot be written.
+     */
+    public synchronized void addReceived(List<ReceivedSms> messages) throws IOException {
+        for (int i = 0; i < messages.size(); i++) {
+            ReceivedSms sms = messages.get(i);
+            mStore.append(sms);
+            apply(mStore.size() - 1, sms.getAddress(), sms.getBody(),
+                    sms.getReceivedMillis(), false);
+        }
+        mStore.flush();
+        save();
+    }
+
+    /**
+     * Adds a batch of sent messages to the store and their threads.
+     *
+     * @param messages The messages.
+     * @throws IOException if the store or the summaries cannot be written.
+     */
+    public synchronized void addSent(List<SentSms> messages) throws IOException {
+        for (int i = 0; i < messages.size(); i++) {
+            SentSms sms = messages.get(i);
+            mStore.append(sms);
+            apply(mStore.size() - 1, sms.getDestination(), sms.getBody(),
+                    sms.getSentMillis(), true);
+        }
+        mStore.flush();
+        save();
+    }
+
+    /**
+     * @return A summary of each thread, most recent first.
+     */
+    public synchronized List<Summary> getThreads() {
+        ArrayList<Summary> threads = new ArrayList<>(mSummaries.values());
+        Collections.sort(threads, NEWEST_FIRST);
+        return threads;
+    }
+
+    /**
+     * @param address The address, in any format the normalizer accepts.
+     * @return The thread's summary, or null if there are no messages.
+     */
+    public synchronized Summary getThread(String address) {
+        return mSummaries.get(mNormalizer.normalize(address));
+    }
+
+    /**
+     * Reads one page of a thread, newest first.
+     *
+     * @param address The address, in any format the normalizer accepts.
+     * @param cursor  InboxStore.THREAD_START for the newest page, or the
+     *                next cursor of the previous page.
+     * @param limit   Maximum number of messages in the page.
+     * @return The page.
+     * @throws IOException if the store cannot be read.
+     */
+    public synchronized InboxStore.ThreadPage getPage(String address, int cursor, int limit)
+            throws IOException {
+        return mStore.readThread(address, cursor, limit);
+    }
+
+    /**
+     * Marks every message of a thread as read.
+     *
+     * @param address The address, in any format the normalizer accepts.
+     * @throws IOException if the summaries cannot be saved.
+     */
+    public synchronized void markRead(String address) throws IOException {
+        String normalized = mNormalizer.normalize(address);
+        Summary summary = mSummaries.get(normalized);
+        if (summary == null || summary.mUnreadCount == 0) {
+            return;
+        }
+        mSummaries.put(normalized, new Summary(normalized, summary.mLastBody,
+                summary.mLastMillis, summary.mLastSent, summary.mLastRecord, 0));
+        mChanged.add(normalized);
+        save();
+    }
+
+    /**
+     * Updates the summary of a message's thread.
+     */
+    private void apply(int record, String rawAddress, String body, long millis,
+                       boolean sent) {
+        String address = mNormalizer.normalize(rawAddress);
+        Summary summary = mSummaries.get(address);
+        int unread = summary != null ? summary.mUnreadCount : 0;
+        if (!sent) {
+            unread++;
+        }
+        mSummaries.put(address, new Summary(address, body, millis, sent, record, unread));
+        mChanged.add(address);
+    }
+
+    /**
+     * Replays the summary log and reads the last message of each thread.
+     *
+     * @return The number of records the summaries cover.
+     */
+    private int load() throws IOException {
+        if (!mFile.exists()) {
+            return 0;
+        }
+        byte[] bytes = new byte[(int) mFile.length()];
+        DataInputStream file = new DataInputStream(new FileInputStream(mFile));
+        try {
+            file.readFully(bytes);
+        } finally {
+            file.close();
+        }
+        ByteArrayInputStream buffer = new ByteArrayInputStream(bytes);
+        DataInputStream in = new DataInputStream(buffer);
+        // Last record and unread count of each thread, newest block last.
+        HashMap<String, int[]> latest = new HashMap<>();
+        ArrayList<String> blockAddresses = new ArrayList<>();
+        ArrayList<int[]> blockValues = new ArrayList<>();
+        int covered = 0;
+        try {
+            while (buffer.available() > 0) {
+                int blockCovered = in.readInt();
+                int count = in.readInt();
+                blockAddresses.clear();
+                blockValues.clear();
+                for (int i = 0; i < count; i++) {
+                    blockAddresses.add(in.readUTF());
+                    blockValues.add(new int[] {in.readInt(), in.readInt()});
+                }
+                // Only a complete block counts.
+                for (int i = 0; i < count; i++) {
+                    latest.put(blockAddresses.get(i), blockValues.get(i));
+                }
+                covered = blockCovered;
+                mLogSize += count;
+            }
+        } catch (EOFException e) {
+            // Torn by a crash; its records are applied again.
+            mRewriteLog = true;
+        }
+        if (covered > mStore.size()) {
+            // The store lost records the summaries counted; recount.
+            mRewriteLog = true;
+            return 0;
+        }
+        for (String address : latest.keySet()) {
+            int lastRecord = latest.get(address)[0];
+            ReceivedSms last = mStore.readRecord(lastRecord);
+            mSummaries.put(address, new Summary(address, last.getBody(),
+                    last.getReceivedMillis(), mStore.isSentRecord(lastRecord), lastRecord,
+                    latest.get(address)[1]));
+        }
+        return covered;
+    }
+
+    /**
+     * Appends the changed summaries to the log, or rewrites it with every
+     * summary when it is torn or has grown too long.
+     */
+    private void save() throws IOException {
+        if (mRewriteLog
+                || mLogSize > LOG_SUMMARIES_PER_THREAD * mSummaries.size() + LOG_SLACK) {
+            rewriteLog();
+        } else if (!mChanged.isEmpty()) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(mFile, true)));
+            try {
+                writeBlock(out, mChanged);
+            } catch (IOException e) {
+                // The block may be half written; start over next time.
+                mRewriteLog = true;
+                throw e;
+            } finally {
+                out.close();
+            }
+            mLogSize += mChanged.size();
+        }
+        mChanged.clear();
+    }
+
+    private void rewriteLog() throws IOException {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            writeBlock(out, mSummaries.keySet());
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(mFile)) {
+            throw new IOException("Cannot write " + mFile);
+        }
+        mLogSize = mSummaries.size();
+        mRewriteLog = false;
+    }
+
+    /**
+     * Writes one block of the log: the records covered, then the summaries
+     * of the given threads.
+     */
+    private void writeBlock(DataOutputStream out, Collection<String> addresses)
+            throws IOException {
+        out.writeInt(mStore.size());
+        out.writeInt(addresses.size());
+        for (String address : addresses) {
+            Summary summary = mSummaries.get(address);
+            out.writeUTF(summary.mAddress);
+            out.writeInt(summary.mLastRecord);
+            out.writeInt(summary.mUnreadCount);
+        }
+    }
+}
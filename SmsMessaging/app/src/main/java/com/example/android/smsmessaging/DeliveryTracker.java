@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Matches sent and delivery reports to outbound messages, and records
+ * submit-to-sent and sent-to-delivered latencies in milliseconds.
+ *
+ * In-flight messages live in a ConcurrentHashMap keyed by message ID, and
+ * each one counts its reported parts with atomics, so the sender thread
+ * and the report receivers never share a lock. An entry belongs to one
+ * attempt: a retry replaces it, and reports for other attempts are
+ * ignored. A failed send is counted only once the outbox gives up on the
+ * message (onFailed()), not while it may still be retried.
+ */
+public final class DeliveryTracker {
+
+    private final ConcurrentHashMap<Long, InFlight> mInFlight = new ConcurrentHashMap<>();
+    private final LatencyHistogram mSubmitToSent = new LatencyHistogram();
+    private final LatencyHistogram mSentToDelivered = new LatencyHistogram();
+    private final AtomicLong mFailed = new AtomicLong();
+
+    /**
+     * A message waiting for its reports.
+     */
+    private static final class InFlight {
+        final int attempt;
+        final int parts;
+        final long submitNanos;
+        final AtomicInteger sentParts = new AtomicInteger();
+        final AtomicInteger deliveredParts = new AtomicInteger();
+        volatile long sentNanos;
+
+        InFlight(int attempt, int parts, long submitNanos) {
+            this.attempt = attempt;
+            this.parts = parts;
+            this.submitNanos = submitNanos;
+        }
+    }
+
+    /**
+     * Registers a message that is about to be handed to the transport.
+     * A retry replaces the earlier attempt.
+     *
+     * @param id       The message ID attached to its sent and delivery reports.
+     * @param attempt  The attempt attached to its reports.
+     * @param parts    Number of SMS parts in the message.
+     * @param nowNanos Current time from System.nanoTime().
+     */
+    public void onSubmitted(long id, int attempt, int parts, long nowNanos) {
+        mInFlight.put(id, new InFlight(attempt, Math.max(parts, 1), nowNanos));
+    }
+
+    /**
+     * Handles the sent report for one part. A failure is left to the
+     * outbox, which may retry the message.
+     *
+     * @param id       The message ID.
+     * @param attempt  The attempt the report belongs to.
+     * @param success  Whether the part left the device.
+     * @param nowNanos Current time from System.nanoTime().
+     */
+    public void onSent(long id, int attempt, boolean success, long nowNanos) {
+        InFlight message = get(id, attempt);
+        if (success && message != null
+                && message.sentParts.incrementAndGet() == message.parts) {
+            message.sentNanos = nowNanos;
+            mSubmitToSent.record(toMillis(nowNanos - message.submitNanos));
+        }
+    }
+
+    /**
+     * Handles the delivery report for one part. A failed delivery is
+     * permanent, so the message is counted as failed.
+     *
+     * @param id       The message ID.
+     * @param attempt  The attempt the report belongs to.
+     * @param success  Whether the part reached the recipient.
+     * @param nowNanos Current time from System.nanoTime().
+     */
+    public void onDelivered(long id, int attempt, boolean success, long nowNanos) {
+        if (!success) {
+            onFailed(id, attempt);
+            return;
+        }
+        InFlight message = get(id, attempt);
+        if (message != null && message.deliveredParts.incrementAndGet() == message.parts) {
+            mInFlight.remove(id, message);
+            // A delivery report can overtake the last sent report.
+            long sentNanos = message.sentNanos != 0 ? message.sentNanos : nowNanos;
+            mSentToDelivered.record(toMillis(nowNanos - sentNanos));
+        }
+    }
+
+    /**
+     * Drops a message that failed for good: the outbox gave up sending
+     * it, or it was not delivered.
+     *
+     * @param id      The message ID.
+     * @param attempt The attempt that failed.
+     */
+    public void onFailed(long id, int attempt) {
+        InFlight message = get(id, attempt);
+        if (message != null && mInFlight.remove(id, message)) {
+            mFailed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drops messages still waiting for reports after a time limit, since
+     * some carriers never send delivery reports.
+     *
+     * @param maxAgeNanos Time limit since submission.
+     * @param nowNanos    Current time from System.nanoTime().
+     */
+    public void expire(long maxAgeNanos, long nowNanos) {
+        for (Iterator<InFlight> it = mInFlight.values().iterator(); it.hasNext(); ) {
+            if (nowNanos - it.next().submitNanos > maxAgeNanos) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @return Latency from handing a message to the transport until all its
+     *         parts were reported sent, in milliseconds.
+     */
+    public LatencyHistogram getSubmitToSent() {
+        return mSubmitToSent;
+    }
+
+    /**
+     * @return Latency from a message being sent until all its parts were
+     *         reported delivered, in milliseconds.
+     */
+    public LatencyHistogram getSentToDelivered() {
+        return mSentToDelivered;
+    }
+
+    public int getInFlightCount() {
+        return mInFlight.size();
+    }
+
+    public long getFailedCount() {
+        return mFailed.get();
+    }
+
+    @Override
+    public String toString() {
+        return "submit->sent [" + mSubmitToSent + "], sent->delivered ["
+                + mSentToDelivered + "], in flight " + getInFlightCount()
+                + ", failed " + getFailedCount();
+    }
+
+    /**
+     * @return The in-flight entry for this attempt at a message, or null.
+     */
+    private InFlight get(long id, int attempt) {
+        InFlight message = mInFlight.get(id);
+        return message != null && message.attempt == attempt ? message : null;
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
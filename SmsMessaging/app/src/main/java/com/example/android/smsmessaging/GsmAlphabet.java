@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+/**
+ * Lookup tables for the GSM 7-bit default alphabet and its extension table
+ * (3GPP TS 23.038), in both directions. Plain Java so it can be used
+ * off-device.
+ */
+public final class GsmAlphabet {
+
+    /** Septet that switches to the extension table for the next septet. */
+    public static final int ESCAPE = 0x1B;
+
+    /** Default alphabet, indexed by septet value. */
+    private static final char[] BASIC = (
+            "@£$¥èéùìòÇ\nØø\rÅå"
+            + "Δ_ΦΓΛΩΠΨΣΘΞ ÆæßÉ"
+            + " !\"#¤%&'()*+,-./"
+            + "0123456789:;<=>?"
+            + "¡ABCDEFGHIJKLMNO"
+            + "PQRSTUVWXYZÄÖÑÜ§"
+            + "¿abcdefghijklmno"
+            + "pqrstuvwxyzäöñüà").toCharArray();
+
+    /** Extension table, indexed by the septet that follows ESCAPE. 0 means unused. */
+    private static final char[] EXTENSION = new char[128];
+
+    /** Septets needed for each Latin-1 character: 1, 2 with ESCAPE, or 0 if none. */
+    private static final byte[] LATIN1_SEPTETS = new byte[256];
+
+    /** Default-alphabet characters above Latin-1, which all take one septet. */
+    private static final String GREEK = "ΔΦΓΛΩΠΨΣΘΞ";
+
+    static {
+        EXTENSION[0x0A] = '\f';
+        EXTENSION[0x14] = '^';
+        EXTENSION[0x28] = '{';
+        EXTENSION[0x29] = '}';
+        EXTENSION[0x2F] = '\\';
+        EXTENSION[0x3C] = '[';
+        EXTENSION[0x3D] = '~';
+        EXTENSION[0x3E] = ']';
+        EXTENSION[0x40] = '|';
+        EXTENSION[0x65] = '€';
+        for (int septet = 0; septet < 128; septet++) {
+            char extended = EXTENSION[septet];
+            if (extended != 0 && extended < 256) {
+                LATIN1_SEPTETS[extended] = 2;
+            }
+        }
+        for (char c : BASIC) {
+            if (c < 256) {
+                LATIN1_SEPTETS[c] = 1;
+            }
+        }
+    }
+
+    private GsmAlphabet() {
+    }
+
+    /**
+     * Returns the character for a septet in the default alphabet.
+     *
+     * @param septet Septet value (0-127).
+     * @return The character.
+     */
+    public static char toChar(int septet) {
+        return BASIC[septet & 0x7F];
+    }
+
+    /**
+     * Returns the character for a septet that follows ESCAPE. Per TS 23.038,
+     * an unknown extension septet is shown as its default-alphabet character.
+     *
+     * @param septet Septet value (0-127).
+     * @return The character.
+     */
+    public static char toExtendedChar(int septet) {
+        char c = EXTENSION[septet & 0x7F];
+        return c != 0 ? c : BASIC[septet & 0x7F];
+    }
+
+    /**
+     * Returns how many septets a character takes in the GSM 7-bit alphabet.
+     *
+     * @param c The character.
+     * @return 1 for the default alphabet, 2 for the extension table, which
+     * needs ESCAPE first, or 0 if the character cannot be encoded.
+     */
+    public static int septetCount(char c) {
+        if (c < 256) {
+            return LATIN1_SEPTETS[c];
+        }
+        if (c == '€') {
+            return 2;
+        }
+        return GREEK.indexOf(c) >= 0 ? 1 : 0;
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+import java.text.Normalizer;
+
+/**
+ * Replaces characters outside the GSM 7-bit alphabet with their closest
+ * GSM equivalents, so that a body with a curly quote or an accented
+ * letter is sent at 160 characters per segment instead of 70 in UCS-2.
+ *
+ * The replacements are worked out once, when the class is loaded, into a
+ * table of 256-character pages, so transliterating costs one lookup per
+ * character. Quotes, dashes, spaces and a few symbols come from a fixed
+ * list. Other letters and symbols are decomposed with NFKD and stripped
+ * of accents, which turns "á" into "a", "…" into "..." and "ﬁ" into "fi";
+ * Greek letters are also upper-cased, and those that look like Latin
+ * capitals become those capitals.
+ *
+ * A body is only changed if every character can be made GSM; otherwise it
+ * would be sent as UCS-2 anyway, and is left as typed.
+ *
+ * Plain Java and thread-safe.
+ */
+public final class GsmTransliterator {
+
+    // Fixed replacements, as pairs of characters and their replacement.
+    // Spaces and invisible characters are escaped.
+    private static final String[] FIXED = {
+            "‘", "'", "’", "'", "‚", "'", "‛", "'", "′", "'",
+            "“", "\"", "”", "\"", "„", "\"", "‟", "\"", "″", "\"",
+            "«", "\"", "»", "\"", "‹", "'", "›", "'",
+            "`", "'", "´", "'",
+            "‐", "-", "‑", "-", "‒", "-", "–", "-", "—", "-",
+            "―", "-", "−", "-",
+            "\u00A0", " ", "\u2007", " ", "\u202F", " ", "\u3000", " ", "\t", " ",
+            "\u2028", "\n", "\u2029", "\n",
+            "\u200B", "", "\u200C", "", "\u200D", "", "\u2060", "", "\uFEFF", "",
+            "\u00AD", "",
+            "•", "*", "·", ".", "×", "x", "÷", "/",
+            "©", "(C)", "®", "(R)", "°", "o",
+            "¼", "1/4", "½", "1/2", "¾", "3/4",
+            "ç", "Ç", "¢", "c", "¦", "|",
+            // Letters with no decomposition.
+            "Ł", "L", "ł", "l", "Đ", "D", "đ", "d", "Ħ", "H", "ħ", "h",
+            "ı", "i", "Œ", "OE", "œ", "oe", "Þ", "Th", "þ", "th", "ð", "d",
+    };
+
+    // Greek capitals that look like Latin ones.
+    private static final String GREEK_LOOKALIKES = "ΑΒΕΖΗΙΚΜΝΟΡΤΥΧ";
+    private static final String LATIN_LOOKALIKES = "ABEZHIKMNOPTYX";
+
+    // Ranges worth decomposing: Latin-1 and Latin Extended, Greek, Latin
+    // Extended Additional, punctuation and letterlike symbols, number
+    // forms, ligatures, and fullwidth ASCII.
+    private static final char[][] RANGES = {
+            {'\u00A0', '\u024F'}, {'\u0370', '\u03FF'}, {'\u1E00', '\u1EFF'},
+            {'\u2000', '\u215F'}, {'\uFB00', '\uFB06'}, {'\uFF01', '\uFF5E'},
+    };
+
+    private static final String[][] PAGES = new String[256][];
+
+    static {
+        for (char[] range : RANGES) {
+            for (char c = range[0]; c <= range[1]; c++) {
+                if (GsmAlphabet.septetCount(c) == 0) {
+                    String replacement = decompose(c);
+                    if (replacement != null) {
+                        put(c, replacement);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < FIXED.length; i += 2) {
+            put(FIXED[i].charAt(0), FIXED[i + 1]);
+        }
+    }
+
+    /**
+     * The outcome of transliterating one body, with what was changed.
+     */
+    public static final class Result {
+        private final String mText;
+        private final int mReplacedCount;
+        private final String mReplacedChars;
+        private final String mUnmappableChars;
+
+        Result(String text, int replacedCount, String replacedChars, String unmappableChars) {
+            mText = text;
+            mReplacedCount = replacedCount;
+            mReplacedChars = replacedChars;
+            mUnmappableChars = unmappableChars;
+        }
+
+        /**
+         * @return The body to send: transliterated, or as typed if it cannot
+         * all be made GSM.
+         */
+        public String getText() {
+            return mText;
+        }
+
+        /**
+         * @return How many characters were replaced; 0 if the body is unchanged.
+         */
+        public int getReplacedCount() {
+            return mReplacedCount;
+        }
+
+        /**
+         * @return Each character that was replaced, once, in order of first use.
+         */
+        public String getReplacedChars() {
+            return mReplacedChars;
+        }
+
+        /**
+         * @return Each character with no GSM equivalent, once; empty if none.
+         */
+        public String getUnmappableChars() {
+            return mUnmappableChars;
+        }
+    }
+
+    private GsmTransliterator() {
+    }
+
+    /**
+     * Transliterates a body.
+     *
+     * @param text The body as typed.
+     * @return The body to send and what was changed.
+     */
+    public static Result transliterate(String text) {
+        int length = text.length();
+        int i = 0;
+        while (i < length && GsmAlphabet.septetCount(text.charAt(i)) > 0) {
+            i++;
+        }
+        if (i == length) {
+            // Already all GSM, which is the common case.
+            return new Result(text, 0, "", "");
+        }
+        StringBuilder out = new StringBuilder(length + 16);
+        StringBuilder replaced = new StringBuilder();
+        StringBuilder unmappable = null;
+        int replacedCount = 0;
+        out.append(text, 0, i);
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (GsmAlphabet.septetCount(c) > 0) {
+                out.append(c);
+                continue;
+            }
+            String replacement = replacement(c);
+            if (replacement == null) {
+                if (unmappable == null) {
+                    unmappable = new StringBuilder();
+                }
+                if (!contains(unmappable, c)) {
+                    unmappable.append(c);
+                }
+                continue;
+            }
+            out.append(replacement);
+            replacedCount++;
+            if (!contains(replaced, c)) {
+                replaced.append(c);
+            }
+        }
+        if (unmappable != null) {
+            return new Result(text, 0, "", unmappable.toString());
+        }
+        return new Result(out.toString(), replacedCount, replaced.toString(), "");
+    }
+
+    /**
+     * Returns how many septets a character takes after transliteration.
+     *
+     * @param c The character.
+     * @return The septets, 0 for a character that is dropped, or -1 if the
+     * character has no GSM equivalent.
+     */
+    public static int septetCount(char c) {
+        int septets = GsmAlphabet.septetCount(c);
+        if (septets > 0) {
+            return septets;
+        }
+        String replacement = replacement(c);
+        if (replacement == null) {
+            return -1;
+        }
+        for (int i = 0; i < replacement.length(); i++) {
+            septets += GsmAlphabet.septetCount(replacement.charAt(i));
+        }
+        return septets;
+    }
+
+    private static boolean contains(StringBuilder chars, char c) {
+        for (int i = 0; i < chars.length(); i++) {
+            if (chars.charAt(i) == c) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String replacement(char c) {
+        String[] page = PAGES[c >>> 8];
+        return page != null ? page[c & 0xFF] : null;
+    }
+
+    private static void put(char c, String replacement) {
+        String[] page = PAGES[c >>> 8];
+        if (page == null) {
+            page = new String[256];
+            PAGES[c >>> 8] = page;
+        }
+        page[c & 0xFF] = replacement;
+    }
+
+    /**
+     * Decomposes a character and drops its accents, returning the result if
+     * it is all GSM, or null.
+     */
+    private static String decompose(char c) {
+        String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFKD);
+        StringBuilder out = new StringBuilder(decomposed.length());
+        boolean greek = c >= '\u0370' && c <= '\u03FF';
+        for (int i = 0; i < decomposed.length(); i++) {
+            char d = decomposed.charAt(i);
+            if (Character.getType(d) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if (greek) {
+                d = Character.toUpperCase(d);
+                int lookalike = GREEK_LOOKALIKES.indexOf(d);
+                if (lookalike >= 0) {
+                    d = LATIN_LOOKALIKES.charAt(lookalike);
+                }
+            }
+            if (GsmAlphabet.septetCount(d) == 0) {
+                return null;
+            }
+            out.append(d);
+        }
+        return out.length() > 0 ? out.toString() : null;
+    }
+}
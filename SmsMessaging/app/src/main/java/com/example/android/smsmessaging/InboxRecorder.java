@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Appends each batch of received messages to the InboxStore, through the
+ * Conversations that thread them. The store is opened on the pipeline's
+ * worker thread the first time a batch arrives. Sent messages are
+ * recorded on a single background executor, as the outbox reports them
+ * sent; reports that arrive while one batch is being written go into the
+ * next.
+ */
+public final class InboxRecorder implements SmsReceivePipeline.Consumer {
+
+    private static final String TAG = InboxRecorder.class.getSimpleName();
+    private static final String INBOX_DIR = "inbox";
+    private static final String CONVERSATIONS_FILE = "conversations";
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+    // Sent messages waiting for the executor; guarded by itself.
+    private static final ArrayList<SentSms> sPendingSent = new ArrayList<>();
+
+    private static InboxStore sStore;
+    private static Conversations sConversations;
+
+    private final File mDir;
+    private final PhoneNumberNormalizer mNormalizer;
+
+    /**
+     * @param context The application context.
+     */
+    public InboxRecorder(Context context) {
+        mDir = new File(context.getFilesDir(), INBOX_DIR);
+        mNormalizer = PhoneNumbers.getNormalizer(context);
+    }
+
+    /**
+     * Returns the inbox store, opening it if needed. Does disk I/O, so
+     * call it off the main thread.
+     *
+     * @param context Any context.
+     * @return The store.
+     * @throws IOException if the store cannot be opened.
+     */
+    public static synchronized InboxStore getStore(Context context) throws IOException {
+        return getStore(new File(context.getFilesDir(), INBOX_DIR),
+                PhoneNumbers.getNormalizer(context));
+    }
+
+    /**
+     * Returns the conversation threads of the inbox store, opening them if
+     * needed. Does disk I/O, so call it off the main thread.
+     *
+     * @param context Any context.
+     * @return The threads.
+     * @throws IOException if the store cannot be opened.
+     */
+    public static synchronized Conversations getConversations(Context context)
+            throws IOException {
+        return getConversations(new File(context.getFilesDir(), INBOX_DIR),
+                PhoneNumbers.getNormalizer(context));
+    }
+
+    /**
+     * Records a sent message in its thread on a background thread, so the
+     * caller does no disk I/O.
+     *
+     * @param context Any context.
+     * @param sms     The message, once every part of it is reported sent.
+     */
+    public static void recordSent(Context context, SentSms sms) {
+        synchronized (sPendingSent) {
+            sPendingSent.add(sms);
+            if (sPendingSent.size() > 1) {
+                // Already scheduled.
+                return;
+            }
+        }
+        final File dir = new File(context.getFilesDir(), INBOX_DIR);
+        final PhoneNumberNormalizer normalizer = PhoneNumbers.getNormalizer(context);
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<SentSms> messages;
+                synchronized (sPendingSent) {
+                    messages = new ArrayList<>(sPendingSent);
+                    sPendingSent.clear();
+                }
+                try {
+                    getConversations(dir, normalizer).addSent(messages);
+                } catch (IOException e) {
+                    Log.e(TAG, "Cannot save sent messages", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Appends the batch and flushes it to disk once.
+     *
+     * @param messages The batch of messages.
+     */
+    @Override
+    public void onMessages(List<ReceivedSms> messages) {
+        try {
+            getConversations(mDir, mNormalizer).addReceived(messages);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot save received messages", e);
+        }
+    }
+
+    private static synchronized Conversations getConversations(
+            File dir, PhoneNumberNormalizer normalizer) throws IOException {
+        if (sConversations == null) {
+            sConversations = new Conversations(getStore(dir, normalizer), normalizer,
+                    new File(dir, CONVERSATIONS_FILE));
+        }
+        return sConversations;
+    }
+
+    private static synchronized InboxStore getStore(File dir, PhoneNumberNormalizer normalizer)
+            throws IOException {
+        if (sStore == null) {
+            sStore = new InboxStore(dir, InboxStore.DEFAULT_SEGMENT_SIZE, normalizer);
+        }
+        return sStore;
+    }
+}
@@ -0,0 +1,560 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Append-only store for received messages, and for the messages sent to
+ * the same addresses, kept as a directory of fixed-size, memory-mapped
+ * segment files.
+ *
+ * Each record is written into the mapped active segment, payload first and
+ * length last, so a record cut short by a crash reads as the end of the log.
+ * When a segment fills up it is sealed: the (address hash, offset) pairs of
+ * its records are written to an index file next to it, so opening the
+ * store only has to scan the active segment. An AddressIndex maps each
+ * originating or destination address, normalized by a PhoneNumberNormalizer,
+ * to its records, newest first, which makes each address's records a
+ * conversation thread that readThread() pages through.
+ *
+ * Each segment also has a TrigramIndex over the addresses and bodies of its
+ * records, numbered within the segment, for search(). The active segment's
+ * is built in memory as records are appended, and written next to the
+ * segment when it is sealed; sealed segments' are memory-mapped on open.
+ *
+ * Plain Java; all methods are synchronized so one writer and any number of
+ * readers can share an instance.
+ */
+public final class InboxStore implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+    /** Cursor of the newest page of a thread. */
+    public static final int THREAD_START = -2;
+
+    /**
+     * A page of a conversation thread, newest message first.
+     */
+    public static final class ThreadPage {
+        private final ArrayList<ReceivedSms> mMessages;
+        private int[] mRecords;
+        private boolean[] mSent;
+        private int mNextCursor;
+
+        ThreadPage(int limit) {
+            mMessages = new ArrayList<>(Math.min(limit, 256));
+            mRecords = new int[Math.min(limit, 256)];
+            mSent = new boolean[mRecords.length];
+        }
+
+        void add(int record, ReceivedSms sms, boolean sent) {
+            int i = mMessages.size();
+            if (i == mRecords.length) {
+                mRecords = Arrays.copyOf(mRecords, i * 2);
+                mSent = Arrays.copyOf(mSent, i * 2);
+            }
+            mMessages.add(sms);
+            mRecords[i] = record;
+            mSent[i] = sent;
+        }
+
+        public int size() {
+            return mMessages.size();
+        }
+
+        public List<ReceivedSms> getMessages() {
+            return mMessages;
+        }
+
+        /**
+         * @param index Index of a message in the page.
+         * @return Its record number, for readRecord().
+         */
+        public int getRecord(int index) {
+            return mRecords[index];
+        }
+
+        /**
+         * @param index Index of a message in the page.
+         * @return Whether the message was sent rather than received.
+         */
+        public boolean isSent(int index) {
+            return mSent[index];
+        }
+
+        /**
+         * @return The cursor of the next, older page.
+         */
+        public int getNextCursor() {
+            return mNextCursor;
+        }
+
+        /**
+         * @return Whether there may be older messages.
+         */
+        public boolean hasMore() {
+            return mNextCursor != AddressIndex.NONE;
+        }
+    }
+
+    private static final String SEGMENT_PREFIX = "inbox-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String TRIGRAM_SUFFIX = ".tri";
+    // Record length, received time, address length.
+    private static final int HEADER_SIZE = 4 + 8 + 4;
+    // Set in the address length of sent messages.
+    private static final int FLAG_SENT = 0x80000000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mDir;
+    private final int mSegmentSize;
+    private final PhoneNumberNormalizer mNormalizer;
+    // Mapped segments, null until a sealed segment is first read.
+    private final ArrayList<MappedByteBuffer> mSegments = new ArrayList<>();
+    private final AddressIndex mIndex = new AddressIndex();
+    // Trigram index of each segment, and the number of its first record.
+    private final ArrayList<TrigramIndex> mTrigrams = new ArrayList<>();
+    private int[] mFirstRecords = new int[16];
+
+    private MappedByteBuffer mActive;
+    private int mActiveEnd;
+    // Address hashes and offsets of the records in the active segment,
+    // written to its index file when it is sealed.
+    private long[] mActiveHashes = new long[256];
+    private int[] mActiveOffsets = new int[256];
+    private int mActiveCount;
+
+    /**
+     * Opens the store in a directory, creating it if needed.
+     *
+     * @param dir         Directory holding the segment files.
+     * @param segmentSize Size of each segment file in bytes.
+     * @param normalizer  Normalizes addresses for the index.
+     * @throws IOException if the directory cannot be read or created.
+     */
+    public InboxStore(File dir, int segmentSize, PhoneNumberNormalizer normalizer)
+            throws IOException {
+        mDir = dir;
+        mSegmentSize = segmentSize;
+        mNormalizer = normalizer;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        int segmentCount = countSegments();
+        for (int i = 0; i < segmentCount - 1; i++) {
+            mSegments.add(null);
+            startSegment(i);
+            File trigramFile = segmentFile(i, TRIGRAM_SUFFIX);
+            if (trigramFile.exists() && loadIndexFile(i)) {
+                mTrigrams.set(i, TrigramIndex.map(trigramFile));
+            } else {
+                // Sealed without its indexes (the process died while
+                // sealing); rebuild them from the records.
+                mActiveCount = 0;
+                scan(i, mapReadOnly(i));
+                writeTrigramFile(i);
+                writeIndexFile(i);
+            }
+        }
+        openActive(Math.max(segmentCount - 1, 0));
+        scan(mSegments.size() - 1, mActive);
+    }
+
+    /**
+     * Appends a received message.
+     *
+     * @param sms The message.
+     * @return The position of the new record.
+     * @throws IOException if a new segment cannot be created.
+     */
+    public synchronized long append(ReceivedSms sms) throws IOException {
+        return append(sms.getAddress(), sms.getBody(), sms.getReceivedMillis(), false);
+    }
+
+    /**
+     * Appends a sent message. It is read back like a received one, with
+     * its destination as the address and the time it was sent;
+     * isSentRecord() and ThreadPage.isSent() tell the two apart.
+     *
+     * @param sms The message.
+     * @return The position of the new record.
+     * @throws IOException if a new segment cannot be created.
+     */
+    public synchronized long append(SentSms sms) throws IOException {
+        return append(sms.getDestination(), sms.getBody(), sms.getSentMillis(), true);
+    }
+
+    private long append(String addressText, String bodyText, long millis, boolean sent)
+            throws IOException {
+        byte[] address = addressText.getBytes(UTF_8);
+        byte[] body = bodyText.getBytes(UTF_8);
+        int length = HEADER_SIZE + address.length + body.length;
+        if (length > mSegmentSize) {
+            throw new IOException("Record larger than a segment: " + length);
+        }
+        // Leave room for the zero length that marks the end of the segment.
+        if (mActiveEnd + length + 4 > mSegmentSize) {
+            seal();
+        }
+        int offset = mActiveEnd;
+        ByteBuffer out = mActive.duplicate();
+        out.position(offset + 4);
+        out.putLong(millis);
+        out.putInt(sent ? address.length | FLAG_SENT : address.length);
+        out.put(address);
+        out.put(body);
+        // Publish the record by writing its length last.
+        mActive.putInt(offset, length - 4);
+        mActiveEnd = offset + length;
+        long hash = AddressIndex.hash(mNormalizer.normalize(addressText));
+        long position = addToIndex(mSegments.size() - 1, offset, hash);
+        addTrigrams(addressText, bodyText);
+        return position;
+    }
+
+    /**
+     * Reads one page of the conversation with an address: the messages
+     * received from it and sent to it, newest first. Only the records of
+     * the page are read, however long the thread.
+     *
+     * @param address The address, in any format the normalizer accepts.
+     * @param cursor  THREAD_START for the newest page, or the next cursor
+     *                of the previous page.
+     * @param limit   Maximum number of messages in the page.
+     * @return The page.
+     * @throws IOException if a segment cannot be mapped.
+     */
+    public synchronized ThreadPage readThread(String address, int cursor, int limit)
+            throws IOException {
+        String normalized = mNormalizer.normalize(address);
+        int record = cursor == THREAD_START
+                ? mIndex.head(AddressIndex.hash(normalized)) : cursor;
+        ThreadPage page = new ThreadPage(limit);
+        while (record != AddressIndex.NONE && page.size() < limit) {
+            long position = mIndex.position(record);
+            ReceivedSms sms = read(position);
+            // Skip the rare hash collision.
+            if (mNormalizer.normalize(sms.getAddress()).equals(normalized)) {
+                page.add(record, sms, isSent(position));
+            }
+            record = mIndex.next(record);
+        }
+        page.mNextCursor = record;
+        return page;
+    }
+
+    /**
+     * Reads a record by its number; records are numbered from 0 in the
+     * order they were appended.
+     *
+     * @param record The record number, below size().
+     * @return The message.
+     * @throws IOException if the segment cannot be mapped.
+     */
+    public synchronized ReceivedSms readRecord(int record) throws IOException {
+        return read(mIndex.position(record));
+    }
+
+    /**
+     * @param record The record number, below size().
+     * @return Whether the record is a sent message.
+     * @throws IOException if the segment cannot be mapped.
+     */
+    public synchronized boolean isSentRecord(int record) throws IOException {
+        return isSent(mIndex.position(record));
+    }
+
+    /**
+     * Finds the messages whose address or body contains a string, ignoring
+     * case. Each segment's trigram index narrows the search to the records
+     * with every trigram of the query, and only those are read; a query
+     * shorter than three characters reads every record until enough match.
+     *
+     * @param query The string to find.
+     * @param limit Maximum number of messages to return.
+     * @return The messages, newest first.
+     * @throws IOException if a segment cannot be mapped.
+     */
+    public synchronized List<ReceivedSms> search(String query, int limit)
+            throws IOException {
+        String folded = TrigramIndex.fold(query);
+        List<ReceivedSms> result = new ArrayList<>();
+        int end = mIndex.recordCount();
+        for (int segment = mTrigrams.size() - 1; segment >= 0 && result.size() < limit;
+                segment--) {
+            int first = mFirstRecords[segment];
+            int[] candidates = mTrigrams.get(segment).candidates(folded);
+            int count = candidates != null ? candidates.length : end - first;
+            for (int i = count - 1; i >= 0 && result.size() < limit; i--) {
+                int record = first + (candidates != null ? candidates[i] : i);
+                ReceivedSms sms = read(mIndex.position(record));
+                // Trigrams may match without the query, or be hashed.
+                if (TrigramIndex.fold(sms.getBody()).contains(folded)
+                        || TrigramIndex.fold(sms.getAddress()).contains(folded)) {
+                    result.add(sms);
+                }
+            }
+            end = first;
+        }
+        return result;
+    }
+
+    /**
+     * Reads the record at a position returned by append().
+     *
+     * @param position The record position.
+     * @return The message.
+     * @throws IOException if the segment cannot be mapped.
+     */
+    public synchronized ReceivedSms read(long position) throws IOException {
+        int segment = (int) (position >>> 32);
+        int offset = (int) position;
+        ByteBuffer in = segment(segment).duplicate();
+        int length = in.getInt(offset);
+        in.position(offset + 4);
+        long receivedMillis = in.getLong();
+        byte[] address = new byte[in.getInt() & ~FLAG_SENT];
+        in.get(address);
+        byte[] body = new byte[length - (HEADER_SIZE - 4) - address.length];
+        in.get(body);
+        return new ReceivedSms(new String(address, UTF_8), new String(body, UTF_8),
+                receivedMillis);
+    }
+
+    private boolean isSent(long position) throws IOException {
+        int segment = (int) (position >>> 32);
+        int offset = (int) position;
+        return (segment(segment).getInt(offset + 4 + 8) & FLAG_SENT) != 0;
+    }
+
+    /**
+     * @return The number of messages in the store.
+     */
+    public synchronized int size() {
+        return mIndex.recordCount();
+    }
+
+    /**
+     * Forces appended records to disk.
+     */
+    public synchronized void flush() {
+        mActive.force();
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+    }
+
+    private long addToIndex(int segment, int offset, long hash) {
+        if (mActiveCount == mActiveHashes.length) {
+            mActiveHashes = Arrays.copyOf(mActiveHashes, mActiveCount * 2);
+            mActiveOffsets = Arrays.copyOf(mActiveOffsets, mActiveCount * 2);
+        }
+        mActiveHashes[mActiveCount] = hash;
+        mActiveOffsets[mActiveCount] = offset;
+        mActiveCount++;
+        long position = ((long) segment << 32) | offset;
+        mIndex.add(hash, position);
+        return position;
+    }
+
+    /**
+     * Adds the texts of the newest record to the active trigram index.
+     */
+    private void addTrigrams(String address, String body) {
+        TrigramIndex trigrams = mTrigrams.get(mTrigrams.size() - 1);
+        trigrams.add(mActiveCount - 1, address);
+        trigrams.add(mActiveCount - 1, body);
+    }
+
+    /**
+     * Records where a segment's records start and gives it an empty
+     * trigram index.
+     */
+    private void startSegment(int segment) {
+        if (segment == mFirstRecords.length) {
+            mFirstRecords = Arrays.copyOf(mFirstRecords, segment * 2);
+        }
+        mFirstRecords[segment] = mIndex.recordCount();
+        mTrigrams.add(new TrigramIndex());
+    }
+
+    /**
+     * Reads the records of a segment from the start, adding each to the
+     * index, and leaves mActiveEnd just past the last complete record.
+     */
+    private void scan(int segment, ByteBuffer buffer) {
+        int offset = 0;
+        while (offset + 4 <= buffer.limit()) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || offset + 4 + length > buffer.limit()) {
+                break;
+            }
+            int addressLength = buffer.getInt(offset + 4 + 8) & ~FLAG_SENT;
+            byte[] address = new byte[addressLength];
+            byte[] body = new byte[length - (HEADER_SIZE - 4) - addressLength];
+            ByteBuffer in = buffer.duplicate();
+            in.position(offset + HEADER_SIZE);
+            in.get(address);
+            in.get(body);
+            String addressText = new String(address, UTF_8);
+            long hash = AddressIndex.hash(mNormalizer.normalize(addressText));
+            addToIndex(segment, offset, hash);
+            addTrigrams(addressText, new String(body, UTF_8));
+            offset += 4 + length;
+        }
+        mActiveEnd = offset;
+    }
+
+    /**
+     * Writes the index files of the active segment and starts a new one.
+     */
+    private void seal() throws IOException {
+        int segment = mSegments.size() - 1;
+        mActive.force();
+        writeTrigramFile(segment);
+        writeIndexFile(segment);
+        openActive(segment + 1);
+    }
+
+    private void openActive(int segment) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile(segment, LOG_SUFFIX), "rw");
+        try {
+            if (file.length() < mSegmentSize) {
+                file.setLength(mSegmentSize);
+            }
+            mActive = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mSegmentSize);
+        } finally {
+            file.close();
+        }
+        if (segment == mSegments.size()) {
+            mSegments.add(mActive);
+            startSegment(segment);
+        } else {
+            mSegments.set(segment, mActive);
+        }
+        mActiveEnd = 0;
+        mActiveCount = 0;
+    }
+
+    private ByteBuffer segment(int segment) throws IOException {
+        MappedByteBuffer buffer = mSegments.get(segment);
+        if (buffer == null) {
+            buffer = mapReadOnly(segment);
+            mSegments.set(segment, buffer);
+        }
+        return buffer;
+    }
+
+    private MappedByteBuffer mapReadOnly(int segment) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile(segment, LOG_SUFFIX), "r");
+        try {
+            return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            file.close();
+        }
+    }
+
+    private void writeIndexFile(int segment) throws IOException {
+        File tmp = segmentFile(segment, INDEX_SUFFIX + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(mActiveCount);
+            for (int i = 0; i < mActiveCount; i++) {
+                out.writeLong(mActiveHashes[i]);
+                out.writeInt(mActiveOffsets[i]);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(segmentFile(segment, INDEX_SUFFIX))) {
+            throw new IOException("Cannot write index for segment " + segment);
+        }
+    }
+
+    /**
+     * Writes a segment's trigram index, and maps it in place of the one in
+     * memory.
+     */
+    private void writeTrigramFile(int segment) throws IOException {
+        File tmp = segmentFile(segment, TRIGRAM_SUFFIX + ".tmp");
+        File file = segmentFile(segment, TRIGRAM_SUFFIX);
+        mTrigrams.get(segment).write(tmp);
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Cannot write trigram index for segment " + segment);
+        }
+        mTrigrams.set(segment, TrigramIndex.map(file));
+    }
+
+    /**
+     * Adds the records listed in a sealed segment's index file to the index.
+     *
+     * @return false if the segment has no index file.
+     */
+    private boolean loadIndexFile(int segment) throws IOException {
+        File file = segmentFile(segment, INDEX_SUFFIX);
+        if (!file.exists()) {
+            return false;
+        }
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long hash = in.readLong();
+                int offset = in.readInt();
+                mIndex.add(hash, ((long) segment << 32) | offset);
+            }
+        } finally {
+            in.close();
+        }
+        return true;
+    }
+
+    private int countSegments() {
+        int count = 0;
+        while (segmentFile(count, LOG_SUFFIX).exists()) {
+            count++;
+        }
+        return count;
+    }
+
+    private File segmentFile(int segment, String suffix) {
+        return new File(mDir,
+                String.format(Locale.US, "%s%05d%s", SEGMENT_PREFIX, segment, suffix));
+    }
+}
@@ -0,0 +1,571 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Tags message bodies by matching them against many keyword rules at once,
+ * with an Aho-Corasick automaton compiled from a rules file.
+ *
+ * Each line of the rules file is a tag name (spam, opt-out or priority)
+ * and a pattern; blank lines and lines starting with '#' are skipped.
+ * Patterns are matched case-insensitively, with any run of whitespace
+ * matching any other. Besides plain text, a pattern may use:
+ * <ul>
+ * <li>[abc] and [a-z] for one of a set of characters,</li>
+ * <li>(one|two) for one of several alternatives,</li>
+ * <li>? after a character, set or group to make it optional,</li>
+ * <li>\b at the start or end to match only at a word boundary,</li>
+ * <li>\ before any other character to match it literally.</li>
+ * </ul>
+ * Sets, groups and optional parts are expanded into plain keywords when
+ * the rules are compiled, so matching is one pass over the body that
+ * follows one transition per character, whatever the number of rules.
+ * Word boundaries are checked in constant time from a bit history of the
+ * last 64 characters.
+ *
+ * Plain Java. A compiled filter is immutable and may be shared by threads.
+ */
+public final class KeywordFilter {
+
+    public static final int TAG_SPAM = 1;
+    public static final int TAG_OPT_OUT = 2;
+    public static final int TAG_PRIORITY = 4;
+
+    /** A filter with no rules, which tags nothing. */
+    public static final KeywordFilter EMPTY = new Builder().build();
+
+    // Most keywords one pattern may expand to.
+    private static final int MAX_EXPANSIONS = 256;
+    // Longest keyword with a word boundary at its start; the character
+    // before it must still be in the 64-bit history.
+    private static final int MAX_BOUNDARY_LENGTH = 63;
+    private static final int FLAG_START_BOUNDARY = 1;
+    private static final int FLAG_END_BOUNDARY = 2;
+    private static final long EMPTY_KEY = -1;
+
+    // Transitions, in an open-addressing table keyed by state and character.
+    private final long[] mEdgeKeys;
+    private final int[] mEdgeTargets;
+    private final int mEdgeMask;
+    private final int[] mFail;
+    // Tags of the rules without boundaries that end in each state or in
+    // any state on its failure chain.
+    private final int[] mTags;
+    // Rules with boundaries: for each state the first one ending there,
+    // and the nearest state on its failure chain that has any.
+    private final int[] mBoundaryRule;
+    private final int[] mBoundaryLink;
+    private final int[] mRuleLength;
+    private final int[] mRuleTag;
+    private final int[] mRuleFlags;
+    private final int[] mRuleNext;
+    private final int mPatternCount;
+
+    private KeywordFilter(Builder builder, long[] edgeKeys, int[] edgeTargets, int[] fail,
+                          int[] tags, int[] boundaryLink) {
+        mEdgeKeys = edgeKeys;
+        mEdgeTargets = edgeTargets;
+        mEdgeMask = edgeKeys.length - 1;
+        mFail = fail;
+        mTags = tags;
+        mBoundaryRule = Arrays.copyOf(builder.mBoundaryRule, builder.mStateCount);
+        mBoundaryLink = boundaryLink;
+        mRuleLength = Arrays.copyOf(builder.mRuleLength, builder.mRuleCount);
+        mRuleTag = Arrays.copyOf(builder.mRuleTag, builder.mRuleCount);
+        mRuleFlags = Arrays.copyOf(builder.mRuleFlags, builder.mRuleCount);
+        mRuleNext = Arrays.copyOf(builder.mRuleNext, builder.mRuleCount);
+        mPatternCount = builder.mPatternCount;
+    }
+
+    /**
+     * Compiles a rules file.
+     *
+     * @param in The rules. Not closed.
+     * @return The filter.
+     * @throws IOException if the rules cannot be read or a line is invalid.
+     */
+    public static KeywordFilter parse(Reader in) throws IOException {
+        Builder builder = new Builder();
+        BufferedReader reader = new BufferedReader(in);
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.charAt(0) == '#') {
+                continue;
+            }
+            int space = 0;
+            while (space < line.length() && !Character.isWhitespace(line.charAt(space))) {
+                space++;
+            }
+            try {
+                builder.add(parseTag(line.substring(0, space)), line.substring(space).trim());
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Line " + lineNumber + ": " + e.getMessage());
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the tags of all the rules that match a text.
+     *
+     * @param text The message body, or null.
+     * @return The TAG_ bits of the matching rules, or 0.
+     */
+    public int match(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int state = 0;
+        int tags = 0;
+        // Tags of boundary rules that matched at the previous character
+        // and still need a non-word character after them.
+        int pendingTags = 0;
+        // Bit i is set if the character i places back was a word character.
+        long history = 0;
+        boolean lastWasSpace = true;
+        for (int i = 0; i < text.length(); i++) {
+            char c = fold(text.charAt(i));
+            if (c == ' ') {
+                if (lastWasSpace) {
+                    continue;
+                }
+                lastWasSpace = true;
+            } else {
+                lastWasSpace = false;
+            }
+            boolean word = Character.isLetterOrDigit(c);
+            if (!word) {
+                tags |= pendingTags;
+            }
+            pendingTags = 0;
+            history = (history << 1) | (word ? 1 : 0);
+            int next;
+            while ((next = next(state, c)) < 0 && state != 0) {
+                state = mFail[state];
+            }
+            state = next < 0 ? 0 : next;
+            tags |= mTags[state];
+            int boundaryState = mBoundaryRule[state] >= 0 ? state : mBoundaryLink[state];
+            while (boundaryState >= 0) {
+                for (int rule = mBoundaryRule[boundaryState]; rule >= 0;
+                     rule = mRuleNext[rule]) {
+                    int flags = mRuleFlags[rule];
+                    if ((flags & FLAG_START_BOUNDARY) != 0
+                            && ((history >>> mRuleLength[rule]) & 1) != 0) {
+                        continue;
+                    }
+                    if ((flags & FLAG_END_BOUNDARY) != 0) {
+                        pendingTags |= mRuleTag[rule];
+                    } else {
+                        tags |= mRuleTag[rule];
+                    }
+                }
+                boundaryState = mBoundaryLink[boundaryState];
+            }
+        }
+        // The end of the text is a boundary.
+        return tags | pendingTags;
+    }
+
+    /**
+     * @return The number of patterns compiled in.
+     */
+    public int getPatternCount() {
+        return mPatternCount;
+    }
+
+    /**
+     * @return The number of states of the automaton.
+     */
+    public int getStateCount() {
+        return mFail.length;
+    }
+
+    /**
+     * @param tags TAG_ bits.
+     * @return The tag names, separated by commas.
+     */
+    public static String tagNames(int tags) {
+        StringBuilder names = new StringBuilder();
+        if ((tags & TAG_SPAM) != 0) {
+            names.append("spam");
+        }
+        if ((tags & TAG_OPT_OUT) != 0) {
+            names.append(names.length() > 0 ? ", " : "").append("opt-out");
+        }
+        if ((tags & TAG_PRIORITY) != 0) {
+            names.append(names.length() > 0 ? ", " : "").append("priority");
+        }
+        return names.toString();
+    }
+
+    private int next(int state, char c) {
+        long key = ((long) state << 16) | c;
+        for (int slot = mix(key) & mEdgeMask; ; slot = (slot + 1) & mEdgeMask) {
+            long found = mEdgeKeys[slot];
+            if (found == key) {
+                return mEdgeTargets[slot];
+            } else if (found == EMPTY_KEY) {
+                return -1;
+            }
+        }
+    }
+
+    private static int mix(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+
+    private static char fold(char c) {
+        return Character.isWhitespace(c) ? ' ' : Character.toLowerCase(c);
+    }
+
+    private static int parseTag(String name) {
+        switch (name.toLowerCase(Locale.US)) {
+            case "spam":
+                return TAG_SPAM;
+            case "opt-out":
+                return TAG_OPT_OUT;
+            case "priority":
+                return TAG_PRIORITY;
+            default:
+                throw new IllegalArgumentException("Unknown tag: " + name);
+        }
+    }
+
+    /**
+     * Builds the trie of keywords, then the failure links.
+     */
+    static final class Builder {
+        private final HashMap<Long, Integer> mEdges = new HashMap<>();
+        // Edges in the order they were added, to visit children in build().
+        private int[] mEdgeParent = new int[64];
+        private char[] mEdgeChar = new char[64];
+        private int[] mEdgeChild = new int[64];
+        private int mStateCount = 1;
+        private int[] mStateTags = new int[64];
+        private int[] mBoundaryRule = filled(64);
+        private int[] mRuleLength = new int[16];
+        private int[] mRuleTag = new int[16];
+        private int[] mRuleFlags = new int[16];
+        private int[] mRuleNext = new int[16];
+        private int mRuleCount;
+        private int mPatternCount;
+
+        /**
+         * Adds a pattern.
+         *
+         * @param tag     The TAG_ bit to report when it matches.
+         * @param pattern The pattern.
+         * @throws IllegalArgumentException if the pattern is invalid.
+         */
+        void add(int tag, String pattern) {
+            int flags = 0;
+            if (pattern.startsWith("\\b")) {
+                flags |= FLAG_START_BOUNDARY;
+                pattern = pattern.substring(2);
+            }
+            if (pattern.endsWith("\\b") && !pattern.endsWith("\\\\b")) {
+                flags |= FLAG_END_BOUNDARY;
+                pattern = pattern.substring(0, pattern.length() - 2);
+            }
+            int[] position = {0};
+            List<String> keywords = expandSequence(pattern, position);
+            if (position[0] != pattern.length()) {
+                throw new IllegalArgumentException("Unexpected '"
+                        + pattern.charAt(position[0]) + "' in " + pattern);
+            }
+            for (String keyword : keywords) {
+                String folded = normalize(keyword);
+                if (folded.isEmpty()) {
+                    continue;
+                }
+                if ((flags & FLAG_START_BOUNDARY) != 0
+                        && folded.length() > MAX_BOUNDARY_LENGTH) {
+                    throw new IllegalArgumentException("Too long for \\b: " + keyword);
+                }
+                insert(folded, tag, flags);
+            }
+            mPatternCount++;
+        }
+
+        /**
+         * Expands alternatives separated by '|' up to a ')' or the end.
+         */
+        private static List<String> expandAlternatives(String pattern, int[] position) {
+            LinkedHashSet<String> result = new LinkedHashSet<>();
+            result.addAll(expandSequence(pattern, position));
+            while (position[0] < pattern.length() && pattern.charAt(position[0]) == '|') {
+                position[0]++;
+                result.addAll(expandSequence(pattern, position));
+                checkSize(result.size(), pattern);
+            }
+            return new ArrayList<>(result);
+        }
+
+        /**
+         * Expands a sequence of elements up to a '|', a ')' or the end.
+         */
+        private static List<String> expandSequence(String pattern, int[] position) {
+            List<String> result = new ArrayList<>();
+            result.add("");
+            while (position[0] < pattern.length()) {
+                char c = pattern.charAt(position[0]);
+                if (c == '|' || c == ')') {
+                    break;
+                }
+                List<String> element = expandElement(pattern, position);
+                if (position[0] < pattern.length() && pattern.charAt(position[0]) == '?') {
+                    position[0]++;
+                    element = new ArrayList<>(element);
+                    element.add("");
+                }
+                checkSize(result.size() * element.size(), pattern);
+                List<String> product = new ArrayList<>(result.size() * element.size());
+                for (String prefix : result) {
+                    for (String suffix : element) {
+                        product.add(prefix + suffix);
+                    }
+                }
+                result = product;
+            }
+            return result;
+        }
+
+        /**
+         * Expands one character, set or group.
+         */
+        private static List<String> expandElement(String pattern, int[] position) {
+            char c = pattern.charAt(position[0]++);
+            if (c == '(') {
+                List<String> alternatives = expandAlternatives(pattern, position);
+                if (position[0] >= pattern.length() || pattern.charAt(position[0]) != ')') {
+                    throw new IllegalArgumentException("Missing ')' in " + pattern);
+                }
+                position[0]++;
+                return alternatives;
+            } else if (c == '[') {
+                List<String> chars = new ArrayList<>();
+                while (position[0] < pattern.length() && pattern.charAt(position[0]) != ']') {
+                    char first = pattern.charAt(position[0]++);
+                    char last = first;
+                    if (position[0] + 1 < pattern.length() && pattern.charAt(position[0]) == '-'
+                            && pattern.charAt(position[0] + 1) != ']') {
+                        last = pattern.charAt(position[0] + 1);
+                        position[0] += 2;
+                    }
+                    for (char member = first; member <= last; member++) {
+                        chars.add(String.valueOf(member));
+                    }
+                    checkSize(chars.size(), pattern);
+                }
+                if (position[0] >= pattern.length()) {
+                    throw new IllegalArgumentException("Missing ']' in " + pattern);
+                }
+                position[0]++;
+                return chars;
+            } else if (c == '\\') {
+                if (position[0] >= pattern.length()) {
+                    throw new IllegalArgumentException("Trailing '\\' in " + pattern);
+                }
+                c = pattern.charAt(position[0]++);
+            } else if (c == ']' || c == '?') {
+                throw new IllegalArgumentException("Unexpected '" + c + "' in " + pattern);
+            }
+            List<String> single = new ArrayList<>(1);
+            single.add(String.valueOf(c));
+            return single;
+        }
+
+        private static void checkSize(int size, String pattern) {
+            if (size > MAX_EXPANSIONS) {
+                throw new IllegalArgumentException("More than " + MAX_EXPANSIONS
+                        + " keywords in " + pattern);
+            }
+        }
+
+        /**
+         * Folds a keyword the way match() folds text, collapsing runs of
+         * whitespace and trimming it.
+         */
+        private static String normalize(String keyword) {
+            StringBuilder folded = new StringBuilder(keyword.length());
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = fold(keyword.charAt(i));
+                if (c != ' ' || (folded.length() > 0
+                        && folded.charAt(folded.length() - 1) != ' ')) {
+                    folded.append(c);
+                }
+            }
+            int length = folded.length();
+            if (length > 0 && folded.charAt(length - 1) == ' ') {
+                folded.setLength(length - 1);
+            }
+            return folded.toString();
+        }
+
+        private void insert(String keyword, int tag, int flags) {
+            int state = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = keyword.charAt(i);
+                Long key = ((long) state << 16) | c;
+                Integer next = mEdges.get(key);
+                if (next == null) {
+                    next = addState();
+                    mEdges.put(key, next);
+                    addEdge(state, c, next);
+                }
+                state = next;
+            }
+            if (flags == 0) {
+                mStateTags[state] |= tag;
+                return;
+            }
+            // Skip a rule this state already has.
+            for (int rule = mBoundaryRule[state]; rule >= 0; rule = mRuleNext[rule]) {
+                if (mRuleTag[rule] == tag && mRuleFlags[rule] == flags) {
+                    return;
+                }
+            }
+            if (mRuleCount == mRuleLength.length) {
+                int size = mRuleCount * 2;
+                mRuleLength = Arrays.copyOf(mRuleLength, size);
+                mRuleTag = Arrays.copyOf(mRuleTag, size);
+                mRuleFlags = Arrays.copyOf(mRuleFlags, size);
+                mRuleNext = Arrays.copyOf(mRuleNext, size);
+            }
+            int rule = mRuleCount++;
+            mRuleLength[rule] = keyword.length();
+            mRuleTag[rule] = tag;
+            mRuleFlags[rule] = flags;
+            mRuleNext[rule] = mBoundaryRule[state];
+            mBoundaryRule[state] = rule;
+        }
+
+        private int addState() {
+            if (mStateCount == mStateTags.length) {
+                int size = mStateCount * 2;
+                mStateTags = Arrays.copyOf(mStateTags, size);
+                int[] boundaryRule = filled(size);
+                System.arraycopy(mBoundaryRule, 0, boundaryRule, 0, mStateCount);
+                mBoundaryRule = boundaryRule;
+            }
+            return mStateCount++;
+        }
+
+        private void addEdge(int parent, char c, int child) {
+            int edge = child - 1;
+            if (edge == mEdgeParent.length) {
+                int size = edge * 2;
+                mEdgeParent = Arrays.copyOf(mEdgeParent, size);
+                mEdgeChar = Arrays.copyOf(mEdgeChar, size);
+                mEdgeChild = Arrays.copyOf(mEdgeChild, size);
+            }
+            mEdgeParent[edge] = parent;
+            mEdgeChar[edge] = c;
+            mEdgeChild[edge] = child;
+        }
+
+        /**
+         * Packs the edges into a hash table and computes the failure links
+         * in breadth-first order, so each state's failure state is done
+         * before the state itself.
+         */
+        KeywordFilter build() {
+            int states = mStateCount;
+            int edges = states - 1;
+            int capacity = 16;
+            while (capacity < edges * 2) {
+                capacity *= 2;
+            }
+            long[] edgeKeys = new long[capacity];
+            int[] edgeTargets = new int[capacity];
+            Arrays.fill(edgeKeys, EMPTY_KEY);
+            int mask = capacity - 1;
+            // Children of each state, as ranges of a list sorted by parent.
+            int[] childStart = new int[states + 1];
+            for (int e = 0; e < edges; e++) {
+                long key = ((long) mEdgeParent[e] << 16) | mEdgeChar[e];
+                int slot = mix(key) & mask;
+                while (edgeKeys[slot] != EMPTY_KEY) {
+                    slot = (slot + 1) & mask;
+                }
+                edgeKeys[slot] = key;
+                edgeTargets[slot] = mEdgeChild[e];
+                childStart[mEdgeParent[e] + 1]++;
+            }
+            for (int s = 0; s < states; s++) {
+                childStart[s + 1] += childStart[s];
+            }
+            int[] children = new int[edges];
+            int[] fill = Arrays.copyOf(childStart, states);
+            for (int e = 0; e < edges; e++) {
+                children[fill[mEdgeParent[e]]++] = e;
+            }
+
+            int[] fail = new int[states];
+            int[] tags = Arrays.copyOf(mStateTags, states);
+            int[] boundaryLink = filled(states);
+            KeywordFilter filter = new KeywordFilter(this, edgeKeys, edgeTargets, fail, tags,
+                    boundaryLink);
+            int[] queue = new int[states];
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = 0;
+            while (head < tail) {
+                int state = queue[head++];
+                for (int i = childStart[state]; i < childStart[state + 1]; i++) {
+                    int edge = children[i];
+                    int child = mEdgeChild[edge];
+                    char c = mEdgeChar[edge];
+                    if (state != 0) {
+                        int f = fail[state];
+                        int next;
+                        while ((next = filter.next(f, c)) < 0 && f != 0) {
+                            f = fail[f];
+                        }
+                        fail[child] = next < 0 ? 0 : next;
+                    }
+                    int f = fail[child];
+                    tags[child] |= tags[f];
+                    boundaryLink[child] = mBoundaryRule[f] >= 0 ? f : boundaryLink[f];
+                    queue[tail++] = child;
+                }
+            }
+            return filter;
+        }
+
+        private static int[] filled(int size) {
+            int[] array = new int[size];
+            Arrays.fill(array, -1);
+            return array;
+        }
+    }
+}
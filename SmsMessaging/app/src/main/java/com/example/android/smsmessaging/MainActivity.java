@@ -17,24 +17,33 @@
 package com.example.android.smsmessaging;
 
 import android.Manifest;
-import android.app.PendingIntent;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.support.v4.app.ActivityCompat;
 import android.support.v7.app.AppCompatActivity;
-import android.telephony.SmsManager;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
 import android.widget.EditText;
 import android.widget.ImageButton;
+import android.widget.TextView;
 import android.widget.Toast;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
 /**
  * This app provides SMS features that enable the user to:
- * - Enter a phone number.
- * - Enter a message and send the message to the phone number.
+ * - Enter one or more phone numbers.
+ * - Enter a message and send the message to the phone numbers.
  * - Receive SMS messages and display them in a toast.
  */
 public class MainActivity extends AppCompatActivity {
@@ -42,6 +51,9 @@ public class MainActivity extends AppCompatActivity {
     private static final String TAG = MainActivity.class.getSimpleName();
     private static final int MY_PERMISSIONS_REQUEST_SEND_SMS = 1;
 
+    private final SegmentCounter mSegmentCounter = new SegmentCounter();
+    private TextView mSegmentsView;
+
     /**
      * Creates the activity, sets the view, and checks for SMS permission.
      *
@@ -53,6 +65,53 @@ public class MainActivity extends AppCompatActivity {
         setContentView(R.layout.activity_main);
         // Check to see if SMS is enabled.
         checkForSmsPermission();
+        // Resume any messages left in the outbox.
+        SmsManagerTransport.getBulkSender(this);
+        watchSegments();
+    }
+
+    /**
+     * Keeps the segment count under the message field up to date. The
+     * counter only looks at the characters each edit touches, so typing
+     * stays fast in a long message.
+     */
+    private void watchSegments() {
+        EditText smsEditText = (EditText) findViewById(R.id.sms_message);
+        mSegmentsView = (TextView) findViewById(R.id.sms_segments);
+        mSegmentCounter.reset(smsEditText.getText());
+        showSegments();
+        smsEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+                mSegmentCounter.remove(s, start, count);
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+                mSegmentCounter.insert(s, start, count);
+                showSegments();
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+            }
+        });
+        CheckBox transliterate = (CheckBox) findViewById(R.id.transliterate);
+        mSegmentCounter.setTransliterate(transliterate.isChecked());
+        transliterate.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                mSegmentCounter.setTransliterate(isChecked);
+                showSegments();
+            }
+        });
+    }
+
+    private void showSegments() {
+        mSegmentsView.setText(getString(R.string.segment_status,
+                mSegmentCounter.getRemainingInSegment(), mSegmentCounter.getSegmentCount(),
+                getString(mSegmentCounter.getEncoding() == SegmentCounter.ENCODING_7BIT
+                        ? R.string.encoding_gsm : R.string.encoding_ucs2)));
     }
 
     /**
@@ -106,32 +165,199 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * Defines a string (destinationAddress) for the phone number
-     * and gets the input text for the SMS message.
-     * Uses SmsManager.sendTextMessage to send the message.
+     * Gets the recipients (separated by commas, semicolons or new lines)
+     * and the input text for the SMS message, transliterates it to GSM 7-bit
+     * if that option is checked, and queues the message for each recipient
+     * with the bulk sender, which sends it in the background. When the
+     * recipients were entered with fields ("Name <number> key=value"), the
+     * message is a MessageTemplate, compiled once and rendered for each
+     * recipient; otherwise it is sent as typed, braces included. The
+     * messages are added to their conversation threads once they are sent.
      * Before sending, checks to see if permission is granted.
      *
      * @param view View (message_icon) that was clicked.
      */
     public void smsSendMessage(View view) {
         EditText editText = (EditText) findViewById(R.id.editText_main);
-        // Set the destination phone number to the string in editText.
-        String destinationAddress = editText.getText().toString();
+        // Set the destination phone numbers from the string in editText.
+        List<Recipient> recipients = parseRecipients(editText.getText().toString(),
+                PhoneNumbers.getNormalizer(this));
         // Find the sms_message view.
         EditText smsEditText = (EditText) findViewById(R.id.sms_message);
         // Get the text of the sms message.
         String smsMessage = smsEditText.getText().toString();
-        // Set the service center address if needed, otherwise null.
-        String scAddress = null;
-        // Set pending intents to broadcast
-        // when message sent and when delivered, or set to null.
-        PendingIntent sentIntent = null, deliveryIntent = null;
+        if (recipients.isEmpty()) {
+            return;
+        }
+        CheckBox transliterate = (CheckBox) findViewById(R.id.transliterate);
+        if (transliterate.isChecked()) {
+            // Once per body, before it is queued for every recipient.
+            GsmTransliterator.Result result = GsmTransliterator.transliterate(smsMessage);
+            smsMessage = result.getText();
+            if (result.getReplacedCount() > 0) {
+                Log.d(TAG, getString(R.string.transliterated, result.getReplacedCount(),
+                        result.getReplacedChars()));
+            } else if (!result.getUnmappableChars().isEmpty()) {
+                Toast.makeText(this, getString(R.string.not_transliterated,
+                        result.getUnmappableChars()), Toast.LENGTH_LONG).show();
+            }
+        }
+        List<String> destinationAddresses = new ArrayList<>(recipients.size());
+        for (Recipient recipient : recipients) {
+            destinationAddresses.add(recipient.number);
+        }
+        List<String> bodies;
+        if (hasFields(recipients)) {
+            MessageTemplate template = MessageTemplate.compile(smsMessage);
+            String missing = findMissingPlaceholder(template, recipients);
+            if (missing != null) {
+                // Sending it would leave the placeholder empty.
+                Toast.makeText(this, getString(R.string.template_missing, missing),
+                        Toast.LENGTH_LONG).show();
+                return;
+            }
+            bodies = renderBodies(template, recipients, transliterate.isChecked());
+        } else {
+            bodies = Collections.nCopies(destinationAddresses.size(), smsMessage);
+        }
         // Check for permission first.
         checkForSmsPermission();
-        // Use SmsManager.
-        SmsManager smsManager = SmsManager.getDefault();
-        smsManager.sendTextMessage(destinationAddress, scAddress, smsMessage,
-                sentIntent, deliveryIntent);
+        // Queue the message; the UI thread does not wait for the sends.
+        // Each message joins its conversation thread once it is sent.
+        SmsManagerTransport.getBulkSender(this).send(destinationAddresses, bodies);
+        Toast.makeText(this, getString(R.string.sending_to, destinationAddresses.size()),
+                Toast.LENGTH_SHORT).show();
+    }
+
+    /**
+     * @param recipients The recipients.
+     * @return Whether any recipient has fields besides its number.
+     */
+    private static boolean hasFields(List<Recipient> recipients) {
+        for (Recipient recipient : recipients) {
+            if (recipient.values.size() > 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param template   The compiled message.
+     * @param recipients The recipients and their values.
+     * @return A placeholder that no recipient has a value for, or null.
+     */
+    private static String findMissingPlaceholder(MessageTemplate template,
+                                                 List<Recipient> recipients) {
+        for (int i = 0; i < template.getPlaceholderCount(); i++) {
+            String name = template.getName(i);
+            boolean found = false;
+            for (int j = 0; j < recipients.size() && !found; j++) {
+                found = recipients.get(j).values.containsKey(name);
+            }
+            if (!found) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Renders a template for each recipient, and warns if some values are
+     * long enough to cost an extra segment.
+     *
+     * @param template      The compiled message.
+     * @param recipients    The recipients and their values.
+     * @param transliterate Whether to transliterate the values to GSM 7-bit.
+     * @return The body of each recipient.
+     */
+    private List<String> renderBodies(MessageTemplate template, List<Recipient> recipients,
+                                      boolean transliterate) {
+        String[] values = new String[template.getPlaceholderCount()];
+        int[] maxValueLengths = new int[values.length];
+        StringBuilder body = new StringBuilder(template.getLiteralChars() + 64);
+        List<String> bodies = new ArrayList<>(recipients.size());
+        for (Recipient recipient : recipients) {
+            for (int i = 0; i < values.length; i++) {
+                String value = recipient.values.get(template.getName(i));
+                if (value != null && transliterate) {
+                    value = GsmTransliterator.transliterate(value).getText();
+                }
+                values[i] = value;
+                if (value != null) {
+                    maxValueLengths[i] = Math.max(maxValueLengths[i], value.length());
+                }
+            }
+            body.setLength(0);
+            template.render(values, body);
+            bodies.add(body.toString());
+        }
+        List<String> overflowing = template.getOverflowingPlaceholders(maxValueLengths);
+        if (!overflowing.isEmpty()) {
+            Toast.makeText(this, getString(R.string.template_overflow, overflowing),
+                    Toast.LENGTH_LONG).show();
+        }
+        return bodies;
+    }
+
+    /**
+     * A recipient from the phone number field, with the values for the
+     * placeholders of a message template.
+     */
+    private static final class Recipient {
+        final String number;
+        final HashMap<String, String> values = new HashMap<>();
+
+        Recipient(String number) {
+            this.number = number;
+        }
+    }
+
+    /**
+     * Splits the phone number field into individual recipients and
+     * normalizes their numbers, dropping numbers that appear more than
+     * once. A recipient is either a number, or "Name &lt;number&gt;"
+     * followed by any number of key=value pairs; the name, its first word,
+     * the number and the pairs become the values of {name}, {first},
+     * {number} and {key}.
+     *
+     * @param text       The text of the phone number field.
+     * @param normalizer Normalizes each recipient.
+     * @return The distinct, non-empty recipients in the order entered.
+     */
+    private static List<Recipient> parseRecipients(String text,
+                                                   PhoneNumberNormalizer normalizer) {
+        LinkedHashMap<String, Recipient> recipients = new LinkedHashMap<>();
+        for (String entry : text.split("[,;\\n]")) {
+            entry = entry.trim();
+            int open = entry.indexOf('<');
+            int close = entry.indexOf('>', open + 1);
+            String number = open >= 0 && close > open
+                    ? entry.substring(open + 1, close).trim() : entry;
+            if (number.isEmpty()) {
+                continue;
+            }
+            Recipient recipient = new Recipient(normalizer.normalize(number));
+            recipient.values.put("number", recipient.number);
+            if (open >= 0 && close > open) {
+                String name = entry.substring(0, open).trim();
+                if (!name.isEmpty()) {
+                    recipient.values.put("name", name);
+                    recipient.values.put("first", name.split("\\s+")[0]);
+                }
+                for (String pair : entry.substring(close + 1).trim().split("\\s+")) {
+                    int equals = pair.indexOf('=');
+                    if (equals > 0) {
+                        recipient.values.put(pair.substring(0, equals),
+                                pair.substring(equals + 1));
+                    }
+                }
+            }
+            if (!recipients.containsKey(recipient.number)) {
+                recipients.put(recipient.number, recipient);
+            }
+        }
+        return new ArrayList<>(recipients.values());
     }
 
     /**
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A message body with placeholders such as {name} and {code}, parsed once
+ * so that personalized bodies can be rendered for many recipients.
+ *
+ * compile() splits the text into literal runs and placeholder slots, each
+ * slot holding the index of its placeholder name. render() then only
+ * appends strings to a caller's StringBuilder, which can be reused from
+ * one recipient to the next. Write "{{" and "}}" for literal braces; a
+ * brace that does not start a valid placeholder is kept as it is.
+ *
+ * Compiling also measures the literal text with SegmentCounter, so that
+ * getOverflowingPlaceholders() can tell, from the longest value each
+ * placeholder will take, which placeholders may push a body into another
+ * segment.
+ *
+ * Plain Java. A compiled template is immutable and may be shared by threads.
+ */
+public final class MessageTemplate {
+
+    // Literal runs; mLiterals[i] comes before slot i, and the last one
+    // after the last slot.
+    private final String[] mLiterals;
+    // Placeholder index of each slot.
+    private final int[] mSlots;
+    private final String[] mNames;
+    // How many slots each placeholder fills.
+    private final int[] mOccurrences;
+    private final int mFixedLength;
+    private final int mHeadroom;
+    private final boolean mFixedGsm;
+    private final int mLiteralChars;
+
+    private MessageTemplate(List<String> literals, List<Integer> slots, List<String> names) {
+        mLiterals = literals.toArray(new String[literals.size()]);
+        mSlots = new int[slots.size()];
+        mNames = names.toArray(new String[names.size()]);
+        mOccurrences = new int[mNames.length];
+        for (int i = 0; i < mSlots.length; i++) {
+            mSlots[i] = slots.get(i);
+            mOccurrences[mSlots[i]]++;
+        }
+        SegmentCounter counter = new SegmentCounter();
+        int literalChars = 0;
+        for (String literal : mLiterals) {
+            counter.insert(literal, 0, literal.length());
+            literalChars += literal.length();
+        }
+        mLiteralChars = literalChars;
+        mFixedLength = counter.getLength();
+        mHeadroom = counter.getRemainingInSegment();
+        mFixedGsm = counter.getEncoding() == SegmentCounter.ENCODING_7BIT;
+    }
+
+    /**
+     * Parses a template.
+     *
+     * @param text The template text.
+     * @return The compiled template.
+     */
+    public static MessageTemplate compile(String text) {
+        List<String> literals = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if ((c == '{' || c == '}') && i + 1 < text.length() && text.charAt(i + 1) == c) {
+                literal.append(c);
+                i += 2;
+                continue;
+            }
+            int end = c == '{' ? nameEnd(text, i + 1) : -1;
+            if (end < 0) {
+                literal.append(c);
+                i++;
+                continue;
+            }
+            String name = text.substring(i + 1, end);
+            int index = names.indexOf(name);
+            if (index < 0) {
+                index = names.size();
+                names.add(name);
+            }
+            literals.add(literal.toString());
+            literal.setLength(0);
+            slots.add(index);
+            i = end + 1;
+        }
+        literals.add(literal.toString());
+        return new MessageTemplate(literals, slots, names);
+    }
+
+    /**
+     * Returns the index of the '}' that closes a placeholder name starting
+     * at start, or -1 if there is no valid name there.
+     */
+    private static int nameEnd(String text, int start) {
+        int i = start;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c == '}') {
+                return i > start ? i : -1;
+            }
+            if (!Character.isLetterOrDigit(c) && c != '_') {
+                return -1;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * @return The number of distinct placeholders.
+     */
+    public int getPlaceholderCount() {
+        return mNames.length;
+    }
+
+    /**
+     * @param index Placeholder index.
+     * @return Its name, without braces.
+     */
+    public String getName(int index) {
+        return mNames[index];
+    }
+
+    /**
+     * @param name A placeholder name, without braces.
+     * @return Its index, or -1 if the template does not use it.
+     */
+    public int indexOf(String name) {
+        for (int i = 0; i < mNames.length; i++) {
+            if (mNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Appends a body to a builder.
+     *
+     * @param values Value of each placeholder, by index; null renders as
+     *               nothing.
+     * @param out    The builder, which the caller may clear and reuse.
+     */
+    public void render(String[] values, StringBuilder out) {
+        out.append(mLiterals[0]);
+        for (int i = 0; i < mSlots.length; i++) {
+            String value = values[mSlots[i]];
+            if (value != null) {
+                out.append(value);
+            }
+            out.append(mLiterals[i + 1]);
+        }
+    }
+
+    /**
+     * @return The number of characters outside placeholders, to size builders.
+     */
+    public int getLiteralChars() {
+        return mLiteralChars;
+    }
+
+    /**
+     * @return The length of the text outside placeholders, in septets if it
+     * is all GSM 7-bit and in UTF-16 units otherwise.
+     */
+    public int getFixedLength() {
+        return mFixedLength;
+    }
+
+    /**
+     * @return Septets or units the placeholders can add before the body
+     * needs another segment.
+     */
+    public int getHeadroom() {
+        return mHeadroom;
+    }
+
+    /**
+     * Returns the placeholders that, filled with values of the given
+     * lengths, may push a body past a segment boundary on their own. Each
+     * value character is counted as one septet or unit, so a value with
+     * characters outside GSM 7-bit can still overflow a GSM body.
+     *
+     * @param maxValueLengths Longest value of each placeholder, by index.
+     * @return The names of those placeholders.
+     */
+    public List<String> getOverflowingPlaceholders(int[] maxValueLengths) {
+        List<String> overflowing = new ArrayList<>();
+        for (int i = 0; i < mNames.length; i++) {
+            if (mOccurrences[i] * maxValueLengths[i] > mHeadroom) {
+                overflowing.add(mNames[i]);
+            }
+        }
+        return overflowing;
+    }
+
+    /**
+     * @return True if the text outside placeholders is all GSM 7-bit.
+     */
+    public boolean isFixedGsm() {
+        return mFixedGsm;
+    }
+}
@@ -16,18 +16,17 @@
 
 package com.example.android.smsmessaging;
 
-import android.annotation.TargetApi;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.os.Build;
 import android.os.Bundle;
-import android.telephony.SmsMessage;
-import android.util.Log;
-import android.widget.Toast;
 
+/**
+ * Hands each SMS_RECEIVED broadcast to SmsReceivePipeline. All decoding,
+ * logging and display happen on the pipeline's worker thread, so
+ * onReceive() returns almost immediately.
+ */
 public class MySmsReceiver extends BroadcastReceiver {
-    private static final String TAG = MySmsReceiver.class.getSimpleName();
     public static final String pdu_type = "pdus";
 
     /**
@@ -36,37 +35,16 @@ public class MySmsReceiver extends BroadcastReceiver {
      * @param context  The Context in which the receiver is running.
      * @param intent   The Intent received.
      */
-    @TargetApi(Build.VERSION_CODES.M)
     @Override
     public void onReceive(Context context, Intent intent) {
         // Get the SMS message.
         Bundle bundle = intent.getExtras();
-        SmsMessage[] msgs;
-        String strMessage = "";
         String format = bundle.getString("format");
         // Retrieve the SMS message received.
         Object[] pdus = (Object[]) bundle.get(pdu_type);
         if (pdus != null) {
-            // Check the Android version.
-            boolean isVersionM = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M);
-            // Fill the msgs array.
-            msgs = new SmsMessage[pdus.length];
-            for (int i = 0; i < msgs.length; i++) {
-                // Check Android version and use appropriate createFromPdu.
-                if (isVersionM) {
-                    // If Android version M or newer:
-                    msgs[i] = SmsMessage.createFromPdu((byte[]) pdus[i], format);
-                } else {
-                    // If Android version L or older:
-                    msgs[i] = SmsMessage.createFromPdu((byte[]) pdus[i]);
-                }
-                // Build the message to show.
-                strMessage += "SMS from " + msgs[i].getOriginatingAddress();
-                strMessage += " :" + msgs[i].getMessageBody() + "\n";
-                // Log and display the SMS message.
-                Log.d(TAG, "onReceive: " + strMessage);
-                Toast.makeText(context, strMessage, Toast.LENGTH_LONG).show();
-            }
+            // Keep the broadcast alive until the worker has processed it.
+            SmsReceivePipeline.getInstance(context).enqueue(pdus, format, goAsync());
         }
     }
 }
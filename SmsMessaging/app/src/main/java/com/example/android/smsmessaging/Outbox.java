@@ -0,0 +1,597 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Durable queue of outbound messages with retry scheduling.
+ *
+ * Messages are written to disk before they are dispatched, in two files:
+ * an append-only data file holding each batch body once plus one
+ * destination record per message, and a slot file with a fixed-size state
+ * record per message ID. Only the IDs and due times of messages waiting to
+ * be sent are kept in memory; bodies and destinations are read back from
+ * disk when a message is due, so a backlog of any size has a small heap.
+ *
+ * A message is marked DISPATCHED (and the slot forced to disk) before it
+ * is handed to the transport, and DISPATCHED messages are never sent
+ * again after a restart; their sent reports settle them. A message whose
+ * reports have not come within the report timeout, for example because
+ * the device rebooted mid-send, is marked FAILED when the outbox is next
+ * opened, so it cannot keep the files from being truncated. Both files
+ * are truncated whenever the last live message settles, and when the
+ * outbox is opened with none. Failures that may be temporary are retried
+ * with jittered exponential backoff.
+ *
+ * Not thread-safe; BulkSmsSender uses it from a single thread.
+ */
+public final class Outbox implements Closeable {
+
+    public static final int STATUS_PENDING = 0;
+    public static final int STATUS_DISPATCHED = 1;
+    public static final int STATUS_SENT = 2;
+    public static final int STATUS_FAILED = 3;
+    public static final int REPORT_IGNORED = -1;
+
+    private static final String DATA_FILE = "outbox.dat";
+    private static final String SLOTS_FILE = "outbox.slots";
+    private static final byte RECORD_BODY = 1;
+    private static final byte RECORD_DESTINATION = 2;
+    // Slots file header: ID of the first slot.
+    private static final int HEADER_SIZE = 8;
+    // Slot: record offset, next attempt time (or dispatch time once
+    // dispatched), status, attempts, parts, parts reported sent, 4 bytes
+    // reserved.
+    private static final int SLOT_SIZE = 8 + 8 + 1 + 1 + 1 + 1 + 4;
+    private static final int WRITE_CHUNK = 64 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * A message that is due to be sent, or was just reported sent.
+     */
+    public static final class Entry {
+        private final long mId;
+        private final String mDestination;
+        private final String mBody;
+        private final int mAttempt;
+
+        Entry(long id, String destination, String body, int attempt) {
+            mId = id;
+            mDestination = destination;
+            mBody = body;
+            mAttempt = attempt;
+        }
+
+        public long getId() {
+            return mId;
+        }
+
+        public String getDestination() {
+            return mDestination;
+        }
+
+        public String getBody() {
+            return mBody;
+        }
+
+        /**
+         * @return The 1-based attempt number this entry is for.
+         */
+        public int getAttempt() {
+            return mAttempt;
+        }
+    }
+
+    private final RandomAccessFile mDataFile;
+    private final RandomAccessFile mSlotsFile;
+    private final FileChannel mData;
+    private final FileChannel mSlots;
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final int mMaxAttempts;
+    private final long mReportTimeoutMillis;
+    private final Random mRandom = new Random();
+    private final DueQueue mDue = new DueQueue();
+    private final ByteBuffer mSlot = ByteBuffer.allocate(SLOT_SIZE);
+    private ByteBuffer mWriteBuffer = ByteBuffer.allocate(WRITE_CHUNK);
+
+    private long mFirstId;
+    private long mSlotCount;
+    private long mDataEnd;
+    private int mLiveCount;
+    // The body most recently read, since consecutive messages share it.
+    private long mCachedBodyOffset = -1;
+    private String mCachedBody;
+    // The message the last report completed, if it did.
+    private Entry mLastSent;
+
+    /**
+     * Opens the outbox in a directory, resuming any unsent messages.
+     *
+     * @param dir                 Directory for the outbox files.
+     * @param baseDelayMillis     Delay before the first retry.
+     * @param maxDelayMillis      Longest delay between retries.
+     * @param maxAttempts         Attempts before a message is marked failed.
+     * @param reportTimeoutMillis How long a dispatched message may wait for
+     *                            its sent reports before it is failed.
+     * @param nowMillis           Current wall-clock time.
+     * @throws IOException if the files cannot be opened or read.
+     */
+    public Outbox(File dir, long baseDelayMillis, long maxDelayMillis, int maxAttempts,
+                  long reportTimeoutMillis, long nowMillis) throws IOException {
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mMaxAttempts = maxAttempts;
+        mReportTimeoutMillis = reportTimeoutMillis;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        mDataFile = new RandomAccessFile(new File(dir, DATA_FILE), "rw");
+        mSlotsFile = new RandomAccessFile(new File(dir, SLOTS_FILE), "rw");
+        mData = mDataFile.getChannel();
+        mSlots = mSlotsFile.getChannel();
+        load(nowMillis);
+    }
+
+    /**
+     * Reads the slot states, queueing the messages still to be sent and
+     * failing those dispatched too long ago. When nothing is left in
+     * flight, both files are truncated.
+     */
+    private void load(long nowMillis) throws IOException {
+        mDataEnd = mData.size();
+        if (mSlots.size() < HEADER_SIZE) {
+            writeHeader(0);
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        mSlots.read(header, 0);
+        mFirstId = header.getLong(0);
+        mSlotCount = (mSlots.size() - HEADER_SIZE) / SLOT_SIZE;
+        ByteBuffer buffer = ByteBuffer.allocate(SLOT_SIZE * 2048);
+        ByteBuffer failed = ByteBuffer.allocate(1);
+        long position = HEADER_SIZE;
+        long index = 0;
+        while (index < mSlotCount) {
+            buffer.clear();
+            mSlots.read(buffer, position);
+            buffer.flip();
+            while (buffer.remaining() >= SLOT_SIZE && index < mSlotCount) {
+                int start = buffer.position();
+                long nextAttempt = buffer.getLong(start + 8);
+                int status = buffer.get(start + 16);
+                if (status == STATUS_DISPATCHED
+                        && nowMillis - nextAttempt > mReportTimeoutMillis) {
+                    // Its reports are not coming; settle it.
+                    status = STATUS_FAILED;
+                    failed.put(0, (byte) status);
+                    mSlots.write(failed, position + 16);
+                    failed.clear();
+                }
+                if (status == STATUS_PENDING) {
+                    mDue.add(nextAttempt, mFirstId + index);
+                }
+                if (status == STATUS_PENDING || status == STATUS_DISPATCHED) {
+                    mLiveCount++;
+                }
+                buffer.position(start + SLOT_SIZE);
+                position += SLOT_SIZE;
+                index++;
+            }
+        }
+        truncateIfSettled();
+    }
+
+    /**
+     * Empties both files once every message has been settled. IDs keep
+     * counting up, so a late report for a settled message is ignored.
+     */
+    private void truncateIfSettled() throws IOException {
+        if (mLiveCount != 0 || mSlotCount == 0) {
+            return;
+        }
+        // The header goes first: if the process dies before the files
+        // are truncated, the slots left behind are all settled anyway.
+        writeHeader(mFirstId + mSlotCount);
+        mSlots.truncate(HEADER_SIZE);
+        mData.truncate(0);
+        mDataEnd = 0;
+        mSlotCount = 0;
+        // Data offsets are reused from now on.
+        mCachedBodyOffset = -1;
+        mCachedBody = null;
+        mDue.clear();
+    }
+
+    private void writeHeader(long firstId) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(0, firstId);
+        mSlots.write(header, 0);
+        mFirstId = firstId;
+    }
+
+    /**
+     * Durably adds a message for each destination. The body is stored once.
+     *
+     * @param destinations The destination addresses.
+     * @param body         The message body.
+     * @param nowMillis    Current wall-clock time; the messages are due at once.
+     * @throws IOException if the outbox cannot be written.
+     */
+    public void enqueue(List<String> destinations, String body, long nowMillis)
+            throws IOException {
+        enqueue(destinations, Collections.nCopies(destinations.size(), body), nowMillis);
+    }
+
+    /**
+     * Durably adds a message for each destination, each with its own body,
+     * as for a personalized batch. A body equal to the one before it is
+     * stored once.
+     *
+     * @param destinations The destination addresses.
+     * @param bodies       The message body of each destination.
+     * @param nowMillis    Current wall-clock time; the messages are due at once.
+     * @throws IOException if the outbox cannot be written.
+     */
+    public void enqueue(List<String> destinations, List<String> bodies, long nowMillis)
+            throws IOException {
+        long bodyOffset = -1;
+        String lastBody = null;
+        ByteBuffer out;
+        long[] recordOffsets = new long[destinations.size()];
+        for (int i = 0; i < destinations.size(); i++) {
+            String body = bodies.get(i);
+            if (!body.equals(lastBody)) {
+                byte[] bodyBytes = body.getBytes(UTF_8);
+                out = writeBuffer(1 + 4 + bodyBytes.length);
+                bodyOffset = mDataEnd + out.position();
+                out.put(RECORD_BODY).putInt(bodyBytes.length).put(bodyBytes);
+                lastBody = body;
+            }
+            byte[] destination = destinations.get(i).getBytes(UTF_8);
+            out = writeBuffer(1 + 8 + 4 + destination.length);
+            recordOffsets[i] = mDataEnd + out.position();
+            out.put(RECORD_DESTINATION).putLong(bodyOffset)
+                    .putInt(destination.length).put(destination);
+        }
+        flushWriteBuffer();
+        long firstId = mFirstId + mSlotCount;
+        long slotPosition = slotPosition(firstId);
+        mWriteBuffer.clear();
+        for (int i = 0; i < recordOffsets.length; i++) {
+            if (mWriteBuffer.remaining() < SLOT_SIZE) {
+                slotPosition += writeFully(mSlots, mWriteBuffer, slotPosition);
+            }
+            mWriteBuffer.putLong(recordOffsets[i]).putLong(nowMillis)
+                    .put((byte) STATUS_PENDING).put((byte) 0).put((byte) 0).put((byte) 0)
+                    .putInt(0);
+        }
+        writeFully(mSlots, mWriteBuffer, slotPosition);
+        mData.force(false);
+        mSlots.force(false);
+        for (int i = 0; i < recordOffsets.length; i++) {
+            mDue.add(nowMillis, firstId + i);
+        }
+        mSlotCount += recordOffsets.length;
+        mLiveCount += recordOffsets.length;
+    }
+
+    /**
+     * Takes the next message that is due. The caller must pass it to
+     * markDispatched() before handing it to the transport.
+     *
+     * @param nowMillis Current wall-clock time.
+     * @return The message, or null if none is due.
+     * @throws IOException if the outbox cannot be read.
+     */
+    public Entry poll(long nowMillis) throws IOException {
+        while (!mDue.isEmpty() && mDue.peekDue() <= nowMillis) {
+            long id = mDue.poll();
+            readSlot(id);
+            if (mSlot.get(16) != STATUS_PENDING) {
+                continue;
+            }
+            return readEntry(id, mSlot.getLong(0), mSlot.get(17) + 1);
+        }
+        return null;
+    }
+
+    /**
+     * Reads a message's destination and body from the data file.
+     */
+    private Entry readEntry(long id, long recordOffset, int attempt) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(1 + 8 + 4);
+        readFully(mData, record, recordOffset);
+        long bodyOffset = record.getLong(1);
+        byte[] destination = new byte[record.getInt(9)];
+        readFully(mData, ByteBuffer.wrap(destination), recordOffset + record.capacity());
+        return new Entry(id, new String(destination, UTF_8), readBody(bodyOffset), attempt);
+    }
+
+    /**
+     * Records that a message is about to be handed to the transport, and
+     * forces the state to disk so a restart cannot send it twice.
+     *
+     * @param entry     The message from poll().
+     * @param parts     Number of SMS parts it will be sent as.
+     * @param nowMillis Current wall-clock time, kept for the report timeout.
+     * @throws IOException if the outbox cannot be written.
+     */
+    public void markDispatched(Entry entry, int parts, long nowMillis) throws IOException {
+        readSlot(entry.getId());
+        mSlot.putLong(8, nowMillis);
+        mSlot.put(16, (byte) STATUS_DISPATCHED);
+        mSlot.put(17, (byte) entry.getAttempt());
+        mSlot.put(18, (byte) Math.min(Math.max(parts, 1), 127));
+        mSlot.put(19, (byte) 0);
+        writeSlot(entry.getId());
+        mSlots.force(false);
+    }
+
+    /**
+     * Records a sent report for one part of a dispatched message, or a
+     * failure to dispatch it. Reports for an earlier attempt are ignored.
+     *
+     * @param id        The message ID.
+     * @param attempt   The attempt the report belongs to.
+     * @param success   Whether the part was sent.
+     * @param retryable Whether a failure may be temporary (no service, radio off).
+     * @param nowMillis Current wall-clock time.
+     * @return The message status after the report, or REPORT_IGNORED if
+     *         the report was for an earlier attempt or a settled message.
+     *         After STATUS_SENT, getLastSent() returns the message.
+     * @throws IOException if the outbox cannot be written.
+     */
+    public int onReport(long id, int attempt, boolean success, boolean retryable,
+                        long nowMillis) throws IOException {
+        mLastSent = null;
+        if (id < mFirstId || id >= mFirstId + mSlotCount) {
+            return REPORT_IGNORED;
+        }
+        readSlot(id);
+        int status = mSlot.get(16);
+        if (status != STATUS_DISPATCHED || mSlot.get(17) != attempt) {
+            return REPORT_IGNORED;
+        }
+        if (success) {
+            int sentParts = mSlot.get(19) + 1;
+            mSlot.put(19, (byte) sentParts);
+            if (sentParts >= mSlot.get(18)) {
+                status = STATUS_SENT;
+                mLiveCount--;
+                // Read before the files can be truncated below.
+                mLastSent = readEntry(id, mSlot.getLong(0), attempt);
+            }
+        } else if (retryable && attempt < mMaxAttempts) {
+            status = STATUS_PENDING;
+            long nextAttempt = nowMillis + backoffMillis(attempt);
+            mSlot.putLong(8, nextAttempt);
+            mDue.add(nextAttempt, id);
+        } else {
+            status = STATUS_FAILED;
+            mLiveCount--;
+        }
+        mSlot.put(16, (byte) status);
+        writeSlot(id);
+        truncateIfSettled();
+        return status;
+    }
+
+    /**
+     * @return The message the last onReport() call completed, or null if
+     *         it did not return STATUS_SENT.
+     */
+    public Entry getLastSent() {
+        return mLastSent;
+    }
+
+    /**
+     * Returns the delay before the next attempt: exponential in the number
+     * of attempts so far, capped, with half of it randomized so that many
+     * failed messages do not all retry at the same moment.
+     *
+     * @param attempts Attempts made so far (at least 1).
+     * @return The delay in milliseconds.
+     */
+    long backoffMillis(int attempts) {
+        long delay = mBaseDelayMillis << Math.min(attempts - 1, 30);
+        if (delay <= 0 || delay > mMaxDelayMillis) {
+            delay = mMaxDelayMillis;
+        }
+        long half = delay / 2;
+        return half + (long) (mRandom.nextDouble() * (delay - half));
+    }
+
+    /**
+     * @return Wall-clock time the next message is due, or Long.MAX_VALUE if none.
+     */
+    public long nextDueMillis() {
+        return mDue.isEmpty() ? Long.MAX_VALUE : mDue.peekDue();
+    }
+
+    /**
+     * @return Number of messages not yet sent or failed.
+     */
+    public int getLiveCount() {
+        return mLiveCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mDataFile.close();
+        mSlotsFile.close();
+    }
+
+    private String readBody(long bodyOffset) throws IOException {
+        if (bodyOffset != mCachedBodyOffset) {
+            ByteBuffer header = ByteBuffer.allocate(1 + 4);
+            readFully(mData, header, bodyOffset);
+            byte[] body = new byte[header.getInt(1)];
+            readFully(mData, ByteBuffer.wrap(body), bodyOffset + header.capacity());
+            mCachedBody = new String(body, UTF_8);
+            mCachedBodyOffset = bodyOffset;
+        }
+        return mCachedBody;
+    }
+
+    private long slotPosition(long id) {
+        return HEADER_SIZE + (id - mFirstId) * SLOT_SIZE;
+    }
+
+    private void readSlot(long id) throws IOException {
+        mSlot.clear();
+        readFully(mSlots, mSlot, slotPosition(id));
+    }
+
+    private void writeSlot(long id) throws IOException {
+        mSlot.clear();
+        mSlot.position(SLOT_SIZE);
+        writeFully(mSlots, mSlot, slotPosition(id));
+    }
+
+    /**
+     * Returns the write buffer with room for a record, writing out what it
+     * holds first if needed.
+     */
+    private ByteBuffer writeBuffer(int size) throws IOException {
+        if (mWriteBuffer.remaining() < size) {
+            flushWriteBuffer();
+            if (mWriteBuffer.capacity() < size) {
+                mWriteBuffer = ByteBuffer.allocate(size);
+            }
+        }
+        return mWriteBuffer;
+    }
+
+    private void flushWriteBuffer() throws IOException {
+        mDataEnd += writeFully(mData, mWriteBuffer, mDataEnd);
+        mWriteBuffer.clear();
+    }
+
+    /**
+     * Writes the buffer's contents from position 0 up to its position.
+     *
+     * @return The number of bytes written.
+     */
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        buffer.flip();
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + length - buffer.remaining());
+        }
+        buffer.clear();
+        return length;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Outbox file truncated at " + position);
+            }
+        }
+    }
+
+    /**
+     * Binary min-heap of (due time, message ID) pairs in parallel arrays.
+     */
+    private static final class DueQueue {
+        private long[] mDueMillis = new long[64];
+        private long[] mIds = new long[64];
+        private int mSize;
+
+        boolean isEmpty() {
+            return mSize == 0;
+        }
+
+        void clear() {
+            mSize = 0;
+        }
+
+        long peekDue() {
+            return mDueMillis[0];
+        }
+
+        void add(long dueMillis, long id) {
+            if (mSize == mIds.length) {
+                mDueMillis = Arrays.copyOf(mDueMillis, mSize * 2);
+                mIds = Arrays.copyOf(mIds, mSize * 2);
+            }
+            int i = mSize++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!less(dueMillis, id, mDueMillis[parent], mIds[parent])) {
+                    break;
+                }
+                mDueMillis[i] = mDueMillis[parent];
+                mIds[i] = mIds[parent];
+                i = parent;
+            }
+            mDueMillis[i] = dueMillis;
+            mIds[i] = id;
+        }
+
+        long poll() {
+            long result = mIds[0];
+            int last = --mSize;
+            long dueMillis = mDueMillis[last];
+            long id = mIds[last];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= mSize) {
+                    break;
+                }
+                if (child + 1 < mSize && less(mDueMillis[child + 1], mIds[child + 1],
+                        mDueMillis[child], mIds[child])) {
+                    child++;
+                }
+                if (!less(mDueMillis[child], mIds[child], dueMillis, id)) {
+                    break;
+                }
+                mDueMillis[i] = mDueMillis[child];
+                mIds[i] = mIds[child];
+                i = child;
+            }
+            if (mSize > 0) {
+                mDueMillis[i] = dueMillis;
+                mIds[i] = id;
+            }
+            return result;
+        }
+
+        /**
+         * Orders by due time, then by ID so equal times keep FIFO order.
+         */
+        private static boolean less(long dueA, long idA, long dueB, long idB) {
+            return dueA < dueB || (dueA == dueB && idA < idB);
+        }
+    }
+}
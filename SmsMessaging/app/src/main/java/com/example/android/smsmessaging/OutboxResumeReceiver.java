@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Resumes sending the messages left in the outbox after the device restarts.
+ */
+public class OutboxResumeReceiver extends BroadcastReceiver {
+
+    /**
+     * Called when the BroadcastReceiver is receiving an Intent broadcast.
+     *
+     * @param context  The Context in which the receiver is running.
+     * @param intent   The Intent received.
+     */
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
+            // Creating the sender opens the outbox and sends what is due.
+            SmsManagerTransport.getBulkSender(context);
+        }
+    }
+}
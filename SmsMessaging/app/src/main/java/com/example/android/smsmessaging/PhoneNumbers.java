@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+import android.content.Context;
+
+/**
+ * Holds the process-wide PhoneNumberNormalizer, shared by the send and
+ * receive paths so that every address is compared in the same form.
+ */
+public final class PhoneNumbers {
+
+    private static final int CACHE_SIZE = 512;
+
+    private static PhoneNumberNormalizer sNormalizer;
+
+    private PhoneNumbers() {
+    }
+
+    /**
+     * Returns the normalizer, creating it on first use with the default
+     * country code from the resources.
+     *
+     * @param context Any context.
+     * @return The normalizer.
+     */
+    public static synchronized PhoneNumberNormalizer getNormalizer(Context context) {
+        if (sNormalizer == null) {
+            sNormalizer = new PhoneNumberNormalizer(
+                    context.getString(R.string.default_country_code), CACHE_SIZE);
+        }
+        return sNormalizer;
+    }
+}
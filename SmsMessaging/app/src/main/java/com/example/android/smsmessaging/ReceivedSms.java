@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+/**
+ * A complete inbound SMS message, after multipart reassembly.
+ */
+public final class ReceivedSms {
+
+    private final String mAddress;
+    private final String mBody;
+    private final long mReceivedMillis;
+    private final int mTags;
+
+    /**
+     * @param address        Originating address.
+     * @param body           Message text.
+     * @param receivedMillis Wall-clock time the message was received.
+     */
+    public ReceivedSms(String address, String body, long receivedMillis) {
+        this(address, body, receivedMillis, 0);
+    }
+
+    /**
+     * @param address        Originating address.
+     * @param body           Message text.
+     * @param receivedMillis Wall-clock time the message was received.
+     * @param tags           KeywordFilter TAG_ bits matched by the body.
+     */
+    public ReceivedSms(String address, String body, long receivedMillis, int tags) {
+        mAddress = address;
+        mBody = body;
+        mReceivedMillis = receivedMillis;
+        mTags = tags;
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    public String getBody() {
+        return mBody;
+    }
+
+    public long getReceivedMillis() {
+        return mReceivedMillis;
+    }
+
+    public int getTags() {
+        return mTags;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+/**
+ * An outbound SMS message that every part of has been reported sent.
+ */
+public final class SentSms {
+
+    private final String mDestination;
+    private final String mBody;
+    private final long mSentMillis;
+
+    /**
+     * @param destination Destination address.
+     * @param body        Message text.
+     * @param sentMillis  Wall-clock time the message was reported sent.
+     */
+    public SentSms(String destination, String body, long sentMillis) {
+        mDestination = destination;
+        mBody = body;
+        mSentMillis = sentMillis;
+    }
+
+    public String getDestination() {
+        return mDestination;
+    }
+
+    public String getBody() {
+        return mBody;
+    }
+
+    public long getSentMillis() {
+        return mSentMillis;
+    }
+}
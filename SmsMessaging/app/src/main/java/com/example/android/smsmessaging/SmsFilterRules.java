@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Holds the KeywordFilter for received messages, and swaps in a new one
+ * when the rules file changes.
+ *
+ * The rules are read from RULES_FILE in the app's files directory if it
+ * exists, and from the defaults in res/raw otherwise. The first call to
+ * current() compiles the rules on the calling thread. After that, current()
+ * only checks the modification time of the rules file; when it has
+ * changed, the new rules are compiled on a background thread and the
+ * previous filter is returned until they are ready.
+ */
+public final class SmsFilterRules {
+
+    private static final String TAG = SmsFilterRules.class.getSimpleName();
+    public static final String RULES_FILE = "sms_filter_rules.txt";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static SmsFilterRules sInstance;
+
+    private final Context mContext;
+    private final File mFile;
+    private final AtomicBoolean mCompiling = new AtomicBoolean();
+    private volatile KeywordFilter mFilter;
+    // Modification time of the rules file mFilter was compiled from, or 0
+    // for the defaults.
+    private volatile long mModified;
+
+    /**
+     * Returns the process-wide rules.
+     *
+     * @param context Any context; only the application context is kept.
+     * @return The rules.
+     */
+    public static synchronized SmsFilterRules getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SmsFilterRules(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private SmsFilterRules(Context context) {
+        mContext = context;
+        mFile = new File(context.getFilesDir(), RULES_FILE);
+    }
+
+    /**
+     * Returns the current filter, starting a recompile if the rules file
+     * has changed.
+     *
+     * @return The filter.
+     */
+    public KeywordFilter current() {
+        // 0 if the file does not exist.
+        final long modified = mFile.lastModified();
+        if (mFilter == null) {
+            synchronized (this) {
+                if (mFilter == null) {
+                    compile(modified);
+                }
+            }
+        } else if (modified != mModified && mCompiling.compareAndSet(false, true)) {
+            Thread compiler = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    try {
+                        compile(modified);
+                    } finally {
+                        mCompiling.set(false);
+                    }
+                }
+            }, TAG);
+            compiler.setDaemon(true);
+            compiler.start();
+        }
+        return mFilter;
+    }
+
+    /**
+     * Compiles the rules and publishes the filter. Invalid rules keep the
+     * previous filter, or an empty one, until the file changes again.
+     */
+    private void compile(long modified) {
+        KeywordFilter filter = null;
+        try {
+            InputStream in = modified != 0 ? new FileInputStream(mFile)
+                    : mContext.getResources().openRawResource(R.raw.sms_filter_rules);
+            try {
+                filter = KeywordFilter.parse(new InputStreamReader(in, UTF_8));
+            } finally {
+                in.close();
+            }
+            Log.d(TAG, "Compiled " + filter.getPatternCount() + " rules into "
+                    + filter.getStateCount() + " states");
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot load filter rules", e);
+        }
+        if (filter != null) {
+            mFilter = filter;
+        } else if (mFilter == null) {
+            mFilter = KeywordFilter.EMPTY;
+        }
+        mModified = modified;
+    }
+}
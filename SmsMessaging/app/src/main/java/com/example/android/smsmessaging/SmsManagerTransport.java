@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.telephony.SmsManager;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+
+/**
+ * SmsTransport backed by the default SmsManager. Every part gets sent and
+ * delivery PendingIntents that SmsStatusReceiver matches back to the
+ * message ID and attempt. Also owns the process-wide BulkSmsSender and
+ * DeliveryTracker.
+ */
+public final class SmsManagerTransport implements SmsTransport {
+
+    private static final String TAG = SmsManagerTransport.class.getSimpleName();
+    // Default pacing: sustained segments per second, and the burst allowed
+    // after an idle period.
+    private static final double SEGMENTS_PER_SECOND = 1.0;
+    private static final int MAX_BURST = 10;
+    private static final String OUTBOX_DIR = "outbox";
+
+    private static BulkSmsSender sSender;
+    private static final DeliveryTracker sTracker = new DeliveryTracker();
+
+    private final Context mContext;
+    private final SmsManager mSmsManager = SmsManager.getDefault();
+
+    /**
+     * @param context The application context, used for the report intents.
+     */
+    public SmsManagerTransport(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Returns the process-wide bulk sender, creating it on first use. A new
+     * sender resumes any messages left in the outbox by an earlier process.
+     *
+     * @param context Any context; only the application context is kept.
+     * @return The sender.
+     */
+    public static synchronized BulkSmsSender getBulkSender(Context context) {
+        if (sSender == null) {
+            final Context appContext = context.getApplicationContext();
+            sSender = new BulkSmsSender(new SmsManagerTransport(appContext),
+                    new TokenBucket(SEGMENTS_PER_SECOND, MAX_BURST),
+                    Executors.newSingleThreadScheduledExecutor(), sTracker,
+                    new File(appContext.getFilesDir(), OUTBOX_DIR));
+            sSender.setListener(new BulkSmsSender.Listener() {
+                @Override
+                public void onSent(String destination, int segments) {
+                    Log.d(TAG, "Sent " + segments + " segment(s) to " + destination);
+                }
+
+                @Override
+                public void onMessageSent(SentSms sms) {
+                    // Add the message to its conversation thread.
+                    InboxRecorder.recordSent(appContext, sms);
+                }
+
+                @Override
+                public void onFailed(String destination, Exception error) {
+                    Log.e(TAG, "Failed to send to " + destination, error);
+                }
+
+                @Override
+                public void onFinished(int sent, int failed) {
+                    Log.d(TAG, "Batch finished: " + sent + " sent, " + failed + " failed");
+                    Log.d(TAG, "Latency: " + sTracker);
+                }
+            });
+            sSender.resume();
+        }
+        return sSender;
+    }
+
+    /**
+     * @return The tracker holding the in-flight messages and latency histograms.
+     */
+    public static DeliveryTracker getTracker() {
+        return sTracker;
+    }
+
+    /**
+     * Splits with SegmentCounter rather than SmsManager, so the parts sent
+     * are the segments the compose field showed.
+     */
+    @Override
+    public ArrayList<String> divideMessage(String text) {
+        return SegmentCounter.divideMessage(text);
+    }
+
+    @Override
+    public void sendTextMessage(String destination, String text, long messageId,
+                                int attempt) {
+        // Set the service center address if needed, otherwise null.
+        String scAddress = null;
+        mSmsManager.sendTextMessage(destination, scAddress, text,
+                reportIntent(SmsStatusReceiver.ACTION_SENT, messageId, attempt, 0),
+                reportIntent(SmsStatusReceiver.ACTION_DELIVERED, messageId, attempt, 0));
+    }
+
+    @Override
+    public void sendMultipartTextMessage(String destination, ArrayList<String> parts,
+                                         long messageId, int attempt) {
+        ArrayList<PendingIntent> sentIntents = new ArrayList<>(parts.size());
+        ArrayList<PendingIntent> deliveryIntents = new ArrayList<>(parts.size());
+        for (int i = 0; i < parts.size(); i++) {
+            sentIntents.add(
+                    reportIntent(SmsStatusReceiver.ACTION_SENT, messageId, attempt, i));
+            deliveryIntents.add(
+                    reportIntent(SmsStatusReceiver.ACTION_DELIVERED, messageId, attempt, i));
+        }
+        mSmsManager.sendMultipartTextMessage(destination, null, parts,
+                sentIntents, deliveryIntents);
+    }
+
+    /**
+     * Creates a report intent for one part of one attempt at a message.
+     * The data URI makes each PendingIntent distinct.
+     */
+    private PendingIntent reportIntent(String action, long messageId, int attempt,
+                                       int part) {
+        Intent intent = new Intent(action,
+                Uri.parse("sms-report://" + messageId + "/" + attempt + "/" + part),
+                mContext, SmsStatusReceiver.class);
+        intent.putExtra(SmsStatusReceiver.EXTRA_MESSAGE_ID, messageId);
+        intent.putExtra(SmsStatusReceiver.EXTRA_ATTEMPT, attempt);
+        return PendingIntent.getBroadcast(mContext, 0, intent, PendingIntent.FLAG_ONE_SHOT);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+
+import java.util.List;
+
+/**
+ * Logs each batch of received messages and shows it in a single toast,
+ * with the tags the keyword filter gave each message.
+ */
+public final class SmsNotifier implements SmsReceivePipeline.Consumer {
+
+    private static final String TAG = SmsNotifier.class.getSimpleName();
+
+    private final Context mContext;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final StringBuilder mText = new StringBuilder();
+
+    /**
+     * @param context The application context.
+     */
+    public SmsNotifier(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Builds the toast text on the worker thread and posts only the
+     * toast itself to the main thread.
+     *
+     * @param messages The batch of messages.
+     */
+    @Override
+    public void onMessages(List<ReceivedSms> messages) {
+        mText.setLength(0);
+        for (int i = 0; i < messages.size(); i++) {
+            ReceivedSms sms = messages.get(i);
+            mText.append("SMS from ").append(sms.getAddress());
+            if (sms.getTags() != 0) {
+                mText.append(" [").append(KeywordFilter.tagNames(sms.getTags())).append(']');
+            }
+            mText.append(" :").append(sms.getBody()).append('\n');
+        }
+        final String strMessage = mText.toString();
+        // Log and display the SMS messages.
+        Log.d(TAG, "onReceive: " + strMessage);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(mContext, strMessage, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+/**
+ * Decodes 3GPP SMS-DELIVER PDUs (TS 23.040) straight from the byte array
+ * into reusable char buffers, extracting only the originating address and
+ * the message body. Supports the GSM 7-bit, 8-bit and UCS-2 alphabets, and
+ * reads the concatenation information element from the user data header.
+ *
+ * An instance holds state between calls and is not thread-safe; keep one
+ * per thread and reuse it for every PDU.
+ */
+public final class SmsPduDecoder {
+
+    public static final int ENCODING_7BIT = 1;
+    public static final int ENCODING_8BIT = 2;
+    public static final int ENCODING_16BIT = 3;
+
+    private static final int MTI_DELIVER = 0x00;
+    private static final int FLAG_UDHI = 0x40;
+    private static final int TON_INTERNATIONAL = 0x10;
+    private static final int TON_ALPHANUMERIC = 0x50;
+    private static final int IEI_CONCAT_8BIT_REF = 0x00;
+    private static final int IEI_CONCAT_16BIT_REF = 0x08;
+
+    private char[] mAddress = new char[32];
+    private int mAddressLength;
+    private char[] mBody = new char[160];
+    private int mBodyLength;
+    private int mEncoding;
+    private int mConcatRef;
+    private int mConcatSeq;
+    private int mConcatCount;
+
+    /**
+     * Decodes a PDU, replacing the result of the previous call.
+     *
+     * @param pdu The raw PDU, including the leading SMSC address.
+     * @return true if the PDU was decoded, false if it is not an SMS-DELIVER
+     *         PDU this decoder understands (the caller should fall back to
+     *         the framework). An SMS-DELIVER PDU whose text cannot be
+     *         decoded still has its concatenation fields read.
+     */
+    public boolean decode(byte[] pdu) {
+        mAddressLength = 0;
+        mBodyLength = 0;
+        mEncoding = 0;
+        mConcatRef = 0;
+        mConcatSeq = 1;
+        mConcatCount = 1;
+        try {
+            return decodeDeliver(pdu);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // Truncated or malformed PDU.
+            mAddressLength = 0;
+            mBodyLength = 0;
+            return false;
+        }
+    }
+
+    private boolean decodeDeliver(byte[] pdu) {
+        // Skip the SMSC address: length in octets, followed by the address.
+        int pos = (pdu[0] & 0xFF) + 1;
+        int firstOctet = pdu[pos++] & 0xFF;
+        if ((firstOctet & 0x03) != MTI_DELIVER) {
+            return false;
+        }
+        pos = decodeAddress(pdu, pos);
+        // Skip TP-PID.
+        pos++;
+        int dcs = pdu[pos++] & 0xFF;
+        mEncoding = encodingForDcs(dcs);
+        // Skip TP-SCTS (service center time stamp).
+        pos += 7;
+        int userDataLength = pdu[pos++] & 0xFF;
+        // TP-UDL counts septets for 7-bit text and octets otherwise,
+        // including compressed text.
+        int userDataOctets = mEncoding == ENCODING_7BIT
+                ? (userDataLength * 7 + 7) / 8 : userDataLength;
+        if (pos + userDataOctets > pdu.length) {
+            return false;
+        }
+        boolean hasHeader = (firstOctet & FLAG_UDHI) != 0;
+        int headerOctets = 0;
+        if (hasHeader) {
+            if (userDataOctets < 1) {
+                return false;
+            }
+            headerOctets = (pdu[pos] & 0xFF) + 1;
+            if (headerOctets > userDataOctets) {
+                return false;
+            }
+            decodeHeader(pdu, pos + 1, pos + headerOctets);
+        }
+        if (mEncoding == 0) {
+            // The framework decodes the text; the header is still ours.
+            return false;
+        }
+        switch (mEncoding) {
+            case ENCODING_7BIT:
+                // The text starts on the first septet boundary after the header.
+                int headerSeptets = (headerOctets * 8 + 6) / 7;
+                if (headerSeptets > userDataLength) {
+                    return false;
+                }
+                decodeSeptets(pdu, pos, headerSeptets, userDataLength - headerSeptets);
+                break;
+            case ENCODING_8BIT:
+                decodeOctets(pdu, pos + headerOctets, userDataLength - headerOctets);
+                break;
+            default:
+                decodeUcs2(pdu, pos + headerOctets, userDataLength - headerOctets);
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Walks the information elements of the user data header, keeping
+     * the concatenation reference, sequence number and part count.
+     */
+    private void decodeHeader(byte[] pdu, int pos, int end) {
+        while (pos + 1 < end) {
+            int iei = pdu[pos] & 0xFF;
+            int length = pdu[pos + 1] & 0xFF;
+            int data = pos + 2;
+            if (data + length > end) {
+                // The element runs past the header.
+                break;
+            }
+            if (iei == IEI_CONCAT_8BIT_REF && length == 3) {
+                mConcatRef = pdu[data] & 0xFF;
+                mConcatCount = pdu[data + 1] & 0xFF;
+                mConcatSeq = pdu[data + 2] & 0xFF;
+            } else if (iei == IEI_CONCAT_16BIT_REF && length == 4) {
+                mConcatRef = ((pdu[data] & 0xFF) << 8) | (pdu[data + 1] & 0xFF);
+                mConcatCount = pdu[data + 2] & 0xFF;
+                mConcatSeq = pdu[data + 3] & 0xFF;
+            }
+            pos = data + length;
+        }
+    }
+
+    /**
+     * Decodes TP-OA into the address buffer.
+     *
+     * @return The position just past the address.
+     */
+    private int decodeAddress(byte[] pdu, int pos) {
+        int digits = pdu[pos++] & 0xFF;
+        int toa = pdu[pos++] & 0xFF;
+        int octets = (digits + 1) / 2;
+        if ((toa & 0x70) == TON_ALPHANUMERIC) {
+            // Alphanumeric sender IDs are GSM 7-bit packed; the length
+            // counts semi-octets.
+            int septets = digits * 4 / 7;
+            ensureAddressCapacity(septets);
+            mAddressLength = unpackSeptets(pdu, pos, 0, septets, mAddress);
+            return pos + octets;
+        }
+        ensureAddressCapacity(digits + 1);
+        int n = 0;
+        if ((toa & 0x70) == TON_INTERNATIONAL) {
+            mAddress[n++] = '+';
+        }
+        for (int i = 0; i < digits; i++) {
+            int b = pdu[pos + (i >> 1)] & 0xFF;
+            int nibble = (i & 1) == 0 ? b & 0x0F : b >> 4;
+            mAddress[n++] = bcdChar(nibble);
+        }
+        mAddressLength = n;
+        return pos + octets;
+    }
+
+    private void decodeSeptets(byte[] pdu, int udStart, int skipSeptets, int count) {
+        ensureBodyCapacity(Math.max(count, 0));
+        mBodyLength = unpackSeptets(pdu, udStart, skipSeptets, count, mBody);
+    }
+
+    /**
+     * Unpacks septets into a char buffer, resolving escape sequences.
+     * The caller must have ensured capacity for count characters.
+     *
+     * @return The number of characters written.
+     */
+    private static int unpackSeptets(byte[] pdu, int start, int skipSeptets, int count,
+                                     char[] out) {
+        int n = 0;
+        boolean escaped = false;
+        for (int i = 0; i < count; i++) {
+            int bit = (skipSeptets + i) * 7;
+            int index = start + (bit >> 3);
+            int shift = bit & 7;
+            int septet = (pdu[index] & 0xFF) >> shift;
+            if (shift > 1) {
+                septet |= pdu[index + 1] << (8 - shift);
+            }
+            septet &= 0x7F;
+            if (escaped) {
+                out[n++] = GsmAlphabet.toExtendedChar(septet);
+                escaped = false;
+            } else if (septet == GsmAlphabet.ESCAPE) {
+                escaped = true;
+            } else {
+                out[n++] = GsmAlphabet.toChar(septet);
+            }
+        }
+        return n;
+    }
+
+    private void decodeOctets(byte[] pdu, int start, int count) {
+        ensureBodyCapacity(count);
+        for (int i = 0; i < count; i++) {
+            mBody[i] = (char) (pdu[start + i] & 0xFF);
+        }
+        mBodyLength = count;
+    }
+
+    private void decodeUcs2(byte[] pdu, int start, int octets) {
+        int count = octets / 2;
+        ensureBodyCapacity(count);
+        for (int i = 0; i < count; i++) {
+            int p = start + i * 2;
+            mBody[i] = (char) (((pdu[p] & 0xFF) << 8) | (pdu[p + 1] & 0xFF));
+        }
+        mBodyLength = count;
+    }
+
+    /**
+     * Maps a TP-DCS value to an encoding.
+     *
+     * @return The encoding, or 0 for compressed or reserved schemes.
+     */
+    private static int encodingForDcs(int dcs) {
+        int group = dcs >> 4;
+        if (group <= 0x07) {
+            // General data coding (with or without automatic deletion).
+            if ((dcs & 0x20) != 0) {
+                // Compressed text is not supported.
+                return 0;
+            }
+            switch ((dcs >> 2) & 0x03) {
+                case 0:
+                    return ENCODING_7BIT;
+                case 1:
+                    return ENCODING_8BIT;
+                case 2:
+                    return ENCODING_16BIT;
+                default:
+                    return 0;
+            }
+        } else if (group == 0x0C || group == 0x0D) {
+            // Message waiting indication, GSM 7-bit.
+            return ENCODING_7BIT;
+        } else if (group == 0x0E) {
+            // Message waiting indication, UCS-2.
+            return ENCODING_16BIT;
+        } else if (group == 0x0F) {
+            return (dcs & 0x04) == 0 ? ENCODING_7BIT : ENCODING_8BIT;
+        }
+        return 0;
+    }
+
+    private static char bcdChar(int nibble) {
+        switch (nibble) {
+            case 0x0A:
+                return '*';
+            case 0x0B:
+                return '#';
+            case 0x0C:
+                return 'a';
+            case 0x0D:
+                return 'b';
+            case 0x0E:
+                return 'c';
+            default:
+                return (char) ('0' + nibble);
+        }
+    }
+
+    private void ensureAddressCapacity(int capacity) {
+        if (mAddress.length < capacity) {
+            mAddress = new char[capacity];
+        }
+    }
+
+    private void ensureBodyCapacity(int capacity) {
+        if (mBody.length < capacity) {
+            mBody = new char[Math.max(capacity, mBody.length * 2)];
+        }
+    }
+
+    /**
+     * @return The encoding of the last decoded PDU (one of the ENCODING_ constants).
+     */
+    public int getEncoding() {
+        return mEncoding;
+    }
+
+    /**
+     * @return The buffer holding the originating address; valid up to
+     *         getAddressLength() and only until the next decode().
+     */
+    public char[] getAddressChars() {
+        return mAddress;
+    }
+
+    public int getAddressLength() {
+        return mAddressLength;
+    }
+
+    /**
+     * @return The buffer holding the message body; valid up to
+     *         getBodyLength() and only until the next decode().
+     */
+    public char[] getBodyChars() {
+        return mBody;
+    }
+
+    public int getBodyLength() {
+        return mBodyLength;
+    }
+
+    /**
+     * @return The concatenation reference number, or 0 for a single-part message.
+     */
+    public int getConcatRef() {
+        return mConcatRef;
+    }
+
+    /**
+     * @return The 1-based sequence number of this part.
+     */
+    public int getConcatSeq() {
+        return mConcatSeq;
+    }
+
+    /**
+     * @return The total number of parts, 1 for a single-part message.
+     */
+    public int getConcatCount() {
+        return mConcatCount;
+    }
+
+    /**
+     * Allocates a String for the originating address. Prefer the char
+     * accessors on hot paths.
+     *
+     * @return The originating address.
+     */
+    public String getOriginatingAddress() {
+        return new String(mAddress, 0, mAddressLength);
+    }
+
+    /**
+     * Appends the message body to a builder without an intermediate String.
+     *
+     * @param sb The builder to append to.
+     */
+    public void appendBody(StringBuilder sb) {
+        sb.append(mBody, 0, mBodyLength);
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+import java.util.ArrayList;
+
+/**
+ * Joins the parts of concatenated SMS messages, keyed on sender, reference
+ * number and part count. Parts may arrive in any order and across several
+ * broadcasts.
+ *
+ * The sender is taken as a char buffer, such as SmsPduDecoder's, and a
+ * part that does not complete its message allocates nothing beyond the
+ * copy of its text: incomplete messages are found by a scan comparing a
+ * hash of the key, then the key itself. The cap keeps them few.
+ *
+ * The memory held by incomplete messages is capped; when a new part
+ * would go over the cap, the oldest incomplete messages are dropped. The
+ * cap is in chars, and besides the text it is charged a fixed overhead for
+ * each message and part, so that empty parts are not free. Parts older
+ * than the timeout are dropped as well. Not thread-safe.
+ */
+public final class SmsReassembler {
+
+    // Rough costs in chars (2 bytes): an incomplete message's object, map
+    // entry and key; each slot of its part array; and each part's array.
+    private static final int PARTIAL_OVERHEAD_CHARS = 64;
+    private static final int SLOT_CHARS = 4;
+    private static final int PART_OVERHEAD_CHARS = 8;
+
+    private final int mMaxPendingChars;
+    private final long mTimeoutMillis;
+    // In arrival order of the first part, oldest first.
+    private final ArrayList<Partial> mPending = new ArrayList<>();
+    private int mPendingChars;
+    private int mDroppedCount;
+
+    /**
+     * An incomplete message.
+     */
+    private static final class Partial {
+        final long hash;
+        final char[] address;
+        final int ref;
+        final char[][] parts;
+        final long firstSeenMillis;
+        int received;
+        int chars;
+        // Charged against the cap, overheads included.
+        int cost;
+
+        Partial(long hash, char[] address, int addressLength, int ref, int count,
+                long firstSeenMillis) {
+            this.hash = hash;
+            this.address = new char[addressLength];
+            System.arraycopy(address, 0, this.address, 0, addressLength);
+            this.ref = ref;
+            this.parts = new char[count][];
+            this.firstSeenMillis = firstSeenMillis;
+        }
+
+        boolean matches(long hash, char[] address, int addressLength, int ref, int count) {
+            if (this.hash != hash || this.ref != ref || parts.length != count
+                    || this.address.length != addressLength) {
+                return false;
+            }
+            for (int i = 0; i < addressLength; i++) {
+                if (this.address[i] != address[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Joins the parts in order with a single copy of each.
+         */
+        String join() {
+            StringBuilder sb = new StringBuilder(chars);
+            for (char[] part : parts) {
+                sb.append(part);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * @param maxPendingChars Maximum memory held by incomplete messages, in chars.
+     * @param timeoutMillis   How long to wait for the remaining parts of a message.
+     */
+    public SmsReassembler(int maxPendingChars, long timeoutMillis) {
+        mMaxPendingChars = maxPendingChars;
+        mTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Adds one part of a message.
+     *
+     * @param address       Buffer holding the originating address.
+     * @param addressLength Number of characters in address.
+     * @param ref       Concatenation reference number.
+     * @param seq       1-based sequence number of this part.
+     * @param count     Total number of parts; 1 for a single-part message.
+     * @param body      Buffer holding the text of this part.
+     * @param length    Number of characters in body.
+     * @param nowMillis Current time from a monotonic clock.
+     * @return The complete message text, or null if parts are still missing
+     *         (or this part was a duplicate or had to be dropped).
+     */
+    public String add(char[] address, int addressLength, int ref, int seq, int count,
+                      char[] body, int length, long nowMillis) {
+        evictExpired(nowMillis);
+        if (count <= 1 || seq < 1 || seq > count) {
+            // Not part of a concatenated message.
+            return new String(body, 0, length);
+        }
+        long hash = hash(address, addressLength, ref, count);
+        Partial partial = find(hash, address, addressLength, ref, count);
+        int cost = PART_OVERHEAD_CHARS + length;
+        if (partial == null) {
+            cost += PARTIAL_OVERHEAD_CHARS + count * SLOT_CHARS;
+        } else if (partial.parts[seq - 1] != null) {
+            // Duplicate part.
+            return null;
+        }
+        if (!makeRoom(cost, partial)) {
+            if (partial != null) {
+                remove(partial);
+            }
+            mDroppedCount++;
+            return null;
+        }
+        if (partial == null) {
+            partial = new Partial(hash, address, addressLength, ref, count, nowMillis);
+            mPending.add(partial);
+        }
+        char[] part = new char[length];
+        System.arraycopy(body, 0, part, 0, length);
+        partial.parts[seq - 1] = part;
+        partial.received++;
+        partial.chars += length;
+        partial.cost += cost;
+        mPendingChars += cost;
+        if (partial.received < count) {
+            return null;
+        }
+        remove(partial);
+        return partial.join();
+    }
+
+    private Partial find(long hash, char[] address, int addressLength, int ref, int count) {
+        for (int i = 0; i < mPending.size(); i++) {
+            Partial partial = mPending.get(i);
+            if (partial.matches(hash, address, addressLength, ref, count)) {
+                return partial;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * FNV-1a over the address, then the reference number and part count.
+     */
+    private static long hash(char[] address, int addressLength, int ref, int count) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < addressLength; i++) {
+            hash = (hash ^ address[i]) * 0x100000001b3L;
+        }
+        hash = (hash ^ ref) * 0x100000001b3L;
+        return (hash ^ count) * 0x100000001b3L;
+    }
+
+    /**
+     * Drops the oldest incomplete messages, other than the one being added
+     * to, until there is room for the given cost.
+     *
+     * @param current The message being added to, or null for a new one.
+     * @return false if the message being added to cannot fit even on its own.
+     */
+    private boolean makeRoom(int cost, Partial current) {
+        if ((current != null ? current.cost : 0) + cost > mMaxPendingChars) {
+            return false;
+        }
+        int i = 0;
+        while (mPendingChars + cost > mMaxPendingChars && i < mPending.size()) {
+            Partial oldest = mPending.get(i);
+            if (oldest != current) {
+                mPending.remove(i);
+                mPendingChars -= oldest.cost;
+                mDroppedCount++;
+            } else {
+                i++;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Drops incomplete messages whose first part arrived more than the
+     * timeout ago.
+     *
+     * @param nowMillis Current time from a monotonic clock.
+     */
+    public void evictExpired(long nowMillis) {
+        // Oldest first, so the expired ones are at the front.
+        int expired = 0;
+        while (expired < mPending.size()
+                && nowMillis - mPending.get(expired).firstSeenMillis >= mTimeoutMillis) {
+            mPendingChars -= mPending.get(expired).cost;
+            expired++;
+        }
+        if (expired > 0) {
+            mPending.subList(0, expired).clear();
+            mDroppedCount += expired;
+        }
+    }
+
+    private void remove(Partial partial) {
+        mPending.remove(partial);
+        mPendingChars -= partial.cost;
+    }
+
+    /**
+     * @return Memory currently held by incomplete messages, in chars.
+     */
+    public int getPendingChars() {
+        return mPendingChars;
+    }
+
+    /**
+     * @return Number of incomplete messages dropped because of the timeout or the cap.
+     */
+    public int getDroppedCount() {
+        return mDroppedCount;
+    }
+}
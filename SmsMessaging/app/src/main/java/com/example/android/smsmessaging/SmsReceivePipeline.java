@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.telephony.SmsMessage;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Processes inbound SMS PDUs on a single worker thread, away from the
+ * broadcast window on the main thread.
+ *
+ * MySmsReceiver hands each broadcast to enqueue() together with the
+ * PendingResult from goAsync() and returns at once. The worker drains
+ * everything queued so far as one batch: it decodes and reassembles the
+ * PDUs, drops messages from blocked numbers, tags the rest with the
+ * current KeywordFilter, passes them to each Consumer, and then finishes
+ * the pending broadcasts. The decoder and reassembler are only touched by
+ * the worker, so they need no locking.
+ */
+public final class SmsReceivePipeline {
+
+    private static final String TAG = SmsReceivePipeline.class.getSimpleName();
+    private static final String FORMAT_3GPP = "3gpp";
+    // Upper bound on broadcasts handled in one batch, so that the first
+    // broadcast in a burst is finished well inside its time limit.
+    private static final int MAX_BATCH = 64;
+    // Cap on text held for incomplete multipart messages, and how long
+    // to wait for their remaining parts.
+    private static final int MAX_PENDING_CHARS = 16 * 1024;
+    private static final long PART_TIMEOUT_MILLIS = 10 * 60 * 1000;
+    private static final String BLOCKLIST_FILE = "blocklist.txt";
+
+    private static SmsReceivePipeline sInstance;
+
+    /**
+     * Receives batches of complete messages on the worker thread.
+     */
+    public interface Consumer {
+        /**
+         * Called once per batch, in arrival order.
+         *
+         * @param messages The messages. The list is reused after the call returns.
+         */
+        void onMessages(List<ReceivedSms> messages);
+    }
+
+    /**
+     * One broadcast waiting to be processed.
+     */
+    private static final class Inbound {
+        final Object[] pdus;
+        final String format;
+        final long receivedMillis;
+        final BroadcastReceiver.PendingResult result;
+
+        Inbound(Object[] pdus, String format, long receivedMillis,
+                BroadcastReceiver.PendingResult result) {
+            this.pdus = pdus;
+            this.format = format;
+            this.receivedMillis = receivedMillis;
+            this.result = result;
+        }
+    }
+
+    private final LinkedBlockingQueue<Inbound> mQueue = new LinkedBlockingQueue<>();
+    private final CopyOnWriteArrayList<Consumer> mConsumers = new CopyOnWriteArrayList<>();
+    private final SmsFilterRules mRules;
+    private final BlocklistFile mBlocklistFile;
+    private final PhoneNumberNormalizer mNormalizer;
+
+    // Owned by the worker thread.
+    private final SmsPduDecoder mDecoder = new SmsPduDecoder();
+    private final SmsReassembler mReassembler =
+            new SmsReassembler(MAX_PENDING_CHARS, PART_TIMEOUT_MILLIS);
+    private final ArrayList<Inbound> mBatch = new ArrayList<>();
+    private final ArrayList<ReceivedSms> mMessages = new ArrayList<>();
+    private KeywordFilter mFilter = KeywordFilter.EMPTY;
+    private NumberBlocklist mBlocklist = NumberBlocklist.EMPTY;
+    private int mLoggedDropCount;
+
+    /**
+     * Returns the process-wide pipeline, starting it on first use.
+     *
+     * @param context Any context; only the application context is kept.
+     * @return The pipeline.
+     */
+    public static synchronized SmsReceivePipeline getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            PhoneNumberNormalizer normalizer = PhoneNumbers.getNormalizer(appContext);
+            sInstance = new SmsReceivePipeline(SmsFilterRules.getInstance(appContext),
+                    new BlocklistFile(new File(appContext.getFilesDir(), BLOCKLIST_FILE),
+                            normalizer), normalizer);
+            sInstance.addConsumer(new InboxRecorder(appContext));
+            sInstance.addConsumer(new SmsNotifier(appContext));
+            sInstance.start();
+        }
+        return sInstance;
+    }
+
+    private SmsReceivePipeline(SmsFilterRules rules, BlocklistFile blocklistFile,
+                               PhoneNumberNormalizer normalizer) {
+        mRules = rules;
+        mBlocklistFile = blocklistFile;
+        mNormalizer = normalizer;
+    }
+
+    private void start() {
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runLoop();
+            }
+        }, TAG);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Adds a consumer for complete messages.
+     *
+     * @param consumer The consumer, called on the worker thread.
+     */
+    public void addConsumer(Consumer consumer) {
+        mConsumers.add(consumer);
+    }
+
+    /**
+     * Queues the PDUs of one SMS_RECEIVED broadcast. Does no decoding.
+     *
+     * @param pdus   The "pdus" extra of the broadcast.
+     * @param format The "format" extra, or null before M.
+     * @param result The result from goAsync(), finished once the PDUs are
+     *               processed; may be null.
+     */
+    public void enqueue(Object[] pdus, String format, BroadcastReceiver.PendingResult result) {
+        mQueue.add(new Inbound(pdus, format, System.currentTimeMillis(), result));
+    }
+
+    private void runLoop() {
+        while (true) {
+            try {
+                mBatch.add(mQueue.take());
+            } catch (InterruptedException e) {
+                // Nothing more will be processed, but every queued
+                // broadcast must still be finished.
+                mQueue.drainTo(mBatch);
+                finishBatch();
+                return;
+            }
+            mQueue.drainTo(mBatch, MAX_BATCH - 1);
+            try {
+                processBatch();
+            } finally {
+                finishBatch();
+            }
+        }
+    }
+
+    /**
+     * Finishes the pending broadcasts of the batch and clears it.
+     */
+    private void finishBatch() {
+        for (int i = 0; i < mBatch.size(); i++) {
+            BroadcastReceiver.PendingResult result = mBatch.get(i).result;
+            if (result != null) {
+                result.finish();
+            }
+        }
+        mBatch.clear();
+        mMessages.clear();
+    }
+
+    private void processBatch() {
+        // One filter and blocklist for the whole batch, even if new ones
+        // arrive meanwhile. Neither waits: until the blocklist file has
+        // been read, which starts with the pipeline, nothing is blocked.
+        mFilter = mRules.current();
+        mBlocklist = mBlocklistFile.current();
+        for (int i = 0; i < mBatch.size(); i++) {
+            Inbound inbound = mBatch.get(i);
+            for (Object pdu : inbound.pdus) {
+                try {
+                    decode((byte[]) pdu, inbound.format, inbound.receivedMillis);
+                } catch (RuntimeException e) {
+                    // Drop the bad PDU rather than the worker thread.
+                    Log.e(TAG, "Dropping PDU that failed to decode", e);
+                }
+            }
+        }
+        int dropCount = mReassembler.getDroppedCount();
+        if (dropCount != mLoggedDropCount) {
+            Log.w(TAG, "Dropped " + (dropCount - mLoggedDropCount)
+                    + " incomplete messages; " + mReassembler.getPendingChars()
+                    + " chars still held");
+            mLoggedDropCount = dropCount;
+        }
+        if (mMessages.isEmpty()) {
+            return;
+        }
+        for (Consumer consumer : mConsumers) {
+            try {
+                consumer.onMessages(mMessages);
+            } catch (RuntimeException e) {
+                // Keep the worker alive for the other consumers.
+                Log.e(TAG, "Consumer failed", e);
+            }
+        }
+    }
+
+    /**
+     * Decodes one PDU and adds a message to the batch if it completes one.
+     */
+    private void decode(byte[] pdu, String format, long receivedMillis) {
+        // Only 3GPP PDUs can be decoded in place. Before M there is
+        // no format extra, and the PDUs are 3GPP.
+        boolean canDecode = (format == null || FORMAT_3GPP.equals(format));
+        String address;
+        String body;
+        if (canDecode && mDecoder.decode(pdu)) {
+            // Returns null until every part of the message is here. Only
+            // then is the address made into a String.
+            body = mReassembler.add(mDecoder.getAddressChars(), mDecoder.getAddressLength(),
+                    mDecoder.getConcatRef(), mDecoder.getConcatSeq(),
+                    mDecoder.getConcatCount(), mDecoder.getBodyChars(),
+                    mDecoder.getBodyLength(), SystemClock.elapsedRealtime());
+            if (body == null) {
+                return;
+            }
+            address = mDecoder.getOriginatingAddress();
+        } else {
+            // Fall back to the framework decoder.
+            SmsMessage msg = createFromPdu(pdu, format);
+            if (msg == null) {
+                Log.w(TAG, "Dropping undecodable PDU");
+                return;
+            }
+            // Either can be null, e.g. for status reports; the inbox
+            // stores both as text.
+            address = msg.getOriginatingAddress();
+            if (address == null) {
+                address = "";
+            }
+            body = msg.getMessageBody();
+            if (body == null) {
+                body = "";
+            }
+            // The decoder still read the concatenation header of a 3GPP
+            // PDU whose text it could not decode, so the part joins the
+            // others as usual. 3GPP2 parts arrive on their own.
+            if (canDecode) {
+                char[] chars = body.toCharArray();
+                body = mReassembler.add(address.toCharArray(), address.length(),
+                        mDecoder.getConcatRef(), mDecoder.getConcatSeq(),
+                        mDecoder.getConcatCount(), chars, chars.length,
+                        SystemClock.elapsedRealtime());
+                if (body == null) {
+                    return;
+                }
+            }
+        }
+        if (!address.isEmpty() && mBlocklist.isBlocked(mNormalizer.normalize(address))) {
+            Log.i(TAG, "Dropping message from blocked number " + address);
+            return;
+        }
+        mMessages.add(new ReceivedSms(address, body, receivedMillis, mFilter.match(body)));
+    }
+
+    /**
+     * Decodes a PDU with the framework SmsMessage class.
+     *
+     * @param pdu    The raw PDU.
+     * @param format The PDU format ("3gpp" or "3gpp2"), or null before M.
+     * @return The decoded message, or null.
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private static SmsMessage createFromPdu(byte[] pdu, String format) {
+        // Check Android version and use appropriate createFromPdu.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            // If Android version M or newer:
+            return SmsMessage.createFromPdu(pdu, format);
+        } else {
+            // If Android version L or older:
+            return SmsMessage.createFromPdu(pdu);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.telephony.SmsManager;
+import android.telephony.SmsMessage;
+
+/**
+ * Receives the sent and delivery reports requested by SmsManagerTransport
+ * and passes them to the DeliveryTracker, and the sent reports to the
+ * BulkSmsSender's outbox so failed sends are retried.
+ */
+public class SmsStatusReceiver extends BroadcastReceiver {
+
+    public static final String ACTION_SENT =
+            "com.example.android.smsmessaging.action.SMS_SENT";
+    public static final String ACTION_DELIVERED =
+            "com.example.android.smsmessaging.action.SMS_DELIVERED";
+    public static final String EXTRA_MESSAGE_ID = "message_id";
+    public static final String EXTRA_ATTEMPT = "attempt";
+
+    // TP-Status values from 0x20 up are still pending; from 0x40 up
+    // they are permanent failures (3GPP TS 23.040).
+    private static final int STATUS_PENDING = 0x20;
+    private static final int STATUS_FAILED = 0x40;
+
+    /**
+     * Called when the BroadcastReceiver is receiving an Intent broadcast.
+     *
+     * @param context  The Context in which the receiver is running.
+     * @param intent   The Intent received.
+     */
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        long now = System.nanoTime();
+        long messageId = intent.getLongExtra(EXTRA_MESSAGE_ID, 0);
+        int attempt = intent.getIntExtra(EXTRA_ATTEMPT, 1);
+        DeliveryTracker tracker = SmsManagerTransport.getTracker();
+        if (ACTION_SENT.equals(intent.getAction())) {
+            int resultCode = getResultCode();
+            boolean success = resultCode == Activity.RESULT_OK;
+            tracker.onSent(messageId, attempt, success, now);
+            // A failure is counted by the sender once the outbox gives up.
+            SmsManagerTransport.getBulkSender(context).onSentReport(messageId, attempt,
+                    success, isRetryable(resultCode));
+        } else if (ACTION_DELIVERED.equals(intent.getAction())) {
+            int status = deliveryStatus(intent);
+            if (status < STATUS_PENDING) {
+                tracker.onDelivered(messageId, attempt, true, now);
+            } else if (status >= STATUS_FAILED) {
+                tracker.onDelivered(messageId, attempt, false, now);
+            }
+        }
+    }
+
+    /**
+     * Tells whether a failed send may succeed later.
+     *
+     * @param resultCode The result code of the sent report.
+     * @return true for failures caused by the radio or the network.
+     */
+    private static boolean isRetryable(int resultCode) {
+        switch (resultCode) {
+            case SmsManager.RESULT_ERROR_GENERIC_FAILURE:
+            case SmsManager.RESULT_ERROR_NO_SERVICE:
+            case SmsManager.RESULT_ERROR_RADIO_OFF:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Reads the status from the status report PDU in the intent.
+     *
+     * @return The TP-Status value; 0 (delivered) if there is no report PDU.
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private static int deliveryStatus(Intent intent) {
+        byte[] pdu = intent.getByteArrayExtra("pdu");
+        if (pdu == null) {
+            return 0;
+        }
+        SmsMessage report;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            report = SmsMessage.createFromPdu(pdu, intent.getStringExtra("format"));
+        } else {
+            report = SmsMessage.createFromPdu(pdu);
+        }
+        return report != null ? report.getStatus() : 0;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+import java.util.ArrayList;
+
+/**
+ * The operations BulkSmsSender needs from SmsManager. SmsManagerTransport
+ * is the real implementation; a fake can stand in for it off-device.
+ */
+public interface SmsTransport {
+
+    /**
+     * Splits a message body into parts that each fit in one SMS.
+     *
+     * @param text The message body.
+     * @return The parts, in order.
+     */
+    ArrayList<String> divideMessage(String text);
+
+    /**
+     * Sends a single-part message.
+     *
+     * @param destination The destination address.
+     * @param text        The message body.
+     * @param messageId   Outbox ID to attach to the sent and
+     *                    delivery reports.
+     * @param attempt     Attempt number, also attached to the sent report.
+     */
+    void sendTextMessage(String destination, String text, long messageId, int attempt);
+
+    /**
+     * Sends a message that divideMessage() split into several parts.
+     *
+     * @param destination The destination address.
+     * @param parts       The parts, in order.
+     * @param messageId   Outbox ID to attach to the sent and
+     *                    delivery reports.
+     * @param attempt     Attempt number, also attached to the sent report.
+     */
+    void sendMultipartTextMessage(String destination, ArrayList<String> parts,
+                                  long messageId, int attempt);
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token-bucket rate limiter: permits are added at a fixed rate up to a
+ * maximum burst, and each send takes one permit per SMS segment.
+ */
+public final class TokenBucket {
+
+    private final double mPermitsPerNano;
+    private final double mMaxPermits;
+    private double mPermits;
+    private long mLastRefillNanos;
+
+    /**
+     * @param permitsPerSecond Sustained rate.
+     * @param maxBurst         Most permits that can build up while idle.
+     */
+    public TokenBucket(double permitsPerSecond, int maxBurst) {
+        mPermitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        mMaxPermits = maxBurst;
+        mPermits = maxBurst;
+        mLastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Takes permits, going into debt if there are not enough.
+     *
+     * @param permits   Number of permits to take.
+     * @param nowNanos  Current time from System.nanoTime().
+     * @return How long the caller must wait before acting, in nanoseconds.
+     */
+    public synchronized long reserve(int permits, long nowNanos) {
+        mPermits = Math.min(mMaxPermits,
+                mPermits + (nowNanos - mLastRefillNanos) * mPermitsPerNano);
+        mLastRefillNanos = nowNanos;
+        mPermits -= permits;
+        return mPermits >= 0 ? 0 : (long) (-mPermits / mPermitsPerNano);
+    }
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.smsmessaging;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Full-text index from the trigrams (runs of three characters) of some
+ * texts to the records containing them, used to find the records that may
+ * contain a substring.
+ *
+ * Records are numbered from 0 in the order they are added. The postings of
+ * each trigram are the gaps between its ascending record numbers, written
+ * as variable-length integers, so a common trigram costs about a byte per
+ * record. An index is either built in memory, one record at a time, or
+ * memory-mapped read-only from a file written by write(); the file holds
+ * the sorted trigrams, the end of each posting list, and the postings, so
+ * opening it reads nothing until the first query.
+ *
+ * Text is folded to lower case before indexing and querying. Trigrams of
+ * characters below U+0400 are packed exactly; others are hashed, so
+ * candidates() may return records that do not contain the query, and the
+ * caller must check them. Not thread-safe.
+ */
+public final class TrigramIndex {
+
+    // Bit 30 marks a hashed trigram; exact ones fit in 30 bits.
+    private static final int HASHED = 0x40000000;
+
+    // In memory: an open-addressing table from trigram to posting list.
+    private int[] mKeys;
+    private int[] mSlots;
+    private byte[][] mPostings;
+    private int[] mLengths;
+    private int[] mLastRecords;
+    private int mTrigramCount;
+
+    // Mapped: trigram count, sorted trigrams, posting list ends, postings.
+    private final ByteBuffer mMapped;
+    private final int mEndsStart;
+    private final int mPostingsStart;
+
+    /**
+     * Creates an empty index to be built in memory.
+     */
+    public TrigramIndex() {
+        mKeys = new int[1024];
+        mSlots = new int[1024];
+        mPostings = new byte[512][];
+        mLengths = new int[512];
+        mLastRecords = new int[512];
+        mMapped = null;
+        mEndsStart = 0;
+        mPostingsStart = 0;
+    }
+
+    private TrigramIndex(ByteBuffer mapped) {
+        mMapped = mapped;
+        mTrigramCount = mapped.getInt(0);
+        mEndsStart = 4 + 4 * mTrigramCount;
+        mPostingsStart = mEndsStart + 4 * mTrigramCount;
+    }
+
+    /**
+     * Maps an index written by write().
+     *
+     * @param file The index file.
+     * @return The read-only index.
+     * @throws IOException if the file cannot be mapped.
+     */
+    public static TrigramIndex map(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            return new TrigramIndex(
+                    in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length()));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Lower-cases text the way the index does.
+     *
+     * @param text The text.
+     * @return The folded text.
+     */
+    public static String fold(CharSequence text) {
+        char[] folded = new char[text.length()];
+        for (int i = 0; i < folded.length; i++) {
+            folded[i] = Character.toLowerCase(text.charAt(i));
+        }
+        return new String(folded);
+    }
+
+    /**
+     * Adds the trigrams of a text to a record. Call it for a record's texts
+     * before adding any later record.
+     *
+     * @param record The record number, not below the last one added.
+     * @param text   The text; trigrams never span two texts.
+     */
+    public void add(int record, CharSequence text) {
+        if (mMapped != null) {
+            throw new IllegalStateException("Index is read-only");
+        }
+        if (text.length() < 3) {
+            return;
+        }
+        char a = Character.toLowerCase(text.charAt(0));
+        char b = Character.toLowerCase(text.charAt(1));
+        for (int i = 2; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            addPosting(key(a, b, c), record);
+            a = b;
+            b = c;
+        }
+    }
+
+    /**
+     * Returns the records that contain every trigram of a query.
+     *
+     * @param folded The query, folded with fold().
+     * @return The records in ascending order, or null if the query is too
+     * short to narrow the search and every record is a candidate.
+     */
+    public int[] candidates(String folded) {
+        if (folded.length() < 3) {
+            return null;
+        }
+        int[] keys = new int[folded.length() - 2];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = key(folded.charAt(i), folded.charAt(i + 1), folded.charAt(i + 2));
+        }
+        // Find each posting list, shortest first.
+        int[] lists = new int[keys.length];
+        long[] order = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            lists[i] = find(keys[i]);
+            if (lists[i] < 0) {
+                return new int[0];
+            }
+            order[i] = ((long) postingLength(lists[i]) << 32) | i;
+        }
+        Arrays.sort(order);
+        int first = lists[(int) order[0]];
+        // Each record takes at least one byte.
+        int[] records = new int[postingLength(first)];
+        int count = decode(first, records);
+        int previousList = first;
+        for (int i = 1; i < order.length && count > 0; i++) {
+            int list = lists[(int) order[i]];
+            if (list != previousList) {
+                count = intersect(list, records, count);
+                previousList = list;
+            }
+        }
+        return Arrays.copyOf(records, count);
+    }
+
+    /**
+     * Writes the index so that it can be mapped with map().
+     *
+     * @param file The file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(File file) throws IOException {
+        // Sort the trigrams, remembering their posting lists.
+        long[] sorted = new long[mTrigramCount];
+        int n = 0;
+        for (int slot = 0; slot < mSlots.length; slot++) {
+            if (mSlots[slot] != 0) {
+                sorted[n++] = ((long) mKeys[slot] << 32) | (mSlots[slot] - 1);
+            }
+        }
+        Arrays.sort(sorted);
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(mTrigramCount);
+            for (long entry : sorted) {
+                out.writeInt((int) (entry >>> 32));
+            }
+            int end = 0;
+            for (long entry : sorted) {
+                end += mLengths[(int) entry];
+                out.writeInt(end);
+            }
+            for (long entry : sorted) {
+                out.write(mPostings[(int) entry], 0, mLengths[(int) entry]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return The number of distinct trigrams.
+     */
+    public int getTrigramCount() {
+        return mTrigramCount;
+    }
+
+    /**
+     * @return The bytes of postings in the index.
+     */
+    public long getPostingBytes() {
+        if (mMapped != null) {
+            return mTrigramCount == 0 ? 0 : mMapped.getInt(mPostingsStart - 4);
+        }
+        long total = 0;
+        for (int i = 0; i < mTrigramCount; i++) {
+            total += mLengths[i];
+        }
+        return total;
+    }
+
+    private static int key(char a, char b, char c) {
+        if ((a | b | c) < 0x400) {
+            return (a << 20) | (b << 10) | c;
+        }
+        int h = (a * 0x9e3779b1) ^ (b * 0x85ebca6b) ^ (c * 0xc2b2ae35);
+        return (h ^ (h >>> 15)) & (HASHED - 1) | HASHED;
+    }
+
+    private void addPosting(int key, int record) {
+        int slot = slot(mKeys, mSlots, key);
+        int list = mSlots[slot] - 1;
+        if (list < 0) {
+            if ((mTrigramCount + 1) * 4 > mSlots.length * 3) {
+                rehash(mSlots.length * 2);
+                slot = slot(mKeys, mSlots, key);
+            }
+            if (mTrigramCount == mPostings.length) {
+                int capacity = mTrigramCount * 2;
+                mPostings = Arrays.copyOf(mPostings, capacity);
+                mLengths = Arrays.copyOf(mLengths, capacity);
+                mLastRecords = Arrays.copyOf(mLastRecords, capacity);
+            }
+            list = mTrigramCount++;
+            mKeys[slot] = key;
+            mSlots[slot] = list + 1;
+            mPostings[list] = new byte[4];
+            mLastRecords[list] = -1;
+        } else if (mLastRecords[list] == record) {
+            return;
+        }
+        byte[] bytes = mPostings[list];
+        int length = mLengths[list];
+        if (length + 5 > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + 5));
+            mPostings[list] = bytes;
+        }
+        // Gaps are at least 1, since the first record counts from -1.
+        int gap = record - mLastRecords[list];
+        while ((gap & ~0x7f) != 0) {
+            bytes[length++] = (byte) (gap | 0x80);
+            gap >>>= 7;
+        }
+        bytes[length++] = (byte) gap;
+        mLengths[list] = length;
+        mLastRecords[list] = record;
+    }
+
+    /**
+     * Returns the posting list of a trigram: an index into the in-memory
+     * lists, or the position of the trigram in the mapped file.
+     *
+     * @return The list, or -1 if no record has the trigram.
+     */
+    private int find(int key) {
+        if (mMapped == null) {
+            return mSlots[slot(mKeys, mSlots, key)] - 1;
+        }
+        int low = 0;
+        int high = mTrigramCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midKey = mMapped.getInt(4 + 4 * mid);
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int postingStart(int list) {
+        if (mMapped == null) {
+            return 0;
+        }
+        return mPostingsStart + (list == 0 ? 0 : mMapped.getInt(mEndsStart + 4 * (list - 1)));
+    }
+
+    private int postingEnd(int list) {
+        if (mMapped == null) {
+            return mLengths[list];
+        }
+        return mPostingsStart + mMapped.getInt(mEndsStart + 4 * list);
+    }
+
+    private int postingLength(int list) {
+        return postingEnd(list) - postingStart(list);
+    }
+
+    private byte byteAt(int list, int position) {
+        return mMapped != null ? mMapped.get(position) : mPostings[list][position];
+    }
+
+    /**
+     * Decodes a posting list into records.
+     *
+     * @return The number of records.
+     */
+    private int decode(int list, int[] records) {
+        int end = postingEnd(list);
+        int record = -1;
+        int count = 0;
+        int position = postingStart(list);
+        while (position < end) {
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = byteAt(list, position++);
+                gap |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            record += gap;
+            records[count++] = record;
+        }
+        return count;
+    }
+
+    /**
+     * Keeps the records that are also in a posting list.
+     *
+     * @return The number of records kept, at the start of the array.
+     */
+    private int intersect(int list, int[] records, int count) {
+        int end = postingEnd(list);
+        int position = postingStart(list);
+        int record = -1;
+        int kept = 0;
+        int i = 0;
+        while (i < count && position < end) {
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = byteAt(list, position++);
+                gap |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            record += gap;
+            while (i < count && records[i] < record) {
+                i++;
+            }
+            if (i < count && records[i] == record) {
+                records[kept++] = record;
+                i++;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Finds the slot holding the key, or the empty slot where it belongs.
+     */
+    private static int slot(int[] keys, int[] slots, int key) {
+        int mask = slots.length - 1;
+        int slot = (key * 0x9e3779b1) >>> 8 & mask;
+        while (slots[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        int[] keys = new int[capacity];
+        int[] slots = new int[capacity];
+        for (int i = 0; i < mSlots.length; i++) {
+            if (mSlots[i] != 0) {
+                int slot = slot(keys, slots, mKeys[i]);
+                keys[slot] = mKeys[i];
+                slots[slot] = mSlots[i];
+            }
+        }
+        mKeys = keys;
+        mSlots = slots;
+    }
+}